@@ -107,6 +107,24 @@ public class InstrumentTask extends CommonMatchingTask {
 
 	boolean threadsafeRigorous = false;
 
+	String codeProvider = null;
+
+	boolean cacheCounters = false;
+
+	boolean edgeProbes = false;
+
+	boolean minimizeProbes = false;
+
+	Integer samplingRate = null;
+
+	boolean trackTouchedClasses = false;
+
+	boolean killSwitch = false;
+
+	boolean hoistLoopCounters = false;
+
+	boolean methodCoverageOnly = false;
+
 	final private HashMap<String, FileSet> fileSetMap = new HashMap<String, FileSet>();
 
 	public InstrumentTask() {
@@ -225,6 +243,42 @@ public class InstrumentTask extends CommonMatchingTask {
 				builder.addArg("--threadsafeRigorous");
 			}
 
+			if (codeProvider != null) {
+				builder.addArg("--codeProvider", codeProvider);
+			}
+
+			if (cacheCounters) {
+				builder.addArg("--cacheCounters");
+			}
+
+			if (edgeProbes) {
+				builder.addArg("--edgeProbes");
+			}
+
+			if (minimizeProbes) {
+				builder.addArg("--minimizeProbes");
+			}
+
+			if (samplingRate != null) {
+				builder.addArg("--samplingRate", samplingRate.toString());
+			}
+
+			if (trackTouchedClasses) {
+				builder.addArg("--trackTouchedClasses");
+			}
+
+			if (killSwitch) {
+				builder.addArg("--killSwitch");
+			}
+
+			if (hoistLoopCounters) {
+				builder.addArg("--hoistLoopCounters");
+			}
+
+			if (methodCoverageOnly) {
+				builder.addArg("--methodCoverageOnly");
+			}
+
 			if (failOnError) {
 				builder.addArg("--failOnError");
 			}
@@ -346,6 +400,42 @@ public class InstrumentTask extends CommonMatchingTask {
 		this.threadsafeRigorous = threadsafeRigorous;
 	}
 
+	public void setCodeProvider(String codeProvider) {
+		this.codeProvider = codeProvider;
+	}
+
+	public void setCacheCounters(boolean cacheCounters) {
+		this.cacheCounters = cacheCounters;
+	}
+
+	public void setEdgeProbes(boolean edgeProbes) {
+		this.edgeProbes = edgeProbes;
+	}
+
+	public void setMinimizeProbes(boolean minimizeProbes) {
+		this.minimizeProbes = minimizeProbes;
+	}
+
+	public void setSamplingRate(Integer samplingRate) {
+		this.samplingRate = samplingRate;
+	}
+
+	public void setTrackTouchedClasses(boolean trackTouchedClasses) {
+		this.trackTouchedClasses = trackTouchedClasses;
+	}
+
+	public void setKillSwitch(boolean killSwitch) {
+		this.killSwitch = killSwitch;
+	}
+
+	public void setHoistLoopCounters(boolean hoistLoopCounters) {
+		this.hoistLoopCounters = hoistLoopCounters;
+	}
+
+	public void setMethodCoverageOnly(boolean methodCoverageOnly) {
+		this.methodCoverageOnly = methodCoverageOnly;
+	}
+
 	public void setForkedJVMDebugPort(Integer forkedJVMDebugPort) {
 		this.forkedJVMDebugPort = forkedJVMDebugPort;
 	}
@@ -0,0 +1,252 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.collector;
+
+import net.sourceforge.cobertura.coveragedata.CollectorClient;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects coverage data sent by instrumented JVMs (see {@link CollectorClient}) over a loopback socket.
+ * <p/>
+ * The deltas are merged in memory, the datafile is read and written only once by {@link #stop()}, so JVMs
+ * don't wait for the lock of the datafile. The data is lost if the collector is killed before it is stopped,
+ * but it is sent only when the JVMs save their data (at exit or periodically), so it is never more than what
+ * the JVMs would have written to the datafile themselves.
+ */
+public class Collector implements Runnable {
+	private static final Logger logger = LoggerFactory
+			.getLogger(Collector.class);
+
+	/**
+	 * Maximal size of a single delta, bigger requests are refused (the client saves the data into the datafile then).
+	 */
+	static final int MAX_DELTA_SIZE = 256 * 1024 * 1024;
+
+	private final File dataFile;
+	private final ServerSocket serverSocket;
+	private final ProjectData projectData = new ProjectData();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final CountDownLatch stopRequested = new CountDownLatch(1);
+	private final AtomicLong deltaCount = new AtomicLong();
+	private boolean stopped;
+
+	/**
+	 * @param port - loopback port the collector listens on (0 for any free port, see {@link #getPort()})
+	 */
+	public Collector(int port, File dataFile) throws IOException {
+		this.dataFile = dataFile;
+		serverSocket = new ServerSocket(port, 50, InetAddress
+				.getByName("127.0.0.1"));
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public long getDeltaCount() {
+		return deltaCount.get();
+	}
+
+	/**
+	 * Accepts connections until the collector is stopped, every connection is handled on its own thread.
+	 */
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (SocketException e) {
+				// the socket has been closed by stop()
+				break;
+			} catch (IOException e) {
+				logger.error("Cobertura: Error accepting connection", e);
+				continue;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					handle(socket);
+				}
+			});
+		}
+	}
+
+	private void handle(Socket socket) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			int request = in.readInt();
+			if (request == CollectorClient.DELTA) {
+				byte[] data = readDelta(in);
+				/*confirmed before it is merged, the client doesn't save the delta anywhere else once it has
+				 been written, so it can't be counted twice if the confirmation is late*/
+				acknowledge(socket);
+				ProjectData delta = deserializeDelta(data);
+				projectData.merge(delta);
+				deltaCount.incrementAndGet();
+				logger.debug("Cobertura: Got information on "
+						+ delta.getNumberOfClasses() + " classes.");
+			} else if (request == CollectorClient.STOP) {
+				stopRequested.countDown();
+				acknowledge(socket);
+			} else {
+				throw new IOException("Unknown request: " + request);
+			}
+		} catch (Exception e) {
+			logger.error("Cobertura: Error handling request", e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				logger.error("Cobertura: Error closing connection", e);
+			}
+		}
+	}
+
+	private static void acknowledge(Socket socket) throws IOException {
+		socket.getOutputStream().write(CollectorClient.ACK);
+		socket.getOutputStream().flush();
+	}
+
+	private static byte[] readDelta(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_DELTA_SIZE) {
+			throw new IOException("Invalid size of delta: " + length);
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+	/**
+	 * Deserializes a delta, only the coverage data classes and the java.lang and java.util types they
+	 * consist of are accepted (the socket is not authenticated).
+	 */
+	static ProjectData deserializeDelta(byte[] data) throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream objects = new DeltaInputStream(
+				new ByteArrayInputStream(data));
+		try {
+			Object delta = objects.readObject();
+			if (!(delta instanceof ProjectData)) {
+				throw new InvalidObjectException("Not a delta: "
+						+ delta.getClass().getName());
+			}
+			return (ProjectData) delta;
+		} finally {
+			objects.close();
+		}
+	}
+
+	private static class DeltaInputStream extends ObjectInputStream {
+		private static final String COVERAGE_DATA_PACKAGE = ProjectData.class
+				.getPackage().getName()
+				+ ".";
+
+		DeltaInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc)
+				throws IOException, ClassNotFoundException {
+			if (!isAllowed(desc.getName())) {
+				throw new InvalidClassException(desc.getName(),
+						"Class not allowed in a delta");
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces)
+				throws IOException, ClassNotFoundException {
+			throw new InvalidClassException("Proxy classes not allowed in a delta");
+		}
+
+		private static boolean isAllowed(String className) {
+			String name = className;
+			while (name.startsWith("[")) {
+				name = name.substring(1);
+			}
+			if (name.length() == 1) {
+				// array of primitives
+				return true;
+			}
+			if (name.startsWith("L") && name.endsWith(";")) {
+				name = name.substring(1, name.length() - 1);
+			}
+			return isInPackage(name, COVERAGE_DATA_PACKAGE)
+					|| isInPackage(name, "java.lang.")
+					|| isInPackage(name, "java.util.");
+		}
+
+		/**
+		 * @return true if the class is right in the package (not in its subpackages)
+		 */
+		private static boolean isInPackage(String className, String prefix) {
+			return className.startsWith(prefix)
+					&& className.indexOf('.', prefix.length()) < 0;
+		}
+	}
+
+	/**
+	 * Waits until a client asks the collector to stop (see {@link CollectorClient#STOP}).
+	 */
+	public void awaitStopRequest() throws InterruptedException {
+		stopRequested.await();
+	}
+
+	/**
+	 * Stops accepting new connections, waits for the requests in progress and merges the collected data into
+	 * the datafile. Next calls do nothing.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			logger.error("Cobertura: Error closing server socket", e);
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		ProjectData.mergeIntoDatafile(projectData, dataFile);
+		logger.info("Cobertura: Saved " + deltaCount.get()
+				+ " deltas into " + dataFile.getAbsolutePath());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.collector;
+
+import net.sourceforge.cobertura.coveragedata.CollectorClient;
+import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
+import net.sourceforge.cobertura.util.CommandLineBuilder;
+import net.sourceforge.cobertura.util.Header;
+
+import java.io.File;
+
+/**
+ * <p>Runs a local collector of coverage data (see {@link Collector}):</p>
+ * <pre>
+ * cobertura-collector.sh --port 9876 --datafile cobertura.ser &amp;
+ * java -Dnet.sourceforge.cobertura.collector.port=9876 ... (tests of instrumented classes)
+ * cobertura-collector.sh --port 9876 --stop
+ * </pre>
+ * <p>The instrumented JVMs send their data to the collector instead of writing the datafile
+ * (see {@link CollectorClient}). The collector writes the datafile when it is stopped by --stop or when
+ * its JVM exits.</p>
+ */
+public class CollectorMain {
+
+	public static int collect(String[] args) {
+		Header.print(System.out);
+
+		int port = 0;
+		File dataFile = CoverageDataFileHandler.getDefaultDataFile();
+		boolean stop = false;
+		try {
+			args = CommandLineBuilder.preprocessCommandLineArguments(args);
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--port")) {
+					port = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--datafile")) {
+					dataFile = new File(args[++i]);
+				} else if (args[i].equals("--stop")) {
+					stop = true;
+				}
+			}
+		} catch (Exception ex) {
+			System.err.println("Error: Cannot process arguments: "
+					+ ex.getMessage());
+			return 1;
+		}
+		if (port <= 0) {
+			System.err
+					.println("Usage: CollectorMain --port <port> [--datafile <file>] [--stop]");
+			return 1;
+		}
+
+		try {
+			if (stop) {
+				CollectorClient.send(port, 60000, CollectorClient.STOP, null);
+				System.out.println("Collector at port " + port + " stopped");
+				return 0;
+			}
+			final Collector collector = new Collector(port, dataFile
+					.getAbsoluteFile());
+			Thread shutdownHook = new Thread() {
+				public void run() {
+					try {
+						collector.stop();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+			new Thread(collector, "cobertura-collector").start();
+			System.out.println("Collecting coverage data at port "
+					+ collector.getPort() + " into "
+					+ dataFile.getAbsolutePath());
+
+			collector.awaitStopRequest();
+			collector.stop();
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			System.out.println("Coverage data of " + collector.getDeltaCount()
+					+ " saves written to " + dataFile.getAbsolutePath());
+		} catch (Throwable t) {
+			System.err.println(String.format(
+					"Failed while collecting coverage data: %s", t
+							.getMessage()));
+			t.printStackTrace();
+			return 1;
+		}
+		return 0;
+	}
+
+	public static void main(String[] args) {
+		int returnValue = collect(args);
+		if (returnValue != 0) {
+			System.exit(returnValue);
+		}
+	}
+}
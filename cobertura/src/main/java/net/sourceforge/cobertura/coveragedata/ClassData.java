@@ -49,6 +49,12 @@ public class ClassData extends CoverageDataContainer
 
 	private boolean containsInstrumentationInfo = false;
 
+	/**
+	 * True if only the first line of every method was instrumented, so the lines stand for methods
+	 * (see {@link #isMethodCoverageOnly()}).
+	 */
+	private boolean methodCoverageOnly = false;
+
 	private Set<String> methodNamesAndDescriptors = new HashSet<String>();
 
 	private String name = null;
@@ -108,6 +114,19 @@ public class ClassData extends CoverageDataContainer
 		}
 	}
 
+	/**
+	 * @return true if the class was instrumented with method coverage only: there is a single line per method
+	 *         (its first line) and no branches, so the line coverage of the class is the coverage of its methods
+	 */
+	public boolean isMethodCoverageOnly() {
+		lock.lock();
+		try {
+			return this.methodCoverageOnly;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Returns true if the given object is an instance of the
 	 * ClassData class, and it contains the same data as this
@@ -441,6 +460,7 @@ public class ClassData extends CoverageDataContainer
 			}
 
 			this.containsInstrumentationInfo |= classData.containsInstrumentationInfo;
+			this.methodCoverageOnly |= classData.methodCoverageOnly;
 			this.methodNamesAndDescriptors.addAll(classData
 					.getMethodNamesAndDescriptors());
 			if (classData.sourceFileName != null)
@@ -471,6 +491,15 @@ public class ClassData extends CoverageDataContainer
 		}
 	}
 
+	public void setMethodCoverageOnly(boolean methodCoverageOnly) {
+		lock.lock();
+		try {
+			this.methodCoverageOnly = methodCoverageOnly;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	public void setSourceFileName(String sourceFileName) {
 		lock.lock();
 		try {
@@ -480,6 +509,21 @@ public class ClassData extends CoverageDataContainer
 		}
 	}
 
+	/**
+	 * Records that all the lines of this class were instrumented with a sampled code provider,
+	 * so a single hit represents samplingRate executions (see {@link LineData#getEstimatedHits()}).
+	 */
+	public void setSamplingRate(int samplingRate) {
+		lock.lock();
+		try {
+			for (CoverageData lineData : children.values()) {
+				((LineData) lineData).setSamplingRate(samplingRate);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Increment the number of hits for a particular line of code.
 	 *
@@ -0,0 +1,220 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class-maps of the instrumented classes (lines, jumps and switches and the counters they use), that are written
+ * once during the instrumentation into "cobertura.ser.meta" next to the datafile.
+ * <p/>
+ * Every class-map is stored as encoded by {@link EncodedClassMap} together with its hash, that identifies the
+ * layout of counters of the instrumented class. The instrumented code saves only vectors of counters
+ * of such classes (see {@link HitVectors}), and the vectors are joined with the class-maps when the datafile is read.
+ */
+@CoverageIgnore
+public class ClassMetadataStore {
+	private static final Logger logger = LoggerFactory
+			.getLogger(ClassMetadataStore.class);
+
+	private static final int MAGIC = 0xC0BE7A01;
+	private static final String METADATA_SUFFIX = ".meta";
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	public static File getMetadataFile(File dataFile) {
+		return new File(dataFile.getPath() + METADATA_SUFFIX);
+	}
+
+	/**
+	 * @return 64-bit FNV-1a hash of the encoded class-map
+	 */
+	public static long hash(String encodedClassMap) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < encodedClassMap.length(); i++) {
+			hash = (hash ^ encodedClassMap.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param className       - name of the class (with dots)
+	 * @param encodedClassMap - class-map built by {@link EncodedClassMap.Encoder}
+	 */
+	public synchronized void put(String className, String encodedClassMap) {
+		entries.put(className, new Entry(hash(encodedClassMap),
+				encodedClassMap));
+	}
+
+	/**
+	 * Forgets the class-map of the class, so counters of the class are not saved as vectors any more.
+	 *
+	 * @param className - name of the class (with dots)
+	 */
+	public synchronized void remove(String className) {
+		entries.remove(className);
+	}
+
+	/**
+	 * @return the encoded class-map of the class or null, if the class is not known or the class-map has a different hash
+	 */
+	public synchronized String getEncodedClassMap(String className, long hash) {
+		Entry entry = entries.get(className);
+		return entry != null && entry.hash == hash
+				? entry.encodedClassMap
+				: null;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Loads the store, an empty store is returned if the file does not exist or can't be read.
+	 */
+	public static ClassMetadataStore load(File file) {
+		ClassMetadataStore store = new ClassMetadataStore();
+		if (file.isFile()) {
+			read(file, store.entries, true);
+		}
+		return store;
+	}
+
+	/**
+	 * Reads only names and hashes of the class-maps (the class-maps are skipped), it's used by the instrumented
+	 * code to find out which classes can be saved as {@link HitVectors}.
+	 *
+	 * @return hashes of class-maps by names of classes (empty if the file does not exist or can't be read)
+	 */
+	static Map<String, Long> loadHashes(File file) {
+		Map<String, Entry> entries = new TreeMap<String, Entry>();
+		if (file.isFile()) {
+			read(file, entries, false);
+		}
+		Map<String, Long> hashes = new TreeMap<String, Long>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			hashes.put(entry.getKey(), entry.getValue().hash);
+		}
+		return hashes;
+	}
+
+	private static void read(File file, Map<String, Entry> entries,
+			boolean withClassMaps) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 16384));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a class metadata file");
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				String className = in.readUTF();
+				long hash = in.readLong();
+				byte[] encodedClassMap = new byte[in.readInt()];
+				if (withClassMaps) {
+					in.readFully(encodedClassMap);
+					entries.put(className, new Entry(hash, new String(
+							encodedClassMap, "UTF-8")));
+				} else {
+					in.skipBytes(encodedClassMap.length);
+					entries.put(className, new Entry(hash, null));
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Cobertura: Error reading file "
+					+ file.getAbsolutePath() + ": " + e.getLocalizedMessage(),
+					e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.error("Cobertura: Error closing file "
+							+ file.getAbsolutePath(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the store. It's written into a temporary file that replaces the old store, so the instrumented code
+	 * never reads a partially written store.
+	 */
+	public synchronized void save(File file) {
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			File directory = file.getParentFile();
+			if ((directory != null) && !directory.exists()) {
+				directory.mkdirs();
+			}
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary),
+							16384));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().hash);
+					byte[] encodedClassMap = entry.getValue().encodedClassMap
+							.getBytes("UTF-8");
+					out.writeInt(encodedClassMap.length);
+					out.write(encodedClassMap);
+				}
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)
+					&& !(file.delete() && temporary.renameTo(file))) {
+				throw new IOException("Unable to rename "
+						+ temporary.getAbsolutePath() + " to " + file.getName());
+			}
+			logger.info("Cobertura: Saved class-maps of " + entries.size()
+					+ " classes.");
+		} catch (IOException e) {
+			temporary.delete();
+			logger.error("Cobertura: Error writing file "
+					+ file.getAbsolutePath(), e);
+		}
+	}
+
+	@CoverageIgnore
+	private static class Entry {
+		final long hash;
+		final String encodedClassMap;
+
+		Entry(long hash, String encodedClassMap) {
+			this.hash = hash;
+			this.encodedClassMap = encodedClassMap;
+		}
+	}
+}
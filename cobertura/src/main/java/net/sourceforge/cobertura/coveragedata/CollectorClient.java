@@ -0,0 +1,180 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import net.sourceforge.cobertura.util.ConfigurationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Client of a local coverage collector (see net.sourceforge.cobertura.collector.Collector), that is used
+ * instead of the datafile by {@link ProjectData#saveGlobalProjectData()}.
+ * <p/>
+ * Every save sends the hits collected since the previous save (a delta) to the collector over a loopback socket.
+ * The collector sums the deltas of all the JVMs in memory and writes the datafile once, so the JVMs don't contend
+ * on the lock of the datafile and don't read and write it at every save. If the collector can't be reached
+ * before the whole delta has been written), the data is saved into the datafile as usual. Once the delta has been
+ * written, it is never saved again (the collector may have merged it even if its confirmation got lost).
+ * <p/>
+ * The client is configured by properties (see {@link ConfigurationUtil}):
+ * <ul>
+ * <li><code>net.sourceforge.cobertura.collector.port</code> - loopback port of the collector. The collector is not used
+ * if the port is not positive (default).</li>
+ * <li><code>net.sourceforge.cobertura.collector.timeout</code> - milliseconds to wait for the connection and
+ * for the confirmation of a request (default: {@value #DEFAULT_TIMEOUT}).</li>
+ * </ul>
+ */
+@CoverageIgnore
+public class CollectorClient {
+	private static final Logger logger = LoggerFactory
+			.getLogger(CollectorClient.class);
+
+	public static final String PORT_PROPERTY = "net.sourceforge.cobertura.collector.port";
+	public static final String TIMEOUT_PROPERTY = "net.sourceforge.cobertura.collector.timeout";
+
+	static final int DEFAULT_TIMEOUT = 5000;
+
+	/**
+	 * Request followed by the length and the serialized {@link ProjectData}, that is added to the collected data.
+	 */
+	public static final int DELTA = 0xC0BE7A10;
+	/**
+	 * Request to write the datafile and stop the collector.
+	 */
+	public static final int STOP = 0xC0BE7A11;
+	/**
+	 * Reply of the collector, when the request has been done.
+	 */
+	public static final int ACK = 1;
+
+	private static Integer port = null;
+	private static int timeout;
+
+	/**
+	 * @return true if the data should be sent to the collector
+	 */
+	static synchronized boolean isEnabled() {
+		if (port == null) {
+			ConfigurationUtil config = new ConfigurationUtil();
+			port = getInt(config, PORT_PROPERTY, 0);
+			timeout = getInt(config, TIMEOUT_PROPERTY, DEFAULT_TIMEOUT);
+		}
+		return port.intValue() > 0;
+	}
+
+	private static int getInt(ConfigurationUtil config, String key,
+			int defaultValue) {
+		try {
+			return Integer.parseInt(config.getProperty(key, String
+					.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			logger.warn("Cobertura: invalid value of " + key + ", using "
+					+ defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Sends the data to the configured collector.
+	 *
+	 * @return true if the whole data has been sent to the collector (it must not be saved anywhere else then)
+	 */
+	static boolean send(ProjectData projectData) {
+		if (!isEnabled()) {
+			return false;
+		}
+		try {
+			send(port.intValue(), timeout, DELTA, projectData);
+			logger.info("Cobertura: Sent information on "
+					+ projectData.getNumberOfClasses()
+					+ " classes to the collector.");
+			return true;
+		} catch (IOException e) {
+			logger.warn("Cobertura: Collector at port " + port
+					+ " is unreachable, saving to the datafile: "
+					+ e.getLocalizedMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a request to the collector and waits for its confirmation.
+	 * <p/>
+	 * The collector confirms a {@link #DELTA} as soon as it has read it, so a missing confirmation of a delta
+	 * that has been written completely is only logged: the collector may have merged the delta and sending
+	 * it again (or saving it into the datafile) would count its hits twice.
+	 *
+	 * @param request     - {@link #DELTA} or {@link #STOP}
+	 * @param projectData - the delta (only for {@link #DELTA})
+	 * @throws IOException if the collector can't be reached, the delta can't be written completely or
+	 *                     the {@link #STOP} request has not been confirmed
+	 */
+	public static void send(int port, int timeout, int request,
+			ProjectData projectData) throws IOException {
+		byte[] data = null;
+		if (request == DELTA) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream objects = new ObjectOutputStream(bytes);
+			objects.writeObject(projectData);
+			objects.close();
+			data = bytes.toByteArray();
+		}
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress
+					.getByName("127.0.0.1"), port), timeout);
+			socket.setSoTimeout(timeout);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(request);
+			if (data != null) {
+				out.writeInt(data.length);
+				out.write(data);
+			}
+			out.flush();
+			try {
+				if (socket.getInputStream().read() != ACK) {
+					throw new IOException(
+							"Request not confirmed by the collector");
+				}
+			} catch (IOException e) {
+				if (request != DELTA) {
+					throw e;
+				}
+				logger.warn("Cobertura: Collector at port " + port
+						+ " has not confirmed the delta, it is not sent again: "
+						+ e.getLocalizedMessage());
+			}
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime support for classes instrumented with
+ * {@link net.sourceforge.cobertura.instrument.pass3.ArenaCodeProvider}.
+ * <p/>
+ * Counters of all such classes are slices of a few large int[] chunks owned by the arena, instead of one
+ * small array per class. A class gets its chunk and offset of its slice when it is registered, and they
+ * never change (the chunks are never replaced, they are cleared in place), so they can be kept in final fields
+ * and local variables of the class.
+ * <p/>
+ * {@link TouchCollector} collects counters of the classes by {@link #getAndReset(Collection)} - a copy and clear
+ * of their slices - instead of asking every class for its own counters. Only the slices of the collected classes
+ * (the touched ones, when the classes track touches) are copied, so the cost of a collection doesn't grow with
+ * the counters of all the classes loaded so far.
+ */
+@CoverageIgnore
+public class CounterArena {
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final List<int[]> chunks = new ArrayList<int[]>();
+	private static final List<Slice> slices = new ArrayList<Slice>();
+	private static final Map<Class<?>, Slice> slicesOfClasses = new HashMap<Class<?>, Slice>();
+	private static int used = CHUNK_SIZE;
+
+	/**
+	 * Called by the static initializer of an instrumented class.
+	 *
+	 * @return id of the slice of the class (see {@link #getChunk(int)} and {@link #getOffset(int)})
+	 */
+	public static synchronized int register(Class<?> clazz, int countersCnt) {
+		if (countersCnt > CHUNK_SIZE) {
+			/*a dedicated chunk, the current one can still be used by next classes*/
+			chunks.add(new int[countersCnt]);
+			return addSlice(clazz, chunks.size() - 1, 0, countersCnt);
+		}
+		if (used + countersCnt > CHUNK_SIZE) {
+			chunks.add(new int[CHUNK_SIZE]);
+			used = 0;
+		}
+		int chunk = lastChunkOfSize(CHUNK_SIZE);
+		int offset = used;
+		used += countersCnt;
+		return addSlice(clazz, chunk, offset, countersCnt);
+	}
+
+	private static int lastChunkOfSize(int size) {
+		for (int i = chunks.size() - 1; i >= 0; i--) {
+			if (chunks.get(i).length == size) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("No chunk of size " + size);
+	}
+
+	private static int addSlice(Class<?> clazz, int chunk, int offset,
+			int countersCnt) {
+		Slice slice = new Slice(chunk, offset, countersCnt);
+		slices.add(slice);
+		slicesOfClasses.put(clazz, slice);
+		return slices.size() - 1;
+	}
+
+	public static synchronized int[] getChunk(int sliceId) {
+		return chunks.get(slices.get(sliceId).chunk);
+	}
+
+	public static synchronized int getOffset(int sliceId) {
+		return slices.get(sliceId).offset;
+	}
+
+	/**
+	 * Called by {@link net.sourceforge.cobertura.instrument.pass3.CodeProvider#COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME}
+	 * of a single class.
+	 *
+	 * @return copy of the slice, that is cleared
+	 */
+	public static int[] getAndReset(int[] chunk, int offset, int countersCnt) {
+		int[] res = new int[countersCnt];
+		System.arraycopy(chunk, offset, res, 0, countersCnt);
+		Arrays.fill(chunk, offset, offset + countersCnt, 0);
+		return res;
+	}
+
+	/**
+	 * Copies and clears slices of the classes. Like with {@link net.sourceforge.cobertura.instrument.pass3.FastArrayCodeProvider},
+	 * increments done concurrently with the copy can be lost.
+	 *
+	 * @param classes - classes to collect, the ones that are not registered in the arena are skipped
+	 */
+	static synchronized Snapshot getAndReset(Collection<Class<?>> classes) {
+		Map<Class<?>, int[]> counters = new HashMap<Class<?>, int[]>();
+		for (Class<?> clazz : classes) {
+			Slice slice = slicesOfClasses.get(clazz);
+			if (slice != null) {
+				counters.put(clazz, getAndReset(chunks.get(slice.chunk),
+						slice.offset, slice.countersCnt));
+			}
+		}
+		return new Snapshot(counters);
+	}
+
+	@CoverageIgnore
+	private static class Slice {
+		final int chunk;
+		final int offset;
+		final int countersCnt;
+
+		Slice(int chunk, int offset, int countersCnt) {
+			this.chunk = chunk;
+			this.offset = offset;
+			this.countersCnt = countersCnt;
+		}
+	}
+
+	/**
+	 * Counters of the classes collected by {@link CounterArena#getAndReset(Collection)}.
+	 */
+	@CoverageIgnore
+	static class Snapshot {
+		private final Map<Class<?>, int[]> counters;
+
+		Snapshot(Map<Class<?>, int[]> counters) {
+			this.counters = counters;
+		}
+
+		boolean contains(Class<?> clazz) {
+			return counters.containsKey(clazz);
+		}
+
+		/**
+		 * @return copy of the slice of the class
+		 */
+		int[] getCounters(Class<?> clazz) {
+			return counters.get(clazz);
+		}
+	}
+}
@@ -26,21 +26,55 @@ package net.sourceforge.cobertura.coveragedata;
 
 import net.sourceforge.cobertura.CoverageIgnore;
 import net.sourceforge.cobertura.util.ConfigurationUtil;
+import net.sourceforge.cobertura.util.FileLocker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This contains methods used for reading and writing the
  * "cobertura.ser" file.
+ * <p/>
+ * If <code>net.sourceforge.cobertura.datafile.journal</code> property is true (see {@link ConfigurationUtil}),
+ * the instrumented code doesn't rewrite the datafile on every save. Every save writes the new data into its own
+ * segment file in the journal directory ("cobertura.ser.journal"), see {@link #appendToJournal(ProjectData, File)}.
+ * A segment is a serialized {@link ProjectData}, as the datafile itself. The segments are folded into the datafile
+ * by {@link #compactJournal(File)}, that is called by {@link #loadCoverageData(File)}, so the readers (reports, merge)
+ * always see all the saved data.
+ * <p/>
+ * If <code>net.sourceforge.cobertura.datafile.hitVectors</code> property is true as well, counters of the classes,
+ * that have their class-maps in the {@link ClassMetadataStore} written during the instrumentation ("cobertura.ser.meta"),
+ * are saved into "hit vectors" segments (see {@link HitVectors}) - just the counters, without lines and branches.
+ * The segments are joined with the class-maps when the journal is compacted.
  */
 @CoverageIgnore
 public abstract class CoverageDataFileHandler {
 	private static final Logger logger = LoggerFactory
 			.getLogger(CoverageDataFileHandler.class);
 	private static File defaultFile = null;
+	private static Boolean journalEnabled = null;
+	private static Boolean hitVectorsEnabled = null;
+
+	/*hashes of class-maps of the metadata store of the default datafile, reloaded when the store is changed*/
+	private static Map<String, Long> classMapHashes = null;
+	private static long classMapHashesLastModified;
+
+	public static final String JOURNAL_PROPERTY = "net.sourceforge.cobertura.datafile.journal";
+
+	private static final String JOURNAL_DIRECTORY_SUFFIX = ".journal";
+	public static final String HIT_VECTORS_PROPERTY = "net.sourceforge.cobertura.datafile.hitVectors";
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String HIT_VECTORS_SUFFIX = ".hits";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
 
 	public static File getDefaultDataFile() {
 		// return cached defaultFile
@@ -55,7 +89,72 @@ public abstract class CoverageDataFileHandler {
 		return defaultFile;
 	}
 
+	/**
+	 * @return true if the instrumented code should save the data into the journal instead of rewriting the datafile
+	 */
+	public static boolean isJournalEnabled() {
+		if (journalEnabled == null) {
+			journalEnabled = Boolean.valueOf(new ConfigurationUtil()
+					.getProperty(JOURNAL_PROPERTY, "false"));
+		}
+		return journalEnabled.booleanValue();
+	}
+
+	/**
+	 * @return true if the instrumented code should save counters of classes with class-maps in {@link ClassMetadataStore}
+	 *         as {@link HitVectors} (it implies {@link #isJournalEnabled()})
+	 */
+	public static boolean isHitVectorsEnabled() {
+		if (hitVectorsEnabled == null) {
+			hitVectorsEnabled = Boolean.valueOf(new ConfigurationUtil()
+					.getProperty(HIT_VECTORS_PROPERTY, "false"));
+		}
+		return hitVectorsEnabled.booleanValue();
+	}
+
+	/**
+	 * Creates empty {@link HitVectors} accepting the classes, that have class-maps in the metadata store
+	 * of the datafile. Only the names and hashes are read from the store and they are read again only if
+	 * the store has been changed since the last call.
+	 */
+	static synchronized HitVectors createHitVectors(File dataFile) {
+		File metadataFile = ClassMetadataStore.getMetadataFile(dataFile);
+		long lastModified = metadataFile.lastModified();
+		if (classMapHashes == null
+				|| classMapHashesLastModified != lastModified) {
+			classMapHashes = ClassMetadataStore.loadHashes(metadataFile);
+			classMapHashesLastModified = lastModified;
+		}
+		return new HitVectors(classMapHashes);
+	}
+
+	/**
+	 * Loads the datafile together with all segments of its journal (see {@link #compactJournal(File)}).
+	 */
 	public static ProjectData loadCoverageData(File dataFile) {
+		if (getJournalSegments(dataFile).length == 0
+				|| compactJournal(dataFile)) {
+			return loadCoverageDataFile(dataFile);
+		}
+		/*
+		 * The journal can't be compacted (e.g. the directory is read-only or another process compacts it right now),
+		 * so the segments are applied only in memory. They are listed after the datafile is read: a segment that has
+		 * been folded into the datafile meanwhile is either gone or recorded in the datafile.
+		 */
+		ProjectData projectData = dataFile.isFile()
+				? loadCoverageDataFile(dataFile)
+				: new ProjectData();
+		if (projectData != null) {
+			mergeSegments(projectData, getPendingSegments(projectData,
+					getJournalSegments(dataFile)), dataFile);
+		}
+		return projectData;
+	}
+
+	/**
+	 * Loads only the datafile, ignoring its journal.
+	 */
+	static ProjectData loadCoverageDataFile(File dataFile) {
 		InputStream is = null;
 		try {
 			is = new BufferedInputStream(new FileInputStream(dataFile), 16384);
@@ -149,4 +248,232 @@ public abstract class CoverageDataFileHandler {
 			}
 		}
 	}
+
+	/**
+	 * Saves the data into a new segment of the journal of the datafile. The segment is written under a temporary
+	 * name and then renamed, so readers never see a partially written segment. No lock is needed and the datafile
+	 * is not read, so the cost doesn't depend on the size of the datafile.
+	 */
+	public static void appendToJournal(ProjectData projectData, File dataFile) {
+		try {
+			File temporary = createTemporarySegment(dataFile);
+			writeCoverageData(projectData, temporary);
+			publishSegment(temporary, SEGMENT_SUFFIX);
+		} catch (IOException e) {
+			logger.error("Cobertura: Error writing journal of "
+					+ dataFile.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Like {@link #appendToJournal(ProjectData, File)}, but saves counters of classes without their class-maps.
+	 */
+	static void appendToJournal(HitVectors hitVectors, File dataFile) {
+		try {
+			File temporary = createTemporarySegment(dataFile);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary),
+							16384));
+			try {
+				hitVectors.write(out);
+			} finally {
+				out.close();
+			}
+			publishSegment(temporary, HIT_VECTORS_SUFFIX);
+		} catch (IOException e) {
+			logger.error("Cobertura: Error writing journal of "
+					+ dataFile.getAbsolutePath(), e);
+		}
+	}
+
+	private static File createTemporarySegment(File dataFile)
+			throws IOException {
+		File journal = getJournalDirectory(dataFile);
+		if (!journal.isDirectory() && !journal.mkdirs()
+				&& !journal.isDirectory()) {
+			throw new IOException("Unable to create directory "
+					+ journal.getAbsolutePath());
+		}
+		return File.createTempFile("segment", TEMPORARY_SUFFIX, journal);
+	}
+
+	private static void publishSegment(File temporary, String suffix)
+			throws IOException {
+		String name = temporary.getName();
+		File segment = new File(temporary.getParentFile(), name.substring(0,
+				name.length() - TEMPORARY_SUFFIX.length())
+				+ suffix);
+		if (!temporary.renameTo(segment)) {
+			temporary.delete();
+			throw new IOException("Unable to rename "
+					+ temporary.getAbsolutePath() + " to " + segment.getName());
+		}
+		logger.debug("Cobertura: Saved journal segment "
+				+ segment.getAbsolutePath());
+	}
+
+	/**
+	 * Folds all segments of the journal into the datafile and removes them. The datafile lock is held during the
+	 * compaction, the instrumented code can still append new segments (they are compacted next time).
+	 * <p/>
+	 * Names of the folded segments are recorded in the datafile, that is replaced in a single rename. So if a segment
+	 * can't be removed afterwards (or the process dies before it is removed), it's skipped by the next compaction
+	 * and by readers, it's never counted twice.
+	 *
+	 * @return true if all segments saved before the compaction started are in the datafile
+	 */
+	public static boolean compactJournal(File dataFile) {
+		synchronized (dataFile.getPath().intern()) {
+			FileLocker fileLocker = new FileLocker(dataFile);
+			try {
+				if (!fileLocker.lock()) {
+					return false;
+				}
+				File[] segments = getJournalSegments(dataFile);
+				if (segments.length == 0) {
+					return true;
+				}
+				ProjectData projectData = dataFile.isFile()
+						? loadCoverageDataFile(dataFile)
+						: new ProjectData();
+				if (projectData == null) {
+					return false;
+				}
+				mergeSegments(projectData, getPendingSegments(projectData,
+						segments), dataFile);
+				Set<String> compacted = new HashSet<String>();
+				for (File segment : segments) {
+					compacted.add(segment.getName());
+				}
+				projectData.setCompactedJournalSegments(compacted);
+
+				File temporary = new File(dataFile.getPath()
+						+ TEMPORARY_SUFFIX);
+				writeCoverageData(projectData, temporary);
+				if (!temporary.renameTo(dataFile)
+						&& !(dataFile.delete() && temporary.renameTo(dataFile))) {
+					temporary.delete();
+					return false;
+				}
+				for (File segment : segments) {
+					if (!segment.delete()) {
+						logger.warn("Cobertura: Unable to delete compacted journal segment "
+								+ segment.getAbsolutePath());
+					}
+				}
+				logger.info("Cobertura: Compacted " + segments.length
+						+ " journal segments into " + dataFile.getAbsolutePath());
+				return true;
+			} catch (IOException e) {
+				logger.error("Cobertura: Error compacting journal of "
+						+ dataFile.getAbsolutePath(), e);
+				return false;
+			} finally {
+				fileLocker.release();
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #saveCoverageData(ProjectData, File)}, but errors are reported to the caller, so a broken file
+	 * never replaces a good one.
+	 */
+	private static void writeCoverageData(ProjectData projectData, File file)
+			throws IOException {
+		ObjectOutputStream objects = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 16384));
+		try {
+			objects.writeObject(projectData);
+		} finally {
+			objects.close();
+		}
+	}
+
+	private static void mergeSegments(ProjectData projectData,
+			File[] segments, File dataFile) {
+		ClassMetadataStore store = null;
+		for (File segment : segments) {
+			if (segment.getName().endsWith(HIT_VECTORS_SUFFIX)) {
+				HitVectors hitVectors = loadHitVectors(segment);
+				if (hitVectors != null) {
+					if (store == null) {
+						store = ClassMetadataStore.load(ClassMetadataStore
+								.getMetadataFile(dataFile));
+					}
+					hitVectors.applyOn(projectData, store);
+				}
+				continue;
+			}
+			ProjectData segmentData = loadCoverageDataFile(segment);
+			if (segmentData != null) {
+				projectData.merge(segmentData);
+			}
+		}
+	}
+
+	private static HitVectors loadHitVectors(File segment) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(segment), 16384));
+			return HitVectors.read(in);
+		} catch (IOException e) {
+			logger.error("Cobertura: Error reading file "
+					+ segment.getAbsolutePath() + ": "
+					+ e.getLocalizedMessage(), e);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.error("Cobertura: Error closing file "
+							+ segment.getAbsolutePath(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the segments, that have not been folded into the projectData yet
+	 */
+	private static File[] getPendingSegments(ProjectData projectData,
+			File[] segments) {
+		Set<String> compacted = projectData.getCompactedJournalSegments();
+		List<File> pending = new ArrayList<File>();
+		for (File segment : segments) {
+			if (!compacted.contains(segment.getName())) {
+				pending.add(segment);
+			}
+		}
+		return pending.toArray(new File[pending.size()]);
+	}
+
+	static File getJournalDirectory(File dataFile) {
+		return new File(dataFile.getPath() + JOURNAL_DIRECTORY_SUFFIX);
+	}
+
+	/**
+	 * @return segments of the journal in the order they have been written (never null)
+	 */
+	static File[] getJournalSegments(File dataFile) {
+		File[] segments = getJournalDirectory(dataFile).listFiles(
+				new FileFilter() {
+					public boolean accept(File file) {
+						return file.getName().endsWith(SEGMENT_SUFFIX)
+								|| file.getName().endsWith(HIT_VECTORS_SUFFIX);
+					}
+				});
+		if (segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(segments, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				long diff = file1.lastModified() - file2.lastModified();
+				return diff != 0 ? (diff < 0 ? -1 : 1) : file1.getName()
+						.compareTo(file2.getName());
+			}
+		});
+		return segments;
+	}
 }
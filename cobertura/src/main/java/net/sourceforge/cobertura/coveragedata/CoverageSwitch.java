@@ -0,0 +1,59 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import net.sourceforge.cobertura.util.ConfigurationUtil;
+
+/**
+ * Runtime switch of coverage measurement for classes instrumented with the kill switch
+ * (see {@link net.sourceforge.cobertura.instrument.CoberturaInstrumenter#setKillSwitch(boolean)}).
+ * <p/>
+ * Every probe of such classes is executed only if {@link #enabled} is true. The initial state is read from the
+ * <code>net.sourceforge.cobertura.enabled</code> property (see {@link ConfigurationUtil}, true by default), so
+ * instrumented artifacts can be deployed with coverage turned off and it can be turned on by {@link #setEnabled(boolean)}
+ * only for a test window.
+ * <p/>
+ * The field is volatile, so a change is seen at once also by running (compiled) loops. Reading a volatile field is
+ * as cheap as reading a plain field on common platforms.
+ */
+@CoverageIgnore
+public class CoverageSwitch {
+	public static final String ENABLED_PROPERTY = "net.sourceforge.cobertura.enabled";
+
+	/**
+	 * Read by the probes (it is not accessed through a method to keep the probes small).
+	 */
+	public static volatile boolean enabled = Boolean.valueOf(new ConfigurationUtil()
+			.getProperty(ENABLED_PROPERTY, "true"));
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		CoverageSwitch.enabled = enabled;
+	}
+}
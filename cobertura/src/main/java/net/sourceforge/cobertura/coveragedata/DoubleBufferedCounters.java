@@ -0,0 +1,67 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+/**
+ * Runtime support for classes instrumented with {@link net.sourceforge.cobertura.instrument.pass3.FastArrayCodeProvider}.
+ * <p/>
+ * Every class has two buffers of the same size: the live counters that are incremented by probes, and the values of
+ * the live counters at the previous drain (which doubles the memory used by the counters). The live counters are
+ * never replaced nor cleared, so a drain doesn't lose the increments made through a reference that a thread has
+ * already loaded (or keeps in a local variable) - such an increment is simply reported by the next drain. There is
+ * nothing to wait for at drain time.
+ * <p/>
+ * The probes are a plain read-modify-write, so, like in the other non-atomic modes, concurrent increments of the same
+ * counter can still be lost, and a thread can store back a stale value that is lower than the one recorded by the
+ * previous drain. The reported increments are never negative: a counter that went backwards reports nothing until
+ * it exceeds the recorded value again.
+ */
+@CoverageIgnore
+public class DoubleBufferedCounters {
+
+	/**
+	 * @param counters - live counters of a class
+	 * @param drained  - values of the live counters at the previous drain (updated by this method)
+	 *
+	 * @return increments of the counters since the previous drain
+	 */
+	public static int[] drain(int[] counters, int[] drained) {
+		int[] res = new int[counters.length];
+		synchronized (drained) {
+			for (int i = 0; i < counters.length; i++) {
+				int value = counters[i];
+				/*correct also when the counter has overflowed since the previous drain*/
+				int delta = value - drained[i];
+				if (delta > 0) {
+					res[i] = delta;
+					drained[i] = value;
+				}
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact representation of a class-map (mapping of counter identifiers into lines, jumps and switches of
+ * an instrumented class), that is stored as a single string constant in the instrumented class.
+ * <p/>
+ * The string is built by {@link Encoder} during instrumentation and decoded by {@link #decode(String, Class, LightClassmapListener)}
+ * when the counters are collected. The numbers are written as base-32 digits, all the digits but the last one are
+ * marked, so every number is a few 1-byte characters in the constant pool (no LDC instructions and no calls
+ * per touch-point as in the former __cobertura_classmap_N methods). Strings (class, source and method names)
+ * are stored once in a table at the beginning and referred to by index.
+ * <p/>
+ * Format: version, strings table, class name, source (index + 1 or 0), derived counters, touch-points in line order.
+ */
+@CoverageIgnore
+public class EncodedClassMap {
+	static final int VERSION = 1;
+
+	static final int LINE = 0;
+	static final int JUMP = 1;
+	static final int SWITCH = 2;
+
+	/*last digit of a number: '@'..'_'*/
+	private static final char LAST_DIGIT = 0x40;
+	/*not last digit of a number: '`'..DEL*/
+	private static final char NEXT_DIGIT = 0x60;
+	private static final int DIGIT_BITS = 5;
+	private static final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+
+	/**
+	 * Informs the listener about the class-map encoded in data, in the same order as the (former) generated
+	 * __cobertura_classmap method did: class, source, derived counters and touch-points in line order.
+	 *
+	 * @param data     - string built by {@link Encoder#encode()}
+	 * @param clazz    - the instrumented class (used to find number of constants of enums used in switches); can be null
+	 * @param listener - listener informed about the touch-points
+	 */
+	public static void decode(String data, Class<?> clazz,
+			LightClassmapListener listener) {
+		decode(data, clazz, null, listener);
+	}
+
+	/**
+	 * Like {@link #decode(String, Class, LightClassmapListener)}, but used when the instrumented class is not
+	 * available (see {@link HitVectors}).
+	 *
+	 * @param switchMaxBranches - maxBranches of all the switches in line order, as returned by
+	 *                          {@link #getSwitchMaxBranches(String, Class)} for the instrumented class
+	 */
+	static void decode(String data, int[] switchMaxBranches,
+			LightClassmapListener listener) {
+		decode(data, null, switchMaxBranches, listener);
+	}
+
+	/**
+	 * @return maxBranches of all the switches of the class-map in line order (they depend on the number of
+	 *         constants of the enums, that is known only when the classes are loaded)
+	 */
+	static int[] getSwitchMaxBranches(String data, Class<?> clazz) {
+		final List<Integer> maxBranches = new ArrayList<Integer>();
+		decode(data, clazz, null, new LightClassmapListener() {
+			public void setClazz(Class<?> clazz) {
+			}
+
+			public void setClazz(String clazz) {
+			}
+
+			public void setSource(String source) {
+			}
+
+			public void putLineTouchPoint(int classLine, int counterId,
+					String methodName, String methodDescription) {
+			}
+
+			public void putJumpTouchPoint(int classLine, int trueCounterId,
+					int falseCounterId) {
+			}
+
+			public void putSwitchTouchPoint(int classLine, int maxBranchesCnt,
+					int... counterIds) {
+				maxBranches.add(maxBranchesCnt);
+			}
+
+			public void putDerivedCounter(int counterId, int sourceCounterId,
+					int... subtractedCounterIds) {
+			}
+		});
+		int[] res = new int[maxBranches.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = maxBranches.get(i);
+		}
+		return res;
+	}
+
+	private static void decode(String data, Class<?> clazz,
+			int[] switchMaxBranches, LightClassmapListener listener) {
+		Reader reader = new Reader(data);
+		int version = reader.readInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException(
+					"Unsupported version of encoded classmap: " + version);
+		}
+		String[] strings = new String[reader.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = reader.readString();
+		}
+		listener.setClazz(strings[reader.readInt()]);
+		int source = reader.readInt();
+		if (source > 0) {
+			listener.setSource(strings[source - 1]);
+		}
+
+		for (int i = reader.readInt(); i > 0; i--) {
+			int counterId = reader.readInt();
+			int sourceCounterId = reader.readInt();
+			listener.putDerivedCounter(counterId, sourceCounterId, reader
+					.readInts());
+		}
+
+		int line = 0;
+		int switchNumber = 0;
+		for (int i = reader.readInt(); i > 0; i--) {
+			int kind = reader.readInt();
+			line += reader.readInt();
+			if (kind == LINE) {
+				int counterId = reader.readInt();
+				listener.putLineTouchPoint(line, counterId, strings[reader
+						.readInt()], strings[reader.readInt()]);
+			} else if (kind == JUMP) {
+				int trueCounterId = reader.readInt();
+				listener.putJumpTouchPoint(line, trueCounterId, reader
+						.readInt());
+			} else if (kind == SWITCH) {
+				int enumType = reader.readInt();
+				int maxBranches;
+				if (switchMaxBranches != null) {
+					maxBranches = switchMaxBranches[switchNumber];
+				} else {
+					maxBranches = enumType > 0 ? countEnumConstants(clazz,
+							strings[enumType - 1]) : Integer.MAX_VALUE;
+				}
+				switchNumber++;
+				listener.putSwitchTouchPoint(line, maxBranches, reader
+						.readInts());
+			} else {
+				throw new IllegalArgumentException(
+						"Unknown touch-point in encoded classmap: " + kind);
+			}
+		}
+	}
+
+	private static int countEnumConstants(Class<?> clazz, String enumType) {
+		try {
+			Object[] constants = Class.forName(enumType.replace('/', '.'),
+					true, clazz != null ? clazz.getClassLoader() : null)
+					.getEnumConstants();
+			return constants != null ? constants.length : Integer.MAX_VALUE;
+		} catch (Throwable t) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	static void appendInt(StringBuilder sb, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException(
+					"Negative value can't be encoded: " + value);
+		}
+		int shift = 0;
+		while ((value >>> shift) > DIGIT_MASK) {
+			shift += DIGIT_BITS;
+		}
+		for (; shift > 0; shift -= DIGIT_BITS) {
+			sb.append((char) (NEXT_DIGIT | ((value >>> shift) & DIGIT_MASK)));
+		}
+		sb.append((char) (LAST_DIGIT | (value & DIGIT_MASK)));
+	}
+
+	@CoverageIgnore
+	private static class Reader {
+		private final String data;
+		private int position;
+
+		Reader(String data) {
+			this.data = data;
+		}
+
+		int readInt() {
+			int value = 0;
+			char c;
+			do {
+				c = data.charAt(position++);
+				value = (value << DIGIT_BITS) | (c & DIGIT_MASK);
+			} while (c >= NEXT_DIGIT);
+			return value;
+		}
+
+		int[] readInts() {
+			int[] res = new int[readInt()];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = readInt();
+			}
+			return res;
+		}
+
+		String readString() {
+			int length = readInt();
+			String res = data.substring(position, position + length);
+			position += length;
+			return res;
+		}
+	}
+
+	/**
+	 * Builds the encoded class-map during instrumentation. Derived counters and touch-points can be put in any
+	 * order, but touch-points have to be put in line order.
+	 */
+	@CoverageIgnore
+	public static class Encoder {
+		private final List<String> strings = new ArrayList<String>();
+		private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+		private final StringBuilder derivedCounters = new StringBuilder();
+		private final StringBuilder touchPoints = new StringBuilder();
+		private final int classNameId;
+		private int sourceId = -1;
+		private int derivedCountersCnt;
+		private int touchPointsCnt;
+		private int lastLine;
+
+		public Encoder(String className) {
+			classNameId = stringId(className);
+		}
+
+		private int stringId(String s) {
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = strings.size();
+				strings.add(s);
+				stringIds.put(s, id);
+			}
+			return id;
+		}
+
+		public void setSource(String source) {
+			sourceId = stringId(source);
+		}
+
+		public void putDerivedCounter(int counterId, int sourceCounterId,
+				int[] subtractedCounterIds) {
+			appendInt(derivedCounters, counterId);
+			appendInt(derivedCounters, sourceCounterId);
+			appendInts(derivedCounters, subtractedCounterIds);
+			derivedCountersCnt++;
+		}
+
+		public void putLineTouchPoint(int classLine, int counterId,
+				String methodName, String methodDescription) {
+			startTouchPoint(LINE, classLine);
+			appendInt(touchPoints, counterId);
+			appendInt(touchPoints, stringId(methodName));
+			appendInt(touchPoints, stringId(methodDescription));
+		}
+
+		public void putJumpTouchPoint(int classLine, int trueCounterId,
+				int falseCounterId) {
+			startTouchPoint(JUMP, classLine);
+			appendInt(touchPoints, trueCounterId);
+			appendInt(touchPoints, falseCounterId);
+		}
+
+		/**
+		 * @param enumType - internal name of the enum the switch is done on (or null)
+		 */
+		public void putSwitchTouchPoint(int classLine, String enumType,
+				int[] counterIds) {
+			startTouchPoint(SWITCH, classLine);
+			appendInt(touchPoints, enumType != null
+					? stringId(enumType) + 1
+					: 0);
+			appendInts(touchPoints, counterIds);
+		}
+
+		private void startTouchPoint(int kind, int classLine) {
+			appendInt(touchPoints, kind);
+			/*touch-points are in line order, so only the difference is stored*/
+			appendInt(touchPoints, classLine - lastLine);
+			lastLine = classLine;
+			touchPointsCnt++;
+		}
+
+		private static void appendInts(StringBuilder sb, int[] values) {
+			appendInt(sb, values.length);
+			for (int value : values) {
+				appendInt(sb, value);
+			}
+		}
+
+		public String encode() {
+			StringBuilder sb = new StringBuilder();
+			appendInt(sb, VERSION);
+			appendInt(sb, strings.size());
+			for (String s : strings) {
+				appendInt(sb, s.length());
+				sb.append(s);
+			}
+			appendInt(sb, classNameId);
+			appendInt(sb, sourceId + 1);
+			appendInt(sb, derivedCountersCnt);
+			sb.append(derivedCounters);
+			appendInt(sb, touchPointsCnt);
+			sb.append(touchPoints);
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters of instrumented classes, saved by the instrumented code without the class-maps, that are already in
+ * the {@link ClassMetadataStore} written during the instrumentation.
+ * <p/>
+ * A vector is just the class name, hash of its class-map and the counters that are not zero, so
+ * a save writes a few bytes per touched class instead of a serialized {@link ClassData} with all its lines.
+ * The vectors are joined with the class-maps by {@link #applyOn(ProjectData, ClassMetadataStore)}, when
+ * the journal of the datafile is compacted (see {@link CoverageDataFileHandler#compactJournal(java.io.File)}).
+ */
+@CoverageIgnore
+public class HitVectors {
+	private static final Logger logger = LoggerFactory
+			.getLogger(HitVectors.class);
+
+	private static final int MAGIC = 0xC0BE7A02;
+
+	/*hashes of class-maps in the store by names of classes*/
+	private final Map<String, Long> classMapHashes;
+	private final Map<String, Vector> vectors = new TreeMap<String, Vector>();
+
+	/**
+	 * @param classMapHashes - hashes of class-maps in the metadata store (see {@link ClassMetadataStore#loadHashes(java.io.File)})
+	 */
+	HitVectors(Map<String, Long> classMapHashes) {
+		this.classMapHashes = classMapHashes;
+	}
+
+	/**
+	 * @return true if the store contains the class-map of the class, so its counters can be saved as a vector
+	 */
+	boolean accepts(String className, long classMapHash) {
+		Long hash = classMapHashes.get(className);
+		return hash != null && hash.longValue() == classMapHash;
+	}
+
+	/**
+	 * Adds counters of the class.
+	 *
+	 * @param switchMaxBranches - see {@link EncodedClassMap#getSwitchMaxBranches(String, Class)}
+	 * @param counters          - the counters of the class start at the offset (they are not modified)
+	 */
+	void add(String className, long classMapHash, int[] switchMaxBranches,
+			int[] counters, int offset, int countersCnt) {
+		Vector vector = vectors.get(className);
+		if (vector == null || vector.classMapHash != classMapHash
+				|| vector.counters.length != countersCnt) {
+			vector = new Vector(classMapHash, switchMaxBranches,
+					new int[countersCnt]);
+			vectors.put(className, vector);
+		}
+		for (int i = 0; i < countersCnt; i++) {
+			vector.counters[i] += counters[offset + i];
+		}
+	}
+
+	boolean isEmpty() {
+		return vectors.isEmpty();
+	}
+
+	int size() {
+		return vectors.size();
+	}
+
+	/**
+	 * Joins the vectors with class-maps of the store and applies them on the project data.
+	 *
+	 * @return number of vectors, that have been applied (the vectors of classes, that have been instrumented
+	 *         again since they were saved, are lost)
+	 */
+	int applyOn(ProjectData projectData, ClassMetadataStore store) {
+		int applied = 0;
+		for (Map.Entry<String, Vector> entry : vectors.entrySet()) {
+			Vector vector = entry.getValue();
+			String encodedClassMap = store.getEncodedClassMap(entry.getKey(),
+					vector.classMapHash);
+			if (encodedClassMap == null) {
+				logger.warn("Cobertura: Class-map of " + entry.getKey()
+						+ " has changed, its saved hits are ignored");
+				continue;
+			}
+			ClassData classData = projectData.getOrCreateClassData(entry
+					.getKey());
+			TouchCollector.applyCountersOnClassData(classData,
+					encodedClassMap, vector.switchMaxBranches, vector.counters
+							.clone());
+			applied++;
+		}
+		return applied;
+	}
+
+	/**
+	 * Writes the vectors, only the counters that are not zero are written (and vectors of zeros are skipped at all).
+	 */
+	void write(DataOutput out) throws IOException {
+		int nonZeroVectors = 0;
+		for (Vector vector : vectors.values()) {
+			if (vector.countNonZero() > 0) {
+				nonZeroVectors++;
+			}
+		}
+		out.writeInt(MAGIC);
+		writeInt(out, nonZeroVectors);
+		for (Map.Entry<String, Vector> entry : vectors.entrySet()) {
+			Vector vector = entry.getValue();
+			int nonZero = vector.countNonZero();
+			if (nonZero == 0) {
+				continue;
+			}
+			out.writeUTF(entry.getKey());
+			out.writeLong(vector.classMapHash);
+			writeInt(out, vector.switchMaxBranches.length);
+			for (int maxBranches : vector.switchMaxBranches) {
+				writeInt(out, maxBranches);
+			}
+			writeInt(out, vector.counters.length);
+			writeInt(out, nonZero);
+			int last = 0;
+			for (int i = 0; i < vector.counters.length; i++) {
+				if (vector.counters[i] != 0) {
+					/*indexes are ascending, so only the difference is written*/
+					writeInt(out, i - last);
+					writeInt(out, vector.counters[i]);
+					last = i;
+				}
+			}
+		}
+	}
+
+	static HitVectors read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a hit vectors segment");
+		}
+		HitVectors hitVectors = new HitVectors(new TreeMap<String, Long>());
+		for (int i = readInt(in); i > 0; i--) {
+			String className = in.readUTF();
+			long classMapHash = in.readLong();
+			int[] switchMaxBranches = new int[readInt(in)];
+			for (int j = 0; j < switchMaxBranches.length; j++) {
+				switchMaxBranches[j] = readInt(in);
+			}
+			int[] counters = new int[readInt(in)];
+			int index = 0;
+			for (int j = readInt(in); j > 0; j--) {
+				index += readInt(in);
+				counters[index] = readInt(in);
+			}
+			hitVectors.add(className, classMapHash, switchMaxBranches,
+					counters, 0, counters.length);
+		}
+		return hitVectors;
+	}
+
+	/**
+	 * Writes the int in 7-bit groups, small numbers take a single byte.
+	 */
+	private static void writeInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readInt(DataInput in) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	@CoverageIgnore
+	private static class Vector {
+		final long classMapHash;
+		final int[] switchMaxBranches;
+		final int[] counters;
+
+		Vector(long classMapHash, int[] switchMaxBranches, int[] counters) {
+			this.classMapHash = classMapHash;
+			this.switchMaxBranches = switchMaxBranches;
+			this.counters = counters;
+		}
+
+		int countNonZero() {
+			int res = 0;
+			for (int counter : counters) {
+				if (counter != 0) {
+					res++;
+				}
+			}
+			return res;
+		}
+	}
+}
@@ -40,4 +40,13 @@ public interface LightClassmapListener {
 
 	public void putSwitchTouchPoint(int classLine, int maxBranches,
 			int... counterIds);
+
+	/**
+	 * Informs that the counter is not incremented by the instrumented code, but it's value is equal to:
+	 * counter[sourceCounterId] - counter[subtractedCounterIds[0]] - counter[subtractedCounterIds[1]] ...
+	 * <p/>
+	 * All derived counters are reported before any touch-point.
+	 */
+	public void putDerivedCounter(int counterId, int sourceCounterId,
+			int... subtractedCounterIds);
 }
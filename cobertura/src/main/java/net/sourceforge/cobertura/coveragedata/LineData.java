@@ -36,11 +36,13 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 	private static final long serialVersionUID = 4;
 
 	private long hits;
+	private long firstHits;
 	private List<JumpData> jumps;
 	private List<SwitchData> switches;
 	private final int lineNumber;
 	private String methodDescriptor;
 	private String methodName;
+	private int samplingRate;
 
 	LineData(int lineNumber) {
 		this(lineNumber, null, null);
@@ -71,6 +73,7 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 
 		LineData lineData = (LineData) obj;
 		return (this.hits == lineData.hits)
+				&& (this.firstHits == lineData.firstHits)
 				&& ((this.jumps == lineData.jumps) || ((this.jumps != null) && (this.jumps
 						.equals(lineData.jumps))))
 				&& ((this.switches == lineData.switches) || ((this.switches != null) && (this.switches
@@ -103,6 +106,33 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 		return hits;
 	}
 
+	/**
+	 * @return how many executions of the line are represented by a single hit (1 if the line was not
+	 *         instrumented with a sampled code provider)
+	 */
+	public int getSamplingRate() {
+		return Math.max(samplingRate, 1);
+	}
+
+	/**
+	 * @return how many of the hits are exact first executions of the line (one per JVM that has executed it,
+	 *         see {@link #getEstimatedHits()})
+	 */
+	public long getFirstHits() {
+		return firstHits;
+	}
+
+	/**
+	 * The first execution of a sampled line in a JVM is always counted, so a line that has been hit has
+	 * at least one hit. Such a hit represents a single execution, every other hit represents
+	 * {@link #getSamplingRate()} executions.
+	 *
+	 * @return estimated number of executions of the line
+	 */
+	public long getEstimatedHits() {
+		return firstHits + (hits - firstHits) * getSamplingRate();
+	}
+
 	synchronized public boolean isCovered() {
 		return (getHits() > 0)
 				&& ((getNumberOfValidBranches() == 0) || ((1.0 - getBranchCoverageRate()) < 0.0001));
@@ -167,6 +197,7 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 	synchronized public void merge(CoverageData coverageData) {
 		LineData lineData = (LineData) coverageData;
 		this.hits += lineData.hits;
+		this.firstHits += lineData.firstHits;
 		if (lineData.jumps != null)
 			if (this.jumps == null)
 				this.jumps = lineData.jumps;
@@ -190,6 +221,7 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 						.size()); i < lineData.switches.size(); i++)
 					this.switches.add(lineData.switches.get(i));
 			}
+		this.samplingRate = Math.max(this.samplingRate, lineData.samplingRate);
 		if (lineData.methodName != null)
 			this.methodName = lineData.methodName;
 		if (lineData.methodDescriptor != null)
@@ -213,10 +245,22 @@ public class LineData implements Comparable<Object>, CoverageData, Serializable
 		this.methodDescriptor = descriptor;
 	}
 
+	void setSamplingRate(int samplingRate) {
+		this.samplingRate = samplingRate;
+	}
+
 	void touch(int new_hits) {
 		this.hits += new_hits;
 	}
 
+	/**
+	 * @param firstHits - how many of the new_hits are first executions of the line (see {@link #getFirstHits()})
+	 */
+	void touch(int new_hits, int firstHits) {
+		this.hits += new_hits;
+		this.firstHits += firstHits;
+	}
+
 	void touchJump(int jumpNumber, boolean branch, int hits) {
 		getJumpData(jumpNumber).touchBranch(branch, hits);
 	}
@@ -0,0 +1,156 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import net.sourceforge.cobertura.util.ConfigurationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Map;
+
+/**
+ * Runtime support for classes instrumented with
+ * {@link net.sourceforge.cobertura.instrument.pass3.MappedCountersCodeProvider}.
+ * <p/>
+ * Counters of every class are a slice of one memory-mapped file (see {@link MappedCountersFile}), so another
+ * process can read live coverage at any moment using {@link #readCounters(File)}, without waiting
+ * for the counters to be saved into the datafile.
+ * <p/>
+ * The counters in the file are never reset. {@link #getAndReset()} returns increments since it was
+ * called last time, so the datafile is still updated in the usual way.
+ * <p/>
+ * The file is read from <code>net.sourceforge.cobertura.counters.file</code> property (datafile with
+ * '.counters' suffix by default) and its capacity (number of counters) from
+ * <code>net.sourceforge.cobertura.counters.capacity</code> property (see {@link ConfigurationUtil}).
+ * If the file can't be used or it is full, the counters are kept in memory.
+ */
+@CoverageIgnore
+public class MappedCounters {
+	private static final Logger logger = LoggerFactory
+			.getLogger(MappedCounters.class);
+
+	private static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+	private static MappedCountersFile file;
+	private static boolean fileOpened;
+
+	private final IntBuffer counters;
+	private final int[] reported;
+
+	MappedCounters(IntBuffer counters) {
+		this.counters = counters;
+		this.reported = new int[counters.capacity()];
+		for (int i = 0; i < reported.length; i++) {
+			reported[i] = counters.get(i);
+		}
+	}
+
+	/**
+	 * Called by the static initializer of an instrumented class.
+	 *
+	 * @param className       - internal (asm) or java name of the class
+	 * @param countersCnt     - number of counters of the class
+	 * @param encodedClassMap - encoded class-map of the class, counters of a previous instrumentation with
+	 *                        a different class-map are reset
+	 */
+	public static MappedCounters register(String className, int countersCnt,
+			String encodedClassMap) {
+		IntBuffer counters = null;
+		MappedCountersFile file = getFile();
+		if (file != null) {
+			counters = file.allocate(className.replace('/', '.'), countersCnt,
+					ClassMetadataStore.hash(encodedClassMap));
+			if (counters == null) {
+				logger.warn("No more space in the file of counters, counters of "
+						+ className + " are kept in memory");
+			}
+		}
+		return new MappedCounters(counters != null ? counters : IntBuffer
+				.allocate(countersCnt));
+	}
+
+	private static synchronized MappedCountersFile getFile() {
+		if (!fileOpened) {
+			fileOpened = true;
+			ConfigurationUtil config = new ConfigurationUtil();
+			File path = new File(config.getProperty(
+					"net.sourceforge.cobertura.counters.file", config
+							.getDatafile()
+							+ ".counters"));
+			try {
+				int capacity = Integer.parseInt(config.getProperty(
+						"net.sourceforge.cobertura.counters.capacity", String
+								.valueOf(DEFAULT_CAPACITY)));
+				file = new MappedCountersFile(path, capacity);
+			} catch (Exception e) {
+				logger.warn("Cannot map the file of counters "
+						+ path.getAbsolutePath()
+						+ ", counters are kept in memory", e);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * This is called by instrumented bytecode on every touch.
+	 */
+	public void increment(int counterId) {
+		counters.put(counterId, counters.get(counterId) + 1);
+	}
+
+	/**
+	 * This is called by instrumented bytecode when a method, that keeps counters in local variables, exits.
+	 */
+	public void add(int counterId, int value) {
+		counters.put(counterId, counters.get(counterId) + value);
+	}
+
+	/**
+	 * @return increments of the counters since the previous call of this method (or since the registration)
+	 */
+	public synchronized int[] getAndReset() {
+		int[] res = new int[reported.length];
+		for (int i = 0; i < res.length; i++) {
+			int current = counters.get(i);
+			res[i] = current - reported[i];
+			reported[i] = current;
+		}
+		return res;
+	}
+
+	/**
+	 * Reads current values of the counters from the given file. The file can be in use by a running JVM.
+	 *
+	 * @return map: class name -> counters of the class (in the order of counter ids)
+	 */
+	public static Map<String, int[]> readCounters(File file)
+			throws IOException {
+		return MappedCountersFile.read(file);
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * File of counters shared by all classes instrumented with
+ * {@link net.sourceforge.cobertura.instrument.pass3.MappedCountersCodeProvider}.
+ * <p/>
+ * The file is mapped into memory, so the counters are visible to other processes as soon as they are
+ * incremented (and survive a killed JVM). Layout of the file:
+ * <pre>
+ * header (32 bytes): magic, version, counters capacity, index size (bytes), used counters, used index (bytes)
+ * index  (index size bytes): entries {int offset, int count, long class-map hash, short length, UTF-8 class name}
+ * counters (counters capacity ints)
+ * </pre>
+ * The magic is stored in native byte order, so the readers can detect the order of all the ints.
+ * An index entry is written before the 'used' fields of the header are updated, so a reader never
+ * sees a partially written entry.
+ * <p/>
+ * The file is owned by one JVM at time (see {@link #LOCK_FILE_SUFFIX}). Slices of classes registered
+ * by a previous owner are reused, so the counters in the file are cumulative. A slice is reset, when
+ * the class has been instrumented again with a different class-map (see {@link ClassMetadataStore#hash(String)}).
+ */
+@CoverageIgnore
+class MappedCountersFile {
+	static final int MAGIC = 0x434F4243;
+	static final int VERSION = 2;
+
+	static final String LOCK_FILE_SUFFIX = ".lck";
+
+	private static final int CAPACITY_POS = 8;
+	private static final int INDEX_SIZE_POS = 12;
+	private static final int USED_COUNTERS_POS = 16;
+	private static final int USED_INDEX_POS = 20;
+	private static final int HEADER_SIZE = 32;
+	private static final int MIN_INDEX_SIZE = 64 * 1024;
+	private static final int ENTRY_HEADER_SIZE = 18;
+
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int indexSize;
+	/*class name -> {offset, count, position of the index entry}*/
+	private final Map<String, int[]> slices = new HashMap<String, int[]>();
+
+	/*Kept to hold the lock as long as the file is used*/
+	private final FileLock lock;
+
+	/**
+	 * @throws IOException if the file can't be mapped or it is used by another JVM
+	 */
+	MappedCountersFile(File file, int capacity) throws IOException {
+		File lockFile = new File(file.getPath() + LOCK_FILE_SUFFIX);
+		lock = new RandomAccessFile(lockFile, "rw").getChannel().tryLock();
+		if (lock == null) {
+			throw new IOException("The file is used by another process: "
+					+ file.getAbsolutePath());
+		}
+		this.capacity = capacity;
+		this.indexSize = align(Math.max(capacity, MIN_INDEX_SIZE));
+		long size = countersStart(indexSize) + 4L * capacity;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			boolean reuse = raf.length() == size && isCompatible(raf);
+			if (!reuse) {
+				/*truncating fills the file with zeros*/
+				raf.setLength(0);
+				raf.setLength(size);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					size);
+			if (reuse) {
+				readIndex(buffer, slices);
+			} else {
+				buffer.order(ByteOrder.nativeOrder());
+				buffer.putInt(4, VERSION);
+				buffer.putInt(CAPACITY_POS, capacity);
+				buffer.putInt(INDEX_SIZE_POS, indexSize);
+				buffer.putInt(0, MAGIC);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return true if the file has been created (by a previous owner) with the same layout and byte order
+	 */
+	private boolean isCompatible(RandomAccessFile raf) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.nativeOrder());
+		raf.getChannel().read(header, 0);
+		return header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+				&& header.getInt(CAPACITY_POS) == capacity
+				&& header.getInt(INDEX_SIZE_POS) == indexSize;
+	}
+
+	/**
+	 * @param classMapHash - {@link ClassMetadataStore#hash(String)} of the encoded class-map of the class
+	 * @return slice of the file for counters of the given class or null if there is no more space in the file
+	 */
+	synchronized IntBuffer allocate(String className, int countersCnt,
+			long classMapHash) {
+		int[] slice = slices.get(className);
+		if (slice == null || slice[1] != countersCnt) {
+			slice = appendEntry(className, countersCnt, classMapHash);
+			if (slice == null) {
+				return null;
+			}
+			slices.put(className, slice);
+		}
+		ByteBuffer bb = buffer.duplicate();
+		bb.position(countersStart(indexSize) + 4 * slice[0]);
+		bb.limit(bb.position() + 4 * slice[1]);
+		IntBuffer counters = bb.slice().order(ByteOrder.nativeOrder())
+				.asIntBuffer();
+		if (buffer.getLong(slice[2] + 8) != classMapHash) {
+			/*the counters have the same count, but they track different places of the code*/
+			for (int i = 0; i < slice[1]; i++) {
+				counters.put(i, 0);
+			}
+			buffer.putLong(slice[2] + 8, classMapHash);
+		}
+		return counters;
+	}
+
+	private int[] appendEntry(String className, int countersCnt,
+			long classMapHash) {
+		byte[] name = utf8(className);
+		int usedCounters = buffer.getInt(USED_COUNTERS_POS);
+		int usedIndex = buffer.getInt(USED_INDEX_POS);
+		int entrySize = ENTRY_HEADER_SIZE + name.length;
+		if (countersCnt > capacity - usedCounters
+				|| entrySize > indexSize - usedIndex) {
+			return null;
+		}
+		int pos = HEADER_SIZE + usedIndex;
+		buffer.putInt(pos, usedCounters);
+		buffer.putInt(pos + 4, countersCnt);
+		buffer.putLong(pos + 8, classMapHash);
+		buffer.putShort(pos + 16, (short) name.length);
+		for (int i = 0; i < name.length; i++) {
+			buffer.put(pos + ENTRY_HEADER_SIZE + i, name[i]);
+		}
+		buffer.putInt(USED_COUNTERS_POS, usedCounters + countersCnt);
+		buffer.putInt(USED_INDEX_POS, usedIndex + entrySize);
+		return new int[]{usedCounters, countersCnt, pos};
+	}
+
+	/**
+	 * Reads current values of all the counters from the file. The file can be in use by another process.
+	 *
+	 * @return map: class name -> counters of the class (in the order of counter ids)
+	 */
+	static Map<String, int[]> read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			Map<String, int[]> slices = new LinkedHashMap<String, int[]>();
+			if (!readIndex(buffer, slices)) {
+				throw new IOException("Not a file of counters: "
+						+ file.getAbsolutePath());
+			}
+			int countersStart = countersStart(buffer.getInt(INDEX_SIZE_POS));
+			Map<String, int[]> res = new LinkedHashMap<String, int[]>();
+			for (Map.Entry<String, int[]> entry : slices.entrySet()) {
+				int[] counters = new int[entry.getValue()[1]];
+				for (int i = 0; i < counters.length; i++) {
+					counters[i] = buffer.getInt(countersStart + 4
+							* (entry.getValue()[0] + i));
+				}
+				res.put(entry.getKey(), counters);
+			}
+			return res;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Sets the byte order of the buffer and reads the index into slices map (class name -> {offset, count,
+	 * position of the index entry}).
+	 *
+	 * @return false if the buffer doesn't contain a file of counters
+	 */
+	private static boolean readIndex(ByteBuffer buffer, Map<String, int[]> slices) {
+		if (buffer.capacity() < HEADER_SIZE) {
+			return false;
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if (buffer.getInt(0) != MAGIC) {
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != MAGIC) {
+				return false;
+			}
+		}
+		if (buffer.getInt(4) != VERSION) {
+			return false;
+		}
+		int usedIndex = buffer.getInt(USED_INDEX_POS);
+		int pos = HEADER_SIZE;
+		while (pos < HEADER_SIZE + usedIndex) {
+			byte[] name = new byte[buffer.getShort(pos + 16)];
+			for (int i = 0; i < name.length; i++) {
+				name[i] = buffer.get(pos + ENTRY_HEADER_SIZE + i);
+			}
+			slices.put(fromUtf8(name), new int[]{buffer.getInt(pos),
+					buffer.getInt(pos + 4), pos});
+			pos += ENTRY_HEADER_SIZE + name.length;
+		}
+		return true;
+	}
+
+	private static int countersStart(int indexSize) {
+		return HEADER_SIZE + indexSize;
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String fromUtf8(byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import net.sourceforge.cobertura.util.ConfigurationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Daemon thread that periodically saves the coverage data (see {@link ProjectData#saveGlobalProjectData()}), so the
+ * data reaches the datafile even if the JVM is killed and the shutdown hook never runs.
+ * <p/>
+ * Every save is incremental: only the hits collected since the previous save are merged into the datafile, and
+ * nothing that is already in the datafile is lost. Application threads are not blocked: they only
+ * increment counters of their classes, the counters are collected and the file is written on the flusher thread.
+ * <p/>
+ * The flusher is configured by properties (see {@link ConfigurationUtil}):
+ * <ul>
+ * <li><code>net.sourceforge.cobertura.flush.interval</code> - milliseconds between two saves. The flusher is not
+ * started if the interval is not positive (default), so the data is saved only when the JVM exits.</li>
+ * <li><code>net.sourceforge.cobertura.flush.jitter</code> - a random number of milliseconds (up to the jitter) is added to
+ * every interval, so many JVMs sharing a datafile don't try to lock it at the same time (default: 0).</li>
+ * <li><code>net.sourceforge.cobertura.flush.maxPause</code> - maximal number of milliseconds between two saves. If a save
+ * is slow (e.g. under load or with a big datafile), the next one is postponed so the flusher is not busy for more
+ * than 1/{@value #BACKOFF_FACTOR} of the time, but never more than maxPause (default: 10 * interval).</li>
+ * </ul>
+ * Latency of the saves is exposed by {@link #getLastFlushLatency()}, {@link #getMaxFlushLatency()} and
+ * {@link #getTotalFlushLatency()}, so the settings can be tuned.
+ */
+@CoverageIgnore
+public class PeriodicFlusher implements Runnable {
+	private static final Logger logger = LoggerFactory
+			.getLogger(PeriodicFlusher.class);
+
+	public static final String INTERVAL_PROPERTY = "net.sourceforge.cobertura.flush.interval";
+	public static final String JITTER_PROPERTY = "net.sourceforge.cobertura.flush.jitter";
+	public static final String MAX_PAUSE_PROPERTY = "net.sourceforge.cobertura.flush.maxPause";
+
+	static final int BACKOFF_FACTOR = 10;
+
+	private static PeriodicFlusher instance;
+
+	private final long interval;
+	private final long jitter;
+	private final long maxPause;
+	private final Random random = new Random();
+
+	private volatile boolean stopped;
+	private volatile long flushCount;
+	private volatile long lastFlushLatency;
+	private volatile long maxFlushLatency;
+	private volatile long totalFlushLatency;
+
+	PeriodicFlusher(long interval, long jitter, long maxPause) {
+		this.interval = interval;
+		this.jitter = Math.max(jitter, 0);
+		this.maxPause = Math.max(maxPause, interval);
+	}
+
+	/**
+	 * Starts the flusher thread, if the interval is configured. Called once, when the global project data is
+	 * created.
+	 */
+	static synchronized void startIfConfigured() {
+		if (instance != null) {
+			return;
+		}
+		ConfigurationUtil config = new ConfigurationUtil();
+		long interval = getLong(config, INTERVAL_PROPERTY, 0);
+		if (interval <= 0) {
+			return;
+		}
+		instance = new PeriodicFlusher(interval, getLong(config,
+				JITTER_PROPERTY, 0), getLong(config, MAX_PAUSE_PROPERTY,
+				BACKOFF_FACTOR * interval));
+		Thread thread = new Thread(instance, "cobertura-flusher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Cobertura: coverage data will be saved every "
+				+ interval + " ms");
+	}
+
+	private static long getLong(ConfigurationUtil config, String key,
+			long defaultValue) {
+		try {
+			return Long.parseLong(config.getProperty(key, String
+					.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			logger.warn("Cobertura: invalid value of " + key + ", using "
+					+ defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Stops the flusher thread (if it is running). The save in progress is finished.
+	 */
+	static synchronized void stop() {
+		if (instance != null) {
+			instance.stopped = true;
+			instance = null;
+		}
+	}
+
+	/**
+	 * @return the running flusher, or null if the data is not saved periodically
+	 */
+	public static synchronized PeriodicFlusher getInstance() {
+		return instance;
+	}
+
+	public void run() {
+		while (!stopped) {
+			try {
+				Thread.sleep(nextPause());
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (!stopped) {
+				flush();
+			}
+		}
+	}
+
+	void flush() {
+		long start = System.nanoTime();
+		try {
+			ProjectData.saveGlobalProjectData();
+		} catch (Throwable t) {
+			logger.warn("Cobertura: periodic save of coverage data failed", t);
+		}
+		long latency = (System.nanoTime() - start) / 1000000;
+		recordFlush(latency);
+		logger.debug("Cobertura: coverage data saved in " + latency + " ms");
+	}
+
+	/*only the flusher thread writes the statistics, so volatile fields are enough*/
+	void recordFlush(long latency) {
+		lastFlushLatency = latency;
+		maxFlushLatency = Math.max(maxFlushLatency, latency);
+		totalFlushLatency += latency;
+		flushCount++;
+	}
+
+	/**
+	 * @return milliseconds to wait before the next save
+	 */
+	long nextPause() {
+		long pause = Math.max(interval, BACKOFF_FACTOR * lastFlushLatency);
+		if (jitter > 0) {
+			pause += (long) (random.nextDouble() * jitter);
+		}
+		return Math.min(pause, maxPause);
+	}
+
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	/**
+	 * @return duration (in milliseconds) of the most recent save
+	 */
+	public long getLastFlushLatency() {
+		return lastFlushLatency;
+	}
+
+	/**
+	 * @return duration (in milliseconds) of the slowest save
+	 */
+	public long getMaxFlushLatency() {
+		return maxFlushLatency;
+	}
+
+	/**
+	 * @return duration (in milliseconds) of all the saves together
+	 */
+	public long getTotalFlushLatency() {
+		return totalFlushLatency;
+	}
+}
@@ -37,6 +37,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -50,11 +52,35 @@ public class ProjectData extends CoverageDataContainer {
 	private static Thread shutdownHook;
 	private static final transient Lock globalProjectDataLock = new ReentrantLock();
 
+	/**
+	 * Signalled when the last user of a global project data leaves it (see {@link #exitGlobalProjectData(ProjectData)}).
+	 */
+	private static final transient Condition globalProjectDataReleased = globalProjectDataLock
+			.newCondition();
+
+	/**
+	 * How long {@link #saveGlobalProjectData()} waits for users of the swapped out global project data, if someone
+	 * forgot to leave it.
+	 */
+	private static final long MAX_GLOBAL_PROJECT_DATA_RELEASE_WAIT = 1000;
+
+	/**
+	 * Number of threads that are updating this (global) project data, guarded by {@link #globalProjectDataLock}.
+	 */
+	private transient int globalProjectDataUsers;
+
 	/**
 	 * This collection is used for quicker access to the list of classes.
 	 */
 	private Map classes = new HashMap();
 
+	/**
+	 * Names of the journal segments of the datafile, that have been folded into this data, but may still
+	 * be in the journal (their removal has failed or has been interrupted), see
+	 * {@link CoverageDataFileHandler#compactJournal(File)}. It's null if no segment has been folded.
+	 */
+	private Set<String> compactedJournalSegments;
+
 	public void addClassData(ClassData classData) {
 		lock.lock();
 		try {
@@ -192,6 +218,16 @@ public class ProjectData extends CoverageDataContainer {
 		}
 	}
 
+	Set<String> getCompactedJournalSegments() {
+		return compactedJournalSegments != null
+				? compactedJournalSegments
+				: Collections.<String> emptySet();
+	}
+
+	void setCompactedJournalSegments(Set<String> compactedJournalSegments) {
+		this.compactedJournalSegments = compactedJournalSegments;
+	}
+
 	/**
 	 * Get a reference to a ProjectData object in order to increase the
 	 * coverage count for a specific line.
@@ -214,6 +250,36 @@ public class ProjectData extends CoverageDataContainer {
 		}
 	}
 
+	/**
+	 * Gets the global project data and marks the calling thread as its user, so {@link #saveGlobalProjectData()} does
+	 * not save it until all the updates are done. Every call has to be followed by
+	 * {@link #exitGlobalProjectData(ProjectData)} (in a finally block).
+	 */
+	public static ProjectData enterGlobalProjectData() {
+		globalProjectDataLock.lock();
+		try {
+			ProjectData projectData = getGlobalProjectData();
+			projectData.globalProjectDataUsers++;
+			return projectData;
+		} finally {
+			globalProjectDataLock.unlock();
+		}
+	}
+
+	/**
+	 * @param projectData - the project data returned by {@link #enterGlobalProjectData()}
+	 */
+	public static void exitGlobalProjectData(ProjectData projectData) {
+		globalProjectDataLock.lock();
+		try {
+			if (--projectData.globalProjectDataUsers == 0) {
+				globalProjectDataReleased.signalAll();
+			}
+		} finally {
+			globalProjectDataLock.unlock();
+		}
+	}
+
 	// TODO: Is it possible to do this as a static initializer?
 	private static void initialize() {
 		// Hack for Tomcat - by saving project data right now we force loading
@@ -237,12 +303,17 @@ public class ProjectData extends CoverageDataContainer {
 		// Add a hook to save the data when the JVM exits
 		shutdownHook = new Thread(new SaveTimer());
 		Runtime.getRuntime().addShutdownHook(shutdownHook);
-		// Possibly also save the coverage data every x seconds?
-		//Timer timer = new Timer(true);
-		//timer.schedule(saveTimer, 100);
+		// Save the coverage data every x seconds, if configured
+		PeriodicFlusher.startIfConfigured();
 	}
 
-	public static void saveGlobalProjectData() {
+	/**
+	 * Replaces the global project data by a new one and waits until all threads that have entered the old one
+	 * (see {@link #enterGlobalProjectData()}) leave it.
+	 *
+	 * @return the old global project data, that is not changed by anybody any more
+	 */
+	static ProjectData swapGlobalProjectData() {
 		ProjectData projectDataToSave = null;
 
 		globalProjectDataLock.lock();
@@ -250,29 +321,86 @@ public class ProjectData extends CoverageDataContainer {
 			projectDataToSave = getGlobalProjectData();
 
 			/*
-			 * The next statement is not necessary at the moment, because this method is only called
-			 * either at the very beginning or at the very end of a test.  If the code is changed
-			 * to save more frequently, then this will become important.
+			 * New data are collected into a new instance, so the saved one is not changed
+			 * by the next updates (the data are saved periodically by PeriodicFlusher).
 			 */
 			globalProjectData = new ProjectData();
+
+			/*
+			 * Wait for threads that are still updating the "old" globalProjectData (now referenced
+			 * with projectDataToSave). Nobody can enter it any more, so we are done as soon as the
+			 * last of them leaves it. The lock is released while waiting.
+			 */
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS
+							.toNanos(MAX_GLOBAL_PROJECT_DATA_RELEASE_WAIT);
+			while (projectDataToSave.globalProjectDataUsers > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					logger.warn("Cobertura: saving coverage data while "
+							+ projectDataToSave.globalProjectDataUsers
+							+ " thread(s) still update it");
+					break;
+				}
+				try {
+					globalProjectDataReleased.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
 		} finally {
 			globalProjectDataLock.unlock();
 		}
+		return projectDataToSave;
+	}
 
-		/*
-		 * Now sleep a bit in case there is a thread still holding a reference to the "old"
-		 * globalProjectData (now referenced with projectDataToSave).  
-		 * We want it to finish its updates.  I assume 1 second is plenty of time.
-		 */
-		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
+	public static void saveGlobalProjectData() {
+		ProjectData projectDataToSave = swapGlobalProjectData();
+
+		File dataFile = CoverageDataFileHandler.getDefaultDataFile();
+		if (CollectorClient.isEnabled()) {
+			TouchCollector.applyTouchesOnProjectData(projectDataToSave);
+			// No file is touched: the collector merges the data in memory and writes the datafile once
+			if (CollectorClient.send(projectDataToSave)) {
+				return;
+			}
+			// The collector is unreachable, so the data is saved as if there was no collector
+		} else if (CoverageDataFileHandler.isHitVectorsEnabled()) {
+			// Only counters of classes with class-maps in the metadata store, the rest goes into a usual segment
+			HitVectors hitVectors = CoverageDataFileHandler
+					.createHitVectors(dataFile);
+			TouchCollector.applyTouchesOnProjectData(projectDataToSave,
+					hitVectors);
+			if (!hitVectors.isEmpty()) {
+				CoverageDataFileHandler.appendToJournal(hitVectors, dataFile);
+			}
+			if (projectDataToSave.getNumberOfClasses() > 0) {
+				CoverageDataFileHandler.appendToJournal(projectDataToSave,
+						dataFile);
+			}
+			return;
+		} else {
+			TouchCollector.applyTouchesOnProjectData(projectDataToSave);
 		}
 
-		TouchCollector.applyTouchesOnProjectData(projectDataToSave);
+		if (CoverageDataFileHandler.isJournalEnabled()) {
+			// No lock and no read of the datafile: the new data go into their own segment
+			CoverageDataFileHandler.appendToJournal(projectDataToSave, dataFile);
+			return;
+		}
 
+		mergeIntoDatafile(projectDataToSave, dataFile);
+	}
+
+	/**
+	 * Reads the datafile, merges the data into it and writes it back, while the datafile is locked.
+	 *
+	 * @param projectDataToSave - data that is merged into the datafile (it can be changed by the merge)
+	 */
+	public static void mergeIntoDatafile(ProjectData projectDataToSave,
+			File dataFile) {
 		// Get a file lock
-		File dataFile = CoverageDataFileHandler.getDefaultDataFile();
 		/*
 		 * A note about the next synchronized block:  Cobertura uses static fields to
 		 * hold the data.   When there are multiple classloaders, each classloader
@@ -314,10 +442,28 @@ public class ProjectData extends CoverageDataContainer {
 		}
 	}
 
+	/**
+	 * Saves the coverage data collected so far into the given file, without resetting it. The hits stay in the
+	 * global project data, so they are still saved to the default datafile by {@link #saveGlobalProjectData()}.
+	 * The file is overwritten, so it should not be the default datafile.
+	 *
+	 * @param dataFile - file to write the snapshot to
+	 */
+	public static void saveGlobalProjectDataSnapshot(File dataFile) {
+		ProjectData projectData = enterGlobalProjectData();
+		try {
+			TouchCollector.applyTouchesOnProjectData(projectData);
+			CoverageDataFileHandler.saveCoverageData(projectData, dataFile);
+		} finally {
+			exitGlobalProjectData(projectData);
+		}
+	}
+
 	public static void turnOffAutoSave() {
 		if (shutdownHook != null) {
 			Runtime.getRuntime().removeShutdownHook(shutdownHook);
 		}
+		PeriodicFlusher.stop();
 	}
 
 	private static ProjectData loadCoverageDataFromDatafile(File dataFile) {
@@ -325,7 +471,8 @@ public class ProjectData extends CoverageDataContainer {
 
 		// Read projectData from the serialized file.
 		if (dataFile.isFile()) {
-			projectData = CoverageDataFileHandler.loadCoverageData(dataFile);
+			projectData = CoverageDataFileHandler
+					.loadCoverageDataFile(dataFile);
 		}
 
 		if (projectData == null) {
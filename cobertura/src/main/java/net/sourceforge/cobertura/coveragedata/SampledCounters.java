@@ -0,0 +1,78 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+/**
+ * Runtime support for classes instrumented with
+ * {@link net.sourceforge.cobertura.instrument.pass3.SampledArrayCodeProvider}.
+ * <p/>
+ * The first execution of a touch-point in the JVM is always counted (the counters are never reset, see
+ * {@link DoubleBufferedCounters}), so the covered/uncovered status of lines and branches is exact. The collected
+ * first hits are kept apart from the sampled ones (see {@link LineData#getFirstHits()}), because a first hit
+ * stands for a single execution. Next executions are counted only when the
+ * countdown of the current thread reaches zero. The countdown is then restarted with a pseudo-random value
+ * from the range [1, 2*rate-1], so on average one in rate executions is counted, and a loop that touches
+ * the same sequence of touch-points does not hit the same ones again and again.
+ */
+@CoverageIgnore
+public class SampledCounters {
+
+	/**
+	 * [0] - countdown, [1] - state of the xorshift generator
+	 */
+	private static final ThreadLocal<int[]> COUNTDOWN = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			int seed = (int) System.nanoTime() | 1;
+			return new int[]{0, seed};
+		}
+	};
+
+	/**
+	 * This is called by instrumented bytecode on every touch.
+	 */
+	public static void touch(int[] counters, int counterId, int rate) {
+		if (counters[counterId] == 0 || rate <= 1) {
+			counters[counterId]++;
+			return;
+		}
+		int[] countdown = COUNTDOWN.get();
+		if (--countdown[0] <= 0) {
+			countdown[0] = nextCountdown(countdown, rate);
+			counters[counterId]++;
+		}
+	}
+
+	private static int nextCountdown(int[] countdown, int rate) {
+		int x = countdown[1];
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		countdown[1] = x;
+		return 1 + (x >>> 1) % (2 * rate - 1);
+	}
+}
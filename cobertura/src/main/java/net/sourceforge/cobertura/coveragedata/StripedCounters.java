@@ -0,0 +1,110 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+import net.sourceforge.cobertura.util.ConfigurationUtil;
+
+/**
+ * Runtime support for classes instrumented with
+ * {@link net.sourceforge.cobertura.instrument.pass3.StripedArrayCodeProvider}.
+ * <p/>
+ * Counters of such a class are kept in an int[stripes][counters] table. A thread always increments
+ * counters in the stripe selected by its id, so threads running on different cores are writing into
+ * different arrays and do not fight for the same cache-lines. Only the first stripe is allocated eagerly,
+ * the other ones are allocated by the first thread that needs them.
+ * <p/>
+ * The number of stripes is read from <code>net.sourceforge.cobertura.counters.stripes</code>
+ * property (see {@link ConfigurationUtil}) and rounded up to a power of two.
+ */
+@CoverageIgnore
+public class StripedCounters {
+	private static final int MAX_STRIPES = 256;
+
+	private static final int STRIPES = calculateStripes();
+
+	public static int[][] newCounters(int countersCnt) {
+		int[][] stripes = new int[STRIPES][];
+		stripes[0] = new int[countersCnt];
+		return stripes;
+	}
+
+	/**
+	 * This is called by instrumented bytecode on every touch.
+	 *
+	 * @return stripe of counters that should be incremented by the current thread
+	 */
+	public static int[] stripe(int[][] stripes) {
+		int index = (int) Thread.currentThread().getId() & (stripes.length - 1);
+		int[] stripe = stripes[index];
+		return stripe != null ? stripe : allocateStripe(stripes, index);
+	}
+
+	private static int[] allocateStripe(int[][] stripes, int index) {
+		synchronized (stripes) {
+			if (stripes[index] == null) {
+				stripes[index] = new int[stripes[0].length];
+			}
+			return stripes[index];
+		}
+	}
+
+	/**
+	 * Sums all the stripes into a single array and replaces them by zeroed ones.
+	 * <p/>
+	 * Like {@link net.sourceforge.cobertura.instrument.pass3.FastArrayCodeProvider} we can
+	 * miss increments done concurrently with the reset, but never a fact that a counter was hit.
+	 */
+	public static int[] getAndReset(int[][] stripes) {
+		int[] res = new int[stripes[0].length];
+		synchronized (stripes) {
+			for (int i = 0; i < stripes.length; i++) {
+				int[] stripe = stripes[i];
+				if (stripe != null) {
+					stripes[i] = new int[stripe.length];
+					for (int j = 0; j < stripe.length; j++) {
+						res[j] += stripe[j];
+					}
+				}
+			}
+		}
+		return res;
+	}
+
+	private static int calculateStripes() {
+		int requested;
+		try {
+			requested = Integer.parseInt(new ConfigurationUtil().getProperty(
+					"net.sourceforge.cobertura.counters.stripes", String
+							.valueOf(Runtime.getRuntime().availableProcessors())));
+		} catch (NumberFormatException e) {
+			requested = Runtime.getRuntime().availableProcessors();
+		}
+		int stripes = 1;
+		while (stripes < requested && stripes < MAX_STRIPES) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+}
@@ -31,25 +31,52 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 @CoverageIgnore
 public class TouchCollector {
-	/*In fact - concurrentHashset*/
+	/*In fact - concurrentHashset. Classes that don't track touches: all of them have to be collected*/
 	private static Map<Class<?>, Integer> registeredClasses = new ConcurrentHashMap<Class<?>, Integer>();
 
+	private static Map<Class<?>, ClassProbes> classesProbes = new ConcurrentHashMap<Class<?>, ClassProbes>();
+
+	/*Classes that track touches are not registered: only the ones from touchedClasses queue have to be collected*/
+	private static Queue<TouchFlag> touchedClasses = new ConcurrentLinkedQueue<TouchFlag>();
+
 	private static final Logger logger = LoggerFactory.getLogger(TouchCollector.class);
 
 	static {
 		ProjectData.getGlobalProjectData(); // To call ProjectData.initialize();
 	}
 
-	public static synchronized void registerClass(Class<?> classa) {
+	/**
+	 * Called by the static initializer of every instrumented class. There is no global lock: the class
+	 * is just put into a concurrent map, so loading of many classes by many threads is not serialized.
+	 */
+	public static void registerClass(Class<?> classa) {
 		registeredClasses.put(classa, 0);
 	}
 
+	/**
+	 * Called instead of {@link #registerClass(Class)} by classes instrumented with touched classes tracking.
+	 * Counters of such a class are collected only if the returned flag has been marked since the previous collection.
+	 *
+	 * @return flag that has to be marked by the class when any of its counters is incremented
+	 */
+	public static TouchFlag registerClassTrackingTouches(Class<?> classa) {
+		return new TouchFlag(classa);
+	}
+
+	static void classTouched(TouchFlag touchFlag) {
+		touchedClasses.add(touchFlag);
+	}
+
 	/**
 	 * This method is only for backward compatibility
 	 * 
@@ -64,7 +91,7 @@ public class TouchCollector {
 	 * @param classa Class that needs to be registered.
 	 * @throws ClassNotFoundException 
 	 */
-	public static synchronized void registerClass(String classa)
+	public static void registerClass(String classa)
 			throws ClassNotFoundException {
 		try {
 			// If it's not in the system jvm, then search the current thread for the class.
@@ -102,37 +129,143 @@ public class TouchCollector {
 		}
 	}
 
-	public static synchronized void applyTouchesOnProjectData(
-			ProjectData projectData) {
+	public static void applyTouchesOnProjectData(ProjectData projectData) {
+		applyTouchesOnProjectData(projectData, null);
+	}
+
+	/**
+	 * Like {@link #applyTouchesOnProjectData(ProjectData)}, but counters of the classes accepted by hitVectors
+	 * (the classes with class-maps in the {@link ClassMetadataStore}) are added to hitVectors instead.
+	 *
+	 * @param hitVectors - can be null, then counters of all the classes are applied on the projectData
+	 */
+	static synchronized void applyTouchesOnProjectData(
+			ProjectData projectData, HitVectors hitVectors) {
 		logger.debug("=================== START OF REPORT ======================== ");
-		for (Class<?> c : registeredClasses.keySet()) {
-			logger.debug("Report: " + c.getName());
-			ClassData cd = projectData.getOrCreateClassData(c.getName());
-			applyTouchesToSingleClassOnProjectData(cd, c);
+		Set<Class<?>> touched = new LinkedHashSet<Class<?>>();
+		TouchFlag touchFlag;
+		while ((touchFlag = touchedClasses.poll()) != null) {
+			/*cleared before the counters are collected, so next touches will mark it again*/
+			touchFlag.clear();
+			touched.add(touchFlag.getTouchedClass());
+		}
+		/*the classes tracking touches are not registered, so they are never looked up unless touched*/
+		Set<Class<?>> collected = new LinkedHashSet<Class<?>>(
+				registeredClasses.keySet());
+		collected.addAll(touched);
+		/*slices of the collected classes instrumented with the arena are copied at once*/
+		CounterArena.Snapshot arena = CounterArena.getAndReset(collected);
+		for (Class<?> c : collected) {
+			applyTouchesToSingleClassOnProjectData(projectData, c, arena,
+					hitVectors);
 		}
 		logger.debug("===================  END OF REPORT  ======================== ");
 	}
 
 	private static void applyTouchesToSingleClassOnProjectData(
-			final ClassData classData, final Class<?> c) {
+			ProjectData projectData, Class<?> c, CounterArena.Snapshot arena,
+			HitVectors hitVectors) {
+		logger.debug("Report: " + c.getName());
+		if (hitVectors != null && addTouchesToHitVectors(hitVectors, c, arena)) {
+			return;
+		}
+		ClassData cd = projectData.getOrCreateClassData(c.getName());
+		applyTouchesToSingleClassOnProjectData(cd, c, arena);
+	}
+
+	private static void applyTouchesToSingleClassOnProjectData(
+			final ClassData classData, final Class<?> c,
+			CounterArena.Snapshot arena) {
 		logger.trace("----------- " + maybeCanonicalName(c)
 				+ " ---------------- ");
 		try {
-			Method m0 = c
-					.getDeclaredMethod(AbstractCodeProvider.COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME);
-			m0.setAccessible(true);
-			final int[] res = (int[]) m0.invoke(null, new Object[]{});
+			ClassProbes classProbes = getClassProbes(c);
+			if (arena.contains(c)) {
+				/*the snapshot is not shared, so the counters are read in place*/
+				classProbes.applyCounters(classData, arena.getCounters(c), 0);
+			} else {
+				final int[] res = toHits(classProbes.getAndResetCounters());
+				classProbes.applyCounters(classData, res, 0);
+			}
+		} catch (Exception e) {
+			logger.error("Cannot apply touches", e);
+		}
+	}
 
-			LightClassmapListener lightClassmap = new ApplyToClassDataLightClassmapListener(
-					classData, res);
-			Method m = c.getDeclaredMethod(
-					AbstractCodeProvider.COBERTURA_CLASSMAP_METHOD_NAME,
-					LightClassmapListener.class);
-			m.setAccessible(true);
-			m.invoke(null, lightClassmap);
+	/**
+	 * @return false if the class is not accepted by hitVectors, then the counters are not read
+	 */
+	private static boolean addTouchesToHitVectors(HitVectors hitVectors,
+			Class<?> c, CounterArena.Snapshot arena) {
+		try {
+			ClassProbes classProbes = getClassProbes(c);
+			if (classProbes.encodedClassMap == null
+					|| !hitVectors.accepts(c.getName(),
+							classProbes.classMapHash)) {
+				return false;
+			}
+			if (arena.contains(c)) {
+				int[] res = arena.getCounters(c);
+				hitVectors.add(c.getName(), classProbes.classMapHash,
+						classProbes.getSwitchMaxBranches(), res, 0, res.length);
+			} else {
+				int[] res = toHits(classProbes.getAndResetCounters());
+				hitVectors.add(c.getName(), classProbes.classMapHash,
+						classProbes.getSwitchMaxBranches(), res, 0, res.length);
+			}
 		} catch (Exception e) {
 			logger.error("Cannot apply touches", e);
 		}
+		return true;
+	}
+
+	/**
+	 * Applies counters of an instrumented class on the classData, using the classmap stored in the class.
+	 * <p/>
+	 * This can be used by a process that reads counters of another JVM
+	 * (see {@link MappedCounters#readCounters(java.io.File)}) and has access to the instrumented classes.
+	 *
+	 * @param counters - values of the counters in the order of counter ids (they are not modified)
+	 */
+	public static void applyCountersOnClassData(ClassData classData,
+			Class<?> c, int[] counters) throws Exception {
+		getClassProbes(c).applyCounters(classData, counters.clone(), 0);
+	}
+
+	/**
+	 * Applies counters saved by {@link HitVectors} on the classData, using the class-map from {@link ClassMetadataStore}
+	 * (the instrumented class is not needed).
+	 */
+	static void applyCountersOnClassData(ClassData classData,
+			String encodedClassMap, int[] switchMaxBranches, int[] counters) {
+		EncodedClassMap.decode(encodedClassMap, switchMaxBranches,
+				new ApplyToClassDataLightClassmapListener(classData, counters, 0));
+	}
+
+	private static ClassProbes getClassProbes(Class<?> c) throws Exception {
+		ClassProbes classProbes = classesProbes.get(c);
+		if (classProbes == null) {
+			classProbes = new ClassProbes(c);
+			classesProbes.put(c, classProbes);
+		}
+		return classProbes;
+	}
+
+	/**
+	 * Converts counters returned by {@link AbstractCodeProvider#COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME}
+	 * into hits. Classes instrumented in 'hit only' mode return boolean[] flags - every flag that is set
+	 * is treated as a single hit.
+	 */
+	static int[] toHits(Object counters) {
+		if (counters instanceof boolean[]) {
+			boolean[] flags = (boolean[]) counters;
+			int[] res = new int[flags.length];
+			for (int i = 0; i < flags.length; i++) {
+				res[i] = flags[i] ? 1 : 0;
+			}
+			return res;
+		}
+		return (int[]) counters;
 	}
 
     private static String maybeCanonicalName(final Class<?> c) {
@@ -155,6 +288,91 @@ public class TouchCollector {
         }
     }
 
+	/**
+	 * Methods generated into an instrumented class, that are used to collect its counters.
+	 * <p/>
+	 * The methods are looked up (and made accessible) once per class, not at every save of the
+	 * project data. Reused {@link Method} objects are turned by JVM into generated accessors after a few calls,
+	 * so invoking them costs about as much as a direct call.
+	 */
+	@CoverageIgnore
+	private static class ClassProbes {
+		private final Class<?> c;
+		private final Method getAndResetCounters;
+		private final Method classmap;
+
+		/**
+		 * Class-map encoded by {@link EncodedClassMap} (null for classes instrumented by older versions of
+		 * cobertura, that have only the {@link AbstractCodeProvider#COBERTURA_CLASSMAP_METHOD_NAME} method).
+		 */
+		private final String encodedClassMap;
+
+		/**
+		 * {@link ClassMetadataStore#hash(String)} of {@link #encodedClassMap}
+		 */
+		private final long classMapHash;
+
+		private int[] switchMaxBranches;
+
+		/**
+		 * Counters that have already been applied with a non-zero value, so their next hits are not first hits
+		 * (see {@link LineData#getFirstHits()})
+		 */
+		private final BitSet counted = new BitSet();
+
+		ClassProbes(Class<?> c) throws Exception {
+			this.c = c;
+			getAndResetCounters = c
+					.getDeclaredMethod(AbstractCodeProvider.COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME);
+			getAndResetCounters.setAccessible(true);
+			classmap = c.getDeclaredMethod(
+					AbstractCodeProvider.COBERTURA_CLASSMAP_METHOD_NAME,
+					LightClassmapListener.class);
+			classmap.setAccessible(true);
+			encodedClassMap = readEncodedClassMap(c);
+			classMapHash = encodedClassMap != null ? ClassMetadataStore
+					.hash(encodedClassMap) : 0;
+		}
+
+		synchronized int[] getSwitchMaxBranches() {
+			if (switchMaxBranches == null) {
+				switchMaxBranches = EncodedClassMap.getSwitchMaxBranches(
+						encodedClassMap, c);
+			}
+			return switchMaxBranches;
+		}
+
+		private static String readEncodedClassMap(Class<?> c) throws Exception {
+			Method classmapData;
+			try {
+				classmapData = c
+						.getDeclaredMethod(AbstractCodeProvider.COBERTURA_CLASSMAP_DATA_METHOD_NAME);
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+			classmapData.setAccessible(true);
+			return (String) classmapData.invoke(null);
+		}
+
+		Object getAndResetCounters() throws Exception {
+			return getAndResetCounters.invoke(null);
+		}
+
+		/**
+		 * @param offset - index of the first counter of the class in res
+		 */
+		synchronized void applyCounters(ClassData classData, int[] res,
+				int offset) throws Exception {
+			ApplyToClassDataLightClassmapListener listener = new ApplyToClassDataLightClassmapListener(
+					classData, res, offset, counted);
+			if (encodedClassMap != null) {
+				EncodedClassMap.decode(encodedClassMap, c, listener);
+			} else {
+				classmap.invoke(null, listener);
+			}
+		}
+	}
+
 	@CoverageIgnore
 	private static class ApplyToClassDataLightClassmapListener
 			implements
@@ -162,6 +380,8 @@ public class TouchCollector {
 		//private AtomicInteger idProvider=new AtomicInteger(0);
 		private final ClassData classData;
 		private final int[] res;
+		private final int offset;
+		private final BitSet counted;
 
 		private int currentLine = 0;
 		private int jumpsInLine = 0;
@@ -175,9 +395,21 @@ public class TouchCollector {
 			}
 		}
 
-		public ApplyToClassDataLightClassmapListener(ClassData cd, int[] res) {
+		public ApplyToClassDataLightClassmapListener(ClassData cd, int[] res,
+				int offset) {
+			this(cd, res, offset, null);
+		}
+
+		/**
+		 * @param counted - counters that have been applied with a non-zero value before (updated by the listener),
+		 *                null if the first hits are not known
+		 */
+		ApplyToClassDataLightClassmapListener(ClassData cd, int[] res,
+				int offset, BitSet counted) {
 			classData = cd;
 			this.res = res;
+			this.offset = offset;
+			this.counted = counted;
 		}
 
 		public void setSource(String source) {
@@ -197,7 +429,13 @@ public class TouchCollector {
 			updateLine(classLine);
 			LineData ld = classData.addLine(classLine, methodName,
 					methodDescription);
-			ld.touch(res[counterId]);
+			int hits = res[offset + counterId];
+			int firstHits = 0;
+			if (counted != null && hits > 0 && !counted.get(counterId)) {
+				counted.set(counterId);
+				firstHits = 1;
+			}
+			ld.touch(hits, firstHits);
 		}
 
 		public void putSwitchTouchPoint(int classLine, int maxBranches,
@@ -208,7 +446,7 @@ public class TouchCollector {
 			classData.addLineSwitch(classLine, switchId, 0,
 					counterIds.length - 2, maxBranches);
 			for (int i = 0; i < counterIds.length; i++) {
-				ld.touchSwitch(switchId, i - 1, res[counterIds[i]]);
+				ld.touchSwitch(switchId, i - 1, res[offset + counterIds[i]]);
 			}
 		}
 
@@ -218,8 +456,28 @@ public class TouchCollector {
 			LineData ld = getOrCreateLine(classLine);
 			int branchId = jumpsInLine++;
 			classData.addLineJump(classLine, branchId);
-			ld.touchJump(branchId, true, res[trueCounterId]);
-			ld.touchJump(branchId, false, res[falseCounterId]);
+			ld.touchJump(branchId, true, res[offset + trueCounterId]);
+			ld.touchJump(branchId, false, res[offset + falseCounterId]);
+		}
+
+		/**
+		 * Computes value of the derived counter. A negative value (some increments of the source counter
+		 * have been lost by not thread-safe counters) is logged and replaced by 0.
+		 */
+		public void putDerivedCounter(int counterId, int sourceCounterId,
+				int... subtractedCounterIds) {
+			int value = res[offset + sourceCounterId];
+			for (int subtractedCounterId : subtractedCounterIds) {
+				value -= res[offset + subtractedCounterId];
+			}
+			if (value < 0) {
+				logger.warn("Cobertura: Derived counter " + counterId
+						+ " of " + classData.getName() + " is " + value
+						+ ", increments of counter " + sourceCounterId
+						+ " have been lost");
+				value = 0;
+			}
+			res[offset + counterId] = value;
 		}
 
 		private LineData getOrCreateLine(int classLine) {
@@ -0,0 +1,67 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.CoverageIgnore;
+
+/**
+ * Flag of an instrumented class that tells if any counter of the class could have been incremented
+ * since the counters were collected last time (see {@link TouchCollector#registerClassTrackingTouches(Class)}).
+ * <p/>
+ * The instrumented code reads {@link #touched} at every touch-point and calls {@link #markTouched()}
+ * only if it is not set, so the flag is written once per collection and (almost) only read by the touch path.
+ */
+@CoverageIgnore
+public class TouchFlag {
+	/**
+	 * Read by instrumented code (that's why it's public). It's volatile, so the read can't be hoisted out
+	 * of a loop by JIT and a running loop notices that the flag has been cleared.
+	 */
+	public volatile boolean touched;
+
+	private final Class<?> touchedClass;
+
+	TouchFlag(Class<?> touchedClass) {
+		this.touchedClass = touchedClass;
+	}
+
+	Class<?> getTouchedClass() {
+		return touchedClass;
+	}
+
+	/**
+	 * Called by instrumented code when the flag is not set.
+	 */
+	public synchronized void markTouched() {
+		if (!touched) {
+			touched = true;
+			TouchCollector.classTouched(this);
+		}
+	}
+
+	synchronized void clear() {
+		touched = false;
+	}
+}
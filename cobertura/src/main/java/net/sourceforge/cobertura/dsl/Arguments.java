@@ -3,6 +3,7 @@ package net.sourceforge.cobertura.dsl;
 import net.sourceforge.cobertura.check.CoverageThreshold;
 import net.sourceforge.cobertura.util.FileFinder;
 import net.sourceforge.cobertura.instrument.CoberturaFile;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 
 import java.io.File;
 import java.util.*;
@@ -47,6 +48,15 @@ public class Arguments {
 	private boolean failOnError;
 	private boolean ignoreTrivial;
 	private boolean threadsafeRigorous;
+	private CodeProviderType codeProviderType;
+	private boolean cacheCounters;
+	private boolean edgeProbes;
+	private boolean minimizeProbes;
+	private int samplingRate;
+	private boolean trackTouchedClasses;
+	private boolean killSwitch;
+	private boolean hoistLoopCounters;
+	private boolean methodCoverageOnly;
 
 	private String encoding;
 
@@ -70,7 +80,16 @@ public class Arguments {
 			Collection<Pattern> classPatternExcludeClassesRegexes,
 			boolean calculateMethodComplexity,
 			boolean failOnError, boolean ignoreTrivial,
-			boolean threadsafeRigorous, String encoding,
+			boolean threadsafeRigorous, CodeProviderType codeProviderType,
+			boolean cacheCounters,
+			boolean edgeProbes,
+			boolean minimizeProbes,
+			int samplingRate,
+			boolean trackTouchedClasses,
+			boolean killSwitch,
+			boolean hoistLoopCounters,
+			boolean methodCoverageOnly,
+			String encoding,
 			Set<CoverageThreshold> minimumCoverageThresholds,
 			double classLineThreshold, double classBranchThreshold,
 			double packageLineThreshold, double packageBranchThreshold,
@@ -94,6 +113,15 @@ public class Arguments {
 		this.failOnError = failOnError;
 		this.ignoreTrivial = ignoreTrivial;
 		this.threadsafeRigorous = threadsafeRigorous;
+		this.codeProviderType = codeProviderType;
+		this.cacheCounters = cacheCounters;
+		this.edgeProbes = edgeProbes;
+		this.minimizeProbes = minimizeProbes;
+		this.samplingRate = samplingRate;
+		this.trackTouchedClasses = trackTouchedClasses;
+		this.killSwitch = killSwitch;
+		this.hoistLoopCounters = hoistLoopCounters;
+		this.methodCoverageOnly = methodCoverageOnly;
 		this.encoding = encoding;
 		this.minimumCoverageThresholds = Collections
 				.unmodifiableSet(minimumCoverageThresholds);
@@ -159,6 +187,42 @@ public class Arguments {
 		return threadsafeRigorous;
 	}
 
+	public CodeProviderType getCodeProviderType() {
+		return codeProviderType;
+	}
+
+	public boolean isCacheCounters() {
+		return cacheCounters;
+	}
+
+	public boolean isEdgeProbes() {
+		return edgeProbes;
+	}
+
+	public boolean isMinimizeProbes() {
+		return minimizeProbes;
+	}
+
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	public boolean isTrackTouchedClasses() {
+		return trackTouchedClasses;
+	}
+
+	public boolean isKillSwitch() {
+		return killSwitch;
+	}
+
+	public boolean isHoistLoopCounters() {
+		return hoistLoopCounters;
+	}
+
+	public boolean isMethodCoverageOnly() {
+		return methodCoverageOnly;
+	}
+
 	public String getEncoding() {
 		return encoding;
 	}
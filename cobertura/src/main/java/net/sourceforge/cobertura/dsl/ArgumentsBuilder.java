@@ -3,6 +3,7 @@ package net.sourceforge.cobertura.dsl;
 import net.sourceforge.cobertura.check.CoverageThreshold;
 import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
 import net.sourceforge.cobertura.instrument.CoberturaFile;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import net.sourceforge.cobertura.util.FileFinder;
 import net.sourceforge.cobertura.util.RegexUtil;
 import org.apache.oro.text.regex.Pattern;
@@ -43,6 +44,14 @@ public class ArgumentsBuilder {
 	static final boolean DEFAULT_FAIL_ON_ERROR = false;
 	static final boolean DEFAULT_IGNORE_TRIVIAL = false;
 	static final boolean DEFAULT_THREADSAFE_RIGOROUS = false;
+	static final boolean DEFAULT_CACHE_COUNTERS = false;
+	static final boolean DEFAULT_EDGE_PROBES = false;
+	static final boolean DEFAULT_MINIMIZE_PROBES = false;
+	static final int DEFAULT_SAMPLING_RATE = 100;
+	static final boolean DEFAULT_TRACK_TOUCHED_CLASSES = false;
+	static final boolean DEFAULT_KILL_SWITCH = false;
+	static final boolean DEFAULT_HOIST_LOOP_COUNTERS = false;
+	static final boolean DEFAULT_METHOD_COVERAGE_ONLY = false;
 
 	private Arguments arguments;
 
@@ -60,6 +69,15 @@ public class ArgumentsBuilder {
 	private boolean failOnError;
 	private boolean ignoreTrivial;
 	private boolean threadsafeRigorous;
+	private CodeProviderType codeProviderType;
+	private boolean cacheCounters;
+	private boolean edgeProbes;
+	private boolean minimizeProbes;
+	private int samplingRate;
+	private boolean trackTouchedClasses;
+	private boolean killSwitch;
+	private boolean hoistLoopCounters;
+	private boolean methodCoverageOnly;
 
 	private String encoding;
 
@@ -152,6 +170,98 @@ public class ArgumentsBuilder {
 		return this;
 	}
 
+	/**
+	 * @param codeProvider - name of {@link CodeProviderType} used to instrument classes. If it is
+	 *                     not set, the type is chosen according to {@link #threadsafeRigorous(boolean)}.
+	 */
+	public ArgumentsBuilder codeProvider(String codeProvider) {
+		CodeProviderType type = CodeProviderType.getFromString(codeProvider);
+		if (type == null) {
+			throw new IllegalArgumentException(String.format(
+					"The value %s is invalid.  Code provider must be one of %s",
+					codeProvider, Arrays.toString(CodeProviderType.values())));
+		}
+		this.codeProviderType = type;
+		return this;
+	}
+
+	/**
+	 * @param cacheCounters - if true, instrumented methods keep reference to counters in a local variable
+	 *                      instead of reading the counters field at every touch-point.
+	 */
+	public ArgumentsBuilder cacheCounters(boolean cacheCounters) {
+		this.cacheCounters = cacheCounters;
+		return this;
+	}
+
+	/**
+	 * @param edgeProbes - if true, branch counters are incremented directly on control-flow edges (trampolines)
+	 *                   instead of using an internal variable keeping id of the last jump.
+	 */
+	public ArgumentsBuilder edgeProbes(boolean edgeProbes) {
+		this.edgeProbes = edgeProbes;
+		return this;
+	}
+
+	/**
+	 * @param minimizeProbes - if true, counters that can be computed from other counters of the same basic block
+	 *                       are not incremented by the instrumented code.
+	 */
+	public ArgumentsBuilder minimizeProbes(boolean minimizeProbes) {
+		this.minimizeProbes = minimizeProbes;
+		return this;
+	}
+
+	/**
+	 * @param samplingRate - the sampled code provider counts one in samplingRate executions of a touch-point
+	 *                     (the first execution is always counted). Must be a positive number.
+	 */
+	public ArgumentsBuilder samplingRate(int samplingRate) {
+		if (samplingRate < 1) {
+			throw new IllegalArgumentException(String.format(
+					"The value %s is invalid.  Sampling rate must be a positive number",
+					samplingRate));
+		}
+		this.samplingRate = samplingRate;
+		return this;
+	}
+
+	/**
+	 * @param trackTouchedClasses - if true, counters are collected only from classes that have been touched
+	 *                            since the previous collection.
+	 */
+	public ArgumentsBuilder trackTouchedClasses(boolean trackTouchedClasses) {
+		this.trackTouchedClasses = trackTouchedClasses;
+		return this;
+	}
+
+	/**
+	 * @param killSwitch - if true, every probe is guarded by a check of a runtime switch, so coverage can be
+	 *                   turned off while the instrumented code runs.
+	 */
+	public ArgumentsBuilder killSwitch(boolean killSwitch) {
+		this.killSwitch = killSwitch;
+		return this;
+	}
+
+	/**
+	 * @param hoistLoopCounters - if true, counters incremented inside loops are kept in local variables and added to
+	 *                          the shared counters when the method exits.
+	 */
+	public ArgumentsBuilder hoistLoopCounters(boolean hoistLoopCounters) {
+		this.hoistLoopCounters = hoistLoopCounters;
+		return this;
+	}
+
+	/**
+	 * @param methodCoverageOnly - if true, only one probe per method is injected and only method coverage is
+	 *                           measured (line and branch details are not collected).
+	 */
+	public ArgumentsBuilder methodCoverageOnly(boolean methodCoverageOnly) {
+		this.methodCoverageOnly = methodCoverageOnly;
+		return this;
+	}
+
 	public ArgumentsBuilder listOfFilesToInstrument(String listFileName) {
 		String baseDir = getBaseDirectory();
 		try {
@@ -261,7 +371,10 @@ public class ArgumentsBuilder {
 				classPatternIncludeClassesRegexes,
 				classPatternExcludeClassesRegexes, calculateMethodComplexity,
 				failOnError, ignoreTrivial,
-				threadsafeRigorous, encoding, minimumCoverageThresholds,
+				threadsafeRigorous, getCodeProviderType(), cacheCounters,
+				edgeProbes, minimizeProbes, samplingRate, trackTouchedClasses,
+				killSwitch, hoistLoopCounters, methodCoverageOnly, encoding,
+				minimumCoverageThresholds,
 				classLineThreshold, classBranchThreshold, packageLineThreshold,
 				packageBranchThreshold, totalLineThreshold,
 				totalBranchThreshold, filesToInstrument, filesToMerge,
@@ -303,9 +416,26 @@ public class ArgumentsBuilder {
 		failOnError = DEFAULT_FAIL_ON_ERROR;
 		ignoreTrivial = DEFAULT_IGNORE_TRIVIAL;
 		threadsafeRigorous = DEFAULT_THREADSAFE_RIGOROUS;
+		cacheCounters = DEFAULT_CACHE_COUNTERS;
+		edgeProbes = DEFAULT_EDGE_PROBES;
+		minimizeProbes = DEFAULT_MINIMIZE_PROBES;
+		samplingRate = DEFAULT_SAMPLING_RATE;
+		trackTouchedClasses = DEFAULT_TRACK_TOUCHED_CLASSES;
+		killSwitch = DEFAULT_KILL_SWITCH;
+		hoistLoopCounters = DEFAULT_HOIST_LOOP_COUNTERS;
+		methodCoverageOnly = DEFAULT_METHOD_COVERAGE_ONLY;
 		encoding = DEFAULT_ENCODING;
 	}
 
+	private CodeProviderType getCodeProviderType() {
+		if (codeProviderType != null) {
+			return codeProviderType;
+		}
+		return threadsafeRigorous
+				? CodeProviderType.ATOMIC_ARRAY
+				: CodeProviderType.FAST_ARRAY;
+	}
+
 	private String getBaseDirectory() {
 		return baseDirectory;
 	}
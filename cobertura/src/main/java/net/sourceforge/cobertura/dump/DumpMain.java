@@ -0,0 +1,142 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.dump;
+
+import net.sourceforge.cobertura.instrument.CoberturaAgent;
+import net.sourceforge.cobertura.util.CommandLineBuilder;
+import net.sourceforge.cobertura.util.Header;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * <p>Saves coverage data of a running JVM into a file, without stopping the JVM:</p>
+ * <pre>
+ * cobertura-dump.sh --pid 1234 --datafile /tmp/snapshot.ser
+ * </pre>
+ * <p>The tool attaches to the JVM by the Attach API and loads the Cobertura jar into it as an agent
+ * ({@link CoberturaAgent#agentmain(String, java.lang.instrument.Instrumentation)}). The agent collects the counters of
+ * all instrumented classes and writes the data to the file. The data is not reset, so it is still saved to the
+ * datafile of the JVM when it exits. The JVM must run with Cobertura on its class path (or with the Cobertura
+ * agent), and the file should differ from its datafile.</p>
+ * <p/>
+ * <p>The Attach API is loaded by reflection from the JDK (lib/tools.jar), so the tool has to be run by a JDK.</p>
+ */
+public class DumpMain {
+	private static final String VIRTUAL_MACHINE_CLASS = "com.sun.tools.attach.VirtualMachine";
+
+	public static int dump(String[] args) {
+		Header.print(System.out);
+
+		String pid = null;
+		File dataFile = null;
+		File agentJar = null;
+		try {
+			args = CommandLineBuilder.preprocessCommandLineArguments(args);
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--pid")) {
+					pid = args[++i];
+				} else if (args[i].equals("--datafile")) {
+					dataFile = new File(args[++i]);
+				} else if (args[i].equals("--agentJar")) {
+					agentJar = new File(args[++i]);
+				}
+			}
+		} catch (Exception ex) {
+			System.err.println("Error: Cannot process arguments: "
+					+ ex.getMessage());
+			return 1;
+		}
+		if (pid == null || dataFile == null) {
+			System.err
+					.println("Usage: DumpMain --pid <pid> --datafile <file> [--agentJar <cobertura jar>]");
+			return 1;
+		}
+
+		try {
+			if (agentJar == null) {
+				agentJar = new File(CoberturaAgent.class.getProtectionDomain()
+						.getCodeSource().getLocation().toURI());
+			}
+			dump(pid, agentJar, dataFile.getAbsoluteFile());
+			System.out.println("Coverage data of JVM " + pid + " saved to "
+					+ dataFile.getAbsolutePath());
+		} catch (Throwable t) {
+			if (t instanceof InvocationTargetException) {
+				t = t.getCause();
+			}
+			System.err.println(String.format(
+					"Failed while dumping coverage data: %s", t.getMessage()));
+			t.printStackTrace();
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Attaches to the JVM and loads the agent that saves the coverage data to the dataFile.
+	 */
+	static void dump(String pid, File agentJar, File dataFile)
+			throws Exception {
+		Class<?> virtualMachineClass = loadVirtualMachineClass();
+		Object virtualMachine = virtualMachineClass.getMethod("attach",
+				String.class).invoke(null, pid);
+		try {
+			Method loadAgent = virtualMachineClass.getMethod("loadAgent",
+					String.class, String.class);
+			loadAgent.invoke(virtualMachine, agentJar.getAbsolutePath(),
+					CoberturaAgent.DUMP_OPTION + "," + dataFile.getPath());
+		} finally {
+			virtualMachineClass.getMethod("detach").invoke(virtualMachine);
+		}
+	}
+
+	private static Class<?> loadVirtualMachineClass() throws Exception {
+		try {
+			return Class.forName(VIRTUAL_MACHINE_CLASS);
+		} catch (ClassNotFoundException e) {
+			// Before Java 9 the Attach API is in tools.jar, that is not on the class path by default
+			File toolsJar = new File(System.getProperty("java.home"),
+					"../lib/tools.jar");
+			if (!toolsJar.isFile()) {
+				throw new ClassNotFoundException(VIRTUAL_MACHINE_CLASS
+						+ " (the tool has to be run by a JDK)", e);
+			}
+			ClassLoader loader = new URLClassLoader(new URL[]{toolsJar.toURI()
+					.toURL()});
+			return Class.forName(VIRTUAL_MACHINE_CLASS, true, loader);
+		}
+	}
+
+	public static void main(String[] args) {
+		int returnValue = dump(args);
+		if (returnValue != 0) {
+			System.exit(returnValue);
+		}
+	}
+}
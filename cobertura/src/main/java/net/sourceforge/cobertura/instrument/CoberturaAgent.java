@@ -0,0 +1,128 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument;
+
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.dsl.Arguments;
+import net.sourceforge.cobertura.util.CommandLineBuilder;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+
+/**
+ * <p>Java agent that instruments classes while they are loaded, so no offline instrumentation step
+ * ({@link InstrumentMain}) is needed:</p>
+ * <pre>
+ * java -javaagent:cobertura.jar=--datafile,/tmp/cobertura.ser,--includeClasses,com\.example\..* ...
+ * </pre>
+ * <p>The agent accepts the options of {@link InstrumentMain} separated by commas (files to instrument and
+ * --destination are ignored). If an option contains a comma, use --commandsfile with one option per line.
+ * Without --includeClasses every class that is not part of the JVM or Cobertura itself is instrumented.</p>
+ * <p/>
+ * <p>The agent accepts one additional option: --deinstrumentInterval &lt;milliseconds&gt;. If it is given, every such
+ * interval the classes with all lines and branches already covered are retransformed to classes without probes (see
+ * {@link CoveredClassesDeinstrumenter}), so the overhead of the instrumentation decreases while the coverage grows.</p>
+ * <p/>
+ * <p>Cobertura jar and its dependencies (asm, oro, slf4j) have to be on the class path of the application, so
+ * the instrumented classes can see the Cobertura runtime. Coverage data is saved to the datafile when the JVM
+ * exits, as for offline instrumented classes.</p>
+ */
+public class CoberturaAgent {
+	private static final String DATAFILE_PROPERTY = "net.sourceforge.cobertura.datafile";
+
+	private static final String DEINSTRUMENT_INTERVAL_OPTION = "--deinstrumentInterval";
+
+	public static final String DUMP_OPTION = "--dump";
+
+	public static void premain(String agentArgs,
+			Instrumentation instrumentation) throws Exception {
+		install(agentArgs, instrumentation);
+	}
+
+	/**
+	 * Entry point used when the agent is attached to a running JVM. Only classes loaded after the attach are
+	 * instrumented.
+	 * <p/>
+	 * <p>If the arguments are "--dump,&lt;file&gt;", nothing is instrumented. The coverage data collected so far in
+	 * the JVM is saved to the file instead ({@link ProjectData#saveGlobalProjectDataSnapshot(File)}). This is used
+	 * by {@link net.sourceforge.cobertura.dump.DumpMain}.</p>
+	 */
+	public static void agentmain(String agentArgs,
+			Instrumentation instrumentation) throws Exception {
+		if (agentArgs != null && agentArgs.startsWith(DUMP_OPTION + ",")) {
+			ProjectData.saveGlobalProjectDataSnapshot(new File(agentArgs
+					.substring(DUMP_OPTION.length() + 1)));
+			return;
+		}
+		install(agentArgs, instrumentation);
+	}
+
+	static CoberturaClassFileTransformer install(String agentArgs,
+			Instrumentation instrumentation) throws Exception {
+		List<String> args = new ArrayList<String>(Arrays
+				.asList(splitAgentArgs(agentArgs)));
+		long deinstrumentInterval = 0;
+		int i = args.indexOf(DEINSTRUMENT_INTERVAL_OPTION);
+		if (i >= 0 && i < args.size() - 1) {
+			deinstrumentInterval = Long.parseLong(args.remove(i + 1));
+			args.remove(i);
+		}
+		CoberturaClassFileTransformer transformer = new CoberturaClassFileTransformer(
+				buildArguments(args.toArray(new String[args.size()])));
+		instrumentation.addTransformer(transformer, deinstrumentInterval > 0);
+		if (deinstrumentInterval > 0) {
+			Timer timer = new Timer("Cobertura de-instrumenter", true);
+			timer.schedule(new CoveredClassesDeinstrumenter(instrumentation,
+					transformer), deinstrumentInterval, deinstrumentInterval);
+		}
+		return transformer;
+	}
+
+	static Arguments parseAgentArgs(String agentArgs) throws Exception {
+		return buildArguments(splitAgentArgs(agentArgs));
+	}
+
+	private static String[] splitAgentArgs(String agentArgs) throws Exception {
+		String[] args = agentArgs == null || agentArgs.length() == 0
+				? new String[0]
+				: agentArgs.split(",");
+		return CommandLineBuilder.preprocessCommandLineArguments(args);
+	}
+
+	private static Arguments buildArguments(String[] args) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals("--datafile")
+					&& System.getProperty(DATAFILE_PROPERTY) == null) {
+				// The runtime saves the coverage data to the file given by the property
+				System.setProperty(DATAFILE_PROPERTY, args[i + 1]);
+			}
+		}
+		return InstrumentMain.createArgumentsFromCMDParams(args).build();
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument;
+
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.dsl.Arguments;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>{@link ClassFileTransformer} that instruments classes while they are loaded (see {@link CoberturaAgent}).</p>
+ * <p/>
+ * <p>Classes are instrumented by {@link CoberturaInstrumenter} configured exactly like for the offline
+ * instrumentation ({@link CodeInstrumentationTask}), and filtered by the same {@link ClassPattern}. Information about
+ * touch-points of every instrumented class is merged into {@link ProjectData#getGlobalProjectData()}, so it is
+ * written to the datafile together with the hits, when the project data is saved.</p>
+ * <p/>
+ * <p>Classes of the JVM and classes used by Cobertura itself are never instrumented. Classes loaded by the bootstrap
+ * class loader are not instrumented either, because they cannot see the Cobertura runtime.</p>
+ * <p/>
+ * <p>A retransformation or redefinition of an instrumented class instruments it again, as the class must not lose
+ * the generated fields and methods. If the class has been de-instrumented ({@link #deinstrument(String)}), it is
+ * instrumented without probes. Classes are identified by name, the same way as in {@link ProjectData}.</p>
+ */
+public class CoberturaClassFileTransformer implements ClassFileTransformer {
+	private static final Logger logger = LoggerFactory
+			.getLogger(CoberturaClassFileTransformer.class);
+
+	/**
+	 * Prefixes of internal names of classes that are never instrumented.
+	 */
+	private static final String[] IGNORED_PACKAGES = new String[]{"java/",
+			"javax/", "sun/", "com/sun/", "jdk/", "net/sourceforge/cobertura/",
+			"org/objectweb/asm/", "org/slf4j/", "ch/qos/logback/",
+			"org/apache/oro/", "org/apache/log4j/"};
+
+	private final Arguments arguments;
+
+	private final ClassPattern classPattern;
+
+	/**
+	 * Set while a class is instrumented by the current thread. Classes loaded in the meantime (by the instrumenter
+	 * itself) are not instrumented.
+	 */
+	private final ThreadLocal<Boolean> instrumenting = new ThreadLocal<Boolean>();
+
+	/**
+	 * Internal names of classes instrumented by the transformer
+	 */
+	private final Set<String> instrumentedClasses = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Internal names of classes that should be instrumented without probes
+	 */
+	private final Set<String> deinstrumentedClasses = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public CoberturaClassFileTransformer(Arguments arguments) {
+		this.arguments = arguments;
+		this.classPattern = CodeInstrumentationTask
+				.createClassPattern(arguments);
+	}
+
+	public byte[] transform(ClassLoader loader, String className,
+			Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+			byte[] classfileBuffer) {
+		if (!shouldBeInstrumented(loader, className, classBeingRedefined)
+				|| instrumenting.get() != null) {
+			return null;
+		}
+		instrumenting.set(Boolean.TRUE);
+		try {
+			ProjectData projectData = new ProjectData();
+			CoberturaInstrumenter instrumenter = CodeInstrumentationTask
+					.createInstrumenter(arguments, projectData);
+			instrumenter.setInjectProbes(!deinstrumentedClasses
+					.contains(className));
+			CoberturaInstrumenter.InstrumentationResult result = instrumenter
+					.instrumentClass(new ByteArrayInputStream(classfileBuffer),
+							loader);
+			ProjectData globalProjectData = ProjectData
+					.enterGlobalProjectData();
+			try {
+				globalProjectData.merge(projectData);
+			} finally {
+				ProjectData.exitGlobalProjectData(globalProjectData);
+			}
+			if (result == null) {
+				return null;
+			}
+			instrumentedClasses.add(className);
+			logger.debug("Instrumented class: " + className);
+			return result.getContent();
+		} catch (Throwable t) {
+			logger.warn("Unable to instrument class " + className, t);
+			return null;
+		} finally {
+			instrumenting.remove();
+		}
+	}
+
+	/**
+	 * @return true if the class should be instrumented while it is being loaded, retransformed or redefined.
+	 *         Classes that were loaded without instrumentation are not instrumented later, as new fields and methods
+	 *         cannot be added by a retransformation.
+	 */
+	boolean shouldBeInstrumented(ClassLoader loader, String className,
+			Class<?> classBeingRedefined) {
+		if (loader == null || className == null) {
+			return false;
+		}
+		if (classBeingRedefined != null
+				&& !instrumentedClasses.contains(className)) {
+			return false;
+		}
+		for (String ignoredPackage : IGNORED_PACKAGES) {
+			if (className.startsWith(ignoredPackage)) {
+				return false;
+			}
+		}
+		return classPattern.matches(className);
+	}
+
+	/**
+	 * @return internal names of classes instrumented by the transformer
+	 */
+	public Set<String> getInstrumentedClasses() {
+		return Collections.unmodifiableSet(instrumentedClasses);
+	}
+
+	/**
+	 * Causes the class to be instrumented without probes from now on. Already loaded class should be retransformed to
+	 * remove its probes.
+	 *
+	 * @param className - internal name of the class
+	 */
+	public void deinstrument(String className) {
+		deinstrumentedClasses.add(className);
+	}
+
+	public boolean isDeinstrumented(String className) {
+		return deinstrumentedClasses.contains(className);
+	}
+}
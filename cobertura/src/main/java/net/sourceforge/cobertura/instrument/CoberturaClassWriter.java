@@ -3,19 +3,49 @@
  */
 package net.sourceforge.cobertura.instrument;
 
+import net.sourceforge.cobertura.util.IOUtil;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author schristou88
  *
  */
 public class CoberturaClassWriter extends ClassWriter {
+	/**
+	 * Loader of the instrumented class, or null if not known (offline instrumentation).
+	 */
+	private final ClassLoader classLoader;
+
 	public CoberturaClassWriter(final int flags) {
+		this(flags, null);
+	}
+
+	/**
+	 * @param classLoader - loader of the instrumented class. If given, the class hierarchy is read from the bytecode
+	 *                    of the classes ({@link ClassLoader#getResourceAsStream(String)}) instead of loading them. It
+	 *                    is required when a class is instrumented while it is being loaded (see {@link CoberturaClassFileTransformer}).
+	 */
+	public CoberturaClassWriter(final int flags, final ClassLoader classLoader) {
 		super(flags);
+		this.classLoader = classLoader;
 	}
 
 	@Override
 	protected String getCommonSuperClass(final String type1, final String type2) {
+		if (classLoader != null) {
+			String commonSuperClass = getCommonSuperClassFromBytecode(type1,
+					type2);
+			if (commonSuperClass != null) {
+				return commonSuperClass;
+			}
+		}
 		try {
 			return super.getCommonSuperClass(type1, type2);
 		} catch (RuntimeException e) {
@@ -64,4 +94,52 @@ public class CoberturaClassWriter extends ClassWriter {
 			return c.getName().replace('.', '/');
 		}
 	}
+
+	/**
+	 * @return common superclass of the types, or null if bytecode of any of the classes in the hierarchy is not available
+	 */
+	private String getCommonSuperClassFromBytecode(String type1, String type2) {
+		List<String> superClasses1 = getSuperClasses(type1);
+		List<String> superClasses2 = getSuperClasses(type2);
+		if (superClasses1 == null || superClasses2 == null) {
+			return null;
+		}
+		if (superClasses1.isEmpty() || superClasses2.isEmpty()) {
+			// One of the types is an interface, so the verifier treats it like an Object
+			return "java/lang/Object";
+		}
+		for (String superClass : superClasses1) {
+			if (superClasses2.contains(superClass)) {
+				return superClass;
+			}
+		}
+		return "java/lang/Object";
+	}
+
+	/**
+	 * @return the type followed by all its superclasses, empty list for an interface, or null if bytecode of the
+	 *         type or any of its superclasses is not available.
+	 */
+	private List<String> getSuperClasses(String type) {
+		List<String> superClasses = new ArrayList<String>();
+		while (type != null) {
+			InputStream is = classLoader.getResourceAsStream(type + ".class");
+			if (is == null) {
+				return null;
+			}
+			try {
+				ClassReader cr = new ClassReader(is);
+				if ((cr.getAccess() & Opcodes.ACC_INTERFACE) != 0) {
+					return new ArrayList<String>();
+				}
+				superClasses.add(type);
+				type = cr.getSuperName();
+			} catch (IOException e) {
+				return null;
+			} finally {
+				IOUtil.closeInputStream(is);
+			}
+		}
+		return superClasses;
+	}
 }
@@ -25,11 +25,19 @@
 
 package net.sourceforge.cobertura.instrument;
 
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.ClassMetadataStore;
 import net.sourceforge.cobertura.coveragedata.ProjectData;
 import net.sourceforge.cobertura.instrument.pass1.DetectDuplicatedCodeClassVisitor;
 import net.sourceforge.cobertura.instrument.pass1.DetectIgnoredCodeClassVisitor;
 import net.sourceforge.cobertura.instrument.pass2.BuildClassMapClassVisitor;
+import net.sourceforge.cobertura.instrument.pass2.FindDerivedCountersClassVisitor;
+import net.sourceforge.cobertura.instrument.pass2.FindLoopCountersClassVisitor;
+import net.sourceforge.cobertura.instrument.pass3.AbstractCodeProvider;
+import net.sourceforge.cobertura.instrument.pass3.CodeProvider;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import net.sourceforge.cobertura.instrument.pass3.InjectCodeClassInstrumenter;
+import net.sourceforge.cobertura.instrument.pass3.SampledArrayCodeProvider;
 import net.sourceforge.cobertura.util.IOUtil;
 
 import org.objectweb.asm.ClassReader;
@@ -71,6 +79,11 @@ public class CoberturaInstrumenter {
 	 */
 	private ProjectData projectData;
 
+	/**
+	 * Store of class-maps of the instrumented classes (see {@link ClassMetadataStore}), it can be null.
+	 */
+	private ClassMetadataStore classMetadataStore;
+
 	/**
 	 * The root directory for instrumented classes. If it is null, the instrumented classes are overwritten.
 	 */
@@ -103,14 +116,57 @@ public class CoberturaInstrumenter {
 	private boolean failOnError;
 
 	/**
-	 * Setting to true causes cobertura to use more strict threadsafe model that is significantly
-	 * slower, but guarantees that number of hits counted for each line will be precise in multithread-environment.
-	 * <p/>
-	 * The option does not change measured coverage.
+	 * Type of {@link CodeProvider} used to generate code that increments counters.
 	 * <p/>
-	 * In implementation it means that AtomicIntegerArray will be used instead of int[].
+	 * The option does not change measured coverage, it changes only the way the counters are kept.
+	 */
+	private CodeProviderType codeProviderType = CodeProviderType.FAST_ARRAY;
+
+	/**
+	 * If true: counters are collected only from classes that have been touched since the previous collection.
+	 */
+	private boolean trackTouchedClasses;
+
+	/**
+	 * If true: every probe is skipped while coverage is turned off by {@link net.sourceforge.cobertura.coveragedata.CoverageSwitch}.
+	 */
+	private boolean killSwitch;
+
+	/**
+	 * If true: counters incremented inside loops are kept in local variables of the method and added to the shared counters when the method exits.
+	 */
+	private boolean hoistLoopCounters;
+
+	/**
+	 * If true: only one probe per method (at the first line of the method) is injected, so only method coverage is measured.
+	 */
+	private boolean methodCoverageOnly;
+
+	/**
+	 * If false: the instrumented class gets the counters and all the generated methods, but its own methods are not
+	 * changed (see {@link #setInjectProbes(boolean)}).
+	 */
+	private boolean injectProbes = true;
+
+	/**
+	 * If true: counters that can be computed from other counters of the same basic block are not incremented by the instrumented code.
+	 */
+	private boolean minimizeProbes;
+
+	/**
+	 * If true: branch counters are incremented directly on control-flow edges instead of using an internal variable keeping id of the last jump.
 	 */
-	private boolean threadsafeRigorous;
+	private boolean edgeProbes;
+
+	/**
+	 * If true: every instrumented method reads the counters field once (at the method start) and keeps it in a local variable.
+	 */
+	private boolean cacheCounters;
+
+	/**
+	 * Used by {@link CodeProviderType#SAMPLED_ARRAY}: only one in samplingRate executions of a touch-point is counted.
+	 */
+	private int samplingRate = SampledArrayCodeProvider.DEFAULT_SAMPLING_RATE;
 
 	/**
 	 * Analyzes and instruments class given by path.
@@ -152,6 +208,22 @@ public class CoberturaInstrumenter {
 	 */
 	public InstrumentationResult instrumentClass(InputStream inputStream)
 			throws IOException {
+		return instrumentClass(inputStream, null);
+	}
+
+	/**
+	 * Analyzes and instruments class given by inputStream, that is going to be loaded by the classLoader.
+	 * <p/>
+	 * <p>Also the {@link #projectData} structure is filled with information about the found touch-points</p>
+	 *
+	 * @param inputStream - source of class to instrument
+	 * @param classLoader - loader of the class used to find its superclasses without loading them (see {@link CoberturaClassWriter}),
+	 *                    or null if the classes can be loaded
+	 *
+	 * @return instrumentation result structure or null in case of problems
+	 */
+	public InstrumentationResult instrumentClass(InputStream inputStream,
+			ClassLoader classLoader) throws IOException {
 		ClassReader cr0 = new ClassReader(inputStream);
 		ClassWriter cw0 = new ClassWriter(0);
 		DetectIgnoredCodeClassVisitor detectIgnoredCv = new DetectIgnoredCodeClassVisitor(
@@ -193,8 +265,12 @@ public class CoberturaInstrumenter {
 				.debug("Migrating classmap in projectData to store in *.ser file: "
 						+ cv.getClassMap().getClassName());
 
-		cv.getClassMap().applyOnProjectData(projectData,
-				cv.shouldBeInstrumented());
+		if (methodCoverageOnly) {
+			cv.getClassMap().retainMethodEntryTouchPoints();
+		}
+
+		ClassData classData = cv.getClassMap().applyOnProjectData(
+				projectData, cv.shouldBeInstrumented());
 
 		if (cv.shouldBeInstrumented()) {
 			/*
@@ -203,12 +279,51 @@ public class CoberturaInstrumenter {
 			 */
 			ClassReader cr2 = new ClassReader(cw0.toByteArray());
 			ClassWriter cw2 = new CoberturaClassWriter(
-					ClassWriter.COMPUTE_FRAMES);
+					ClassWriter.COMPUTE_FRAMES, classLoader);
+			if (codeProviderType == CodeProviderType.SAMPLED_ARRAY) {
+				classData.setSamplingRate(samplingRate);
+			}
+			if (methodCoverageOnly) {
+				classData.setMethodCoverageOnly(true);
+			}
 			cv.getClassMap().assignCounterIds();
 			logger.debug("Assigned " + cv.getClassMap().getMaxCounterId()
 					+ " counters for class:" + cv.getClassMap().getClassName());
+			if (minimizeProbes) {
+				if (codeProviderType == CodeProviderType.BOOLEAN_ARRAY
+						|| codeProviderType == CodeProviderType.SAMPLED_ARRAY) {
+					logger.debug("Probes are not minimized for "
+							+ codeProviderType + " counters: "
+							+ cv.getClassMap().getClassName());
+				} else {
+					cr2.accept(new FindDerivedCountersClassVisitor(ignoreRegexes,
+							cv.getClassMap(), cv0.getDuplicatesLinesCollector(),
+							detectIgnoredCv.getIgnoredMethodNamesAndSignatures()),
+							ClassReader.SKIP_FRAMES);
+					logger.debug("Found "
+							+ cv.getClassMap().getDerivedCounters().size()
+							+ " derived counters for class:"
+							+ cv.getClassMap().getClassName());
+				}
+			}
+			if (hoistLoopCounters) {
+				if (codeProviderType == CodeProviderType.SAMPLED_ARRAY) {
+					logger.debug("Loop counters are not hoisted for "
+							+ codeProviderType + " counters: "
+							+ cv.getClassMap().getClassName());
+				} else {
+					cr2.accept(new FindLoopCountersClassVisitor(ignoreRegexes,
+							cv.getClassMap(), cv0.getDuplicatesLinesCollector(),
+							detectIgnoredCv.getIgnoredMethodNamesAndSignatures(),
+							edgeProbes), ClassReader.SKIP_FRAMES);
+				}
+			}
 			InjectCodeClassInstrumenter cv2 = new InjectCodeClassInstrumenter(
-					cw2, ignoreRegexes, threadsafeRigorous, cv.getClassMap(),
+					cw2, ignoreRegexes, createCodeProvider(),
+					cacheCounters, edgeProbes, hoistLoopCounters
+							&& codeProviderType != CodeProviderType.SAMPLED_ARRAY,
+					injectProbes,
+					cv.getClassMap(),
 					cv0.getDuplicatesLinesCollector(), detectIgnoredCv
 							.getIgnoredMethodNamesAndSignatures());
 			cr2.accept(new CheckClassAdapter(cv2), ClassReader.SKIP_FRAMES);
@@ -218,6 +333,21 @@ public class CoberturaInstrumenter {
 					pw);
 			logger.debug(sw.toString());
 
+			if (classMetadataStore != null) {
+				String className = cv.getClassMap().getClassName().replace(
+						'/', '.');
+				if (codeProviderType == CodeProviderType.SAMPLED_ARRAY) {
+					/*hit vectors carry neither the first hits nor the sampling rate, so hits
+					 of sampled classes have to be saved as ProjectData*/
+					logger.debug("Class-map of sampled class " + className
+							+ " is not put into the metadata store");
+					classMetadataStore.remove(className);
+				} else {
+					classMetadataStore.put(className, AbstractCodeProvider
+							.encodeClassMap(cv.getClassMap()));
+				}
+			}
+
 			return new InstrumentationResult(cv.getClassMap().getClassName(),
 					cw2.toByteArray());
 		} else {
@@ -227,6 +357,14 @@ public class CoberturaInstrumenter {
 		}
 	}
 
+	private CodeProvider createCodeProvider() {
+		CodeProvider codeProvider = codeProviderType
+				.createCodeProvider(samplingRate);
+		codeProvider.setTrackTouchedClasses(trackTouchedClasses);
+		codeProvider.setKillSwitch(killSwitch);
+		return codeProvider;
+	}
+
 	/**
 	 * Analyzes and instruments class given by file.
 	 * <p/>
@@ -314,8 +452,110 @@ public class CoberturaInstrumenter {
 		this.ignoreClassAnnotations = ignoreClassAnnotations;
 	}
 
+	/**
+	 * Setting to true causes cobertura to use more strict threadsafe model that is significantly
+	 * slower, but guarantees that number of hits counted for each line will be precise in multithread-environment.
+	 * <p/>
+	 * In implementation it means that AtomicIntegerArray will be used instead of int[] ({@link CodeProviderType#ATOMIC_ARRAY}).
+	 */
 	public void setThreadsafeRigorous(boolean threadsafeRigorous) {
-		this.threadsafeRigorous = threadsafeRigorous;
+		this.codeProviderType = threadsafeRigorous
+				? CodeProviderType.ATOMIC_ARRAY
+				: CodeProviderType.FAST_ARRAY;
+	}
+
+	/**
+	 * Sets type of {@link CodeProvider} used to generate code that increments counters.
+	 */
+	public void setCodeProviderType(CodeProviderType codeProviderType) {
+		this.codeProviderType = codeProviderType;
+	}
+
+	/**
+	 * Setting to true causes instrumented methods to load the counters once (at the method start) into a local variable,
+	 * instead of reading the counters field at every touch-point.
+	 * <p/>
+	 * Providers that replace the counters array when they are read ({@link CodeProviderType#FAST_ARRAY},
+	 * {@link CodeProviderType#BOOLEAN_ARRAY}) clear the array in place instead, so running methods never increment an orphaned array.
+	 */
+	public void setCacheCounters(boolean cacheCounters) {
+		this.cacheCounters = cacheCounters;
+	}
+
+	/**
+	 * Setting to true causes branches to be counted by trampolines placed on control-flow edges of jumps and switches
+	 * ({@link net.sourceforge.cobertura.instrument.pass3.EdgeProbesMethodAdapter}), instead of storing id of the last jump
+	 * in an internal variable and checking it at every jump destination.
+	 */
+	public void setEdgeProbes(boolean edgeProbes) {
+		this.edgeProbes = edgeProbes;
+	}
+
+	/**
+	 * Setting to true causes an additional analysis pass ({@link FindDerivedCountersClassVisitor}) that finds counters
+	 * that can be computed from other counters of the same basic block. Such counters are not incremented by the
+	 * instrumented code, but computed when the counters are collected.
+	 * <p/>
+	 * The option is ignored for {@link CodeProviderType#BOOLEAN_ARRAY} and {@link CodeProviderType#SAMPLED_ARRAY},
+	 * because hit flags and sampled counts can't be subtracted.
+	 */
+	public void setMinimizeProbes(boolean minimizeProbes) {
+		this.minimizeProbes = minimizeProbes;
+	}
+
+	/**
+	 * Sets how many executions of a touch-point are represented by a single increment of a counter, when
+	 * {@link CodeProviderType#SAMPLED_ARRAY} is used. The rate is also stored in the {@link ProjectData}, so the
+	 * reports can scale the hit counts.
+	 */
+	public void setSamplingRate(int samplingRate) {
+		this.samplingRate = samplingRate;
+	}
+
+	/**
+	 * Setting to true causes instrumented classes to mark themselves touched when any of their counters is incremented,
+	 * so {@link net.sourceforge.cobertura.coveragedata.TouchCollector} collects counters only from classes that have been
+	 * touched since the previous collection (instead of all the loaded classes).
+	 */
+	public void setTrackTouchedClasses(boolean trackTouchedClasses) {
+		this.trackTouchedClasses = trackTouchedClasses;
+	}
+
+	/**
+	 * Setting to true causes every probe to be guarded by {@link net.sourceforge.cobertura.coveragedata.CoverageSwitch#isEnabled()},
+	 * so coverage can be turned off (and on again) at runtime, for example in instrumented artifacts deployed to staging.
+	 */
+	public void setKillSwitch(boolean killSwitch) {
+		this.killSwitch = killSwitch;
+	}
+
+	/**
+	 * Setting to true causes an additional analysis pass ({@link FindLoopCountersClassVisitor}) that finds counters
+	 * incremented inside loops. Such counters are kept in local int variables of the method and added to the shared
+	 * counters when the method returns or throws (see {@link net.sourceforge.cobertura.instrument.pass3.HoistLoopCountersMethodAdapter}).
+	 * <p/>
+	 * <p>Hits of a loop in a method that never exits are never reported. Ignored for {@link CodeProviderType#SAMPLED_ARRAY}.</p>
+	 */
+	public void setHoistLoopCounters(boolean hoistLoopCounters) {
+		this.hoistLoopCounters = hoistLoopCounters;
+	}
+
+	/**
+	 * Setting to false causes the instrumented class to have exactly the same fields and methods as with probes, but
+	 * without any probe in its own methods. A class instrumented that way can replace (by retransformation) the fully
+	 * instrumented version of the class, because the schema of the class is not changed (see {@link CoveredClassesDeinstrumenter}).
+	 */
+	public void setInjectProbes(boolean injectProbes) {
+		this.injectProbes = injectProbes;
+	}
+
+	/**
+	 * Switches on the method coverage mode: every method gets only one probe, at its first line. All other
+	 * lines and all branches are forgotten, so the instrumented classes are smaller and faster, but the
+	 * reports show only which methods have been entered.
+	 */
+	public void setMethodCoverageOnly(boolean methodCoverageOnly) {
+		this.methodCoverageOnly = methodCoverageOnly;
 	}
 
 	public void setFailOnError(boolean failOnError) {
@@ -331,6 +571,14 @@ public class CoberturaInstrumenter {
 		this.projectData = projectData;
 	}
 
+	/**
+	 * Sets {@link ClassMetadataStore} that will be filled with class-maps of instrumented classes (except the classes
+	 * instrumented with {@link CodeProviderType#SAMPLED_ARRAY}, whose hits are always saved as {@link ProjectData})
+	 */
+	public void setClassMetadataStore(ClassMetadataStore classMetadataStore) {
+		this.classMetadataStore = classMetadataStore;
+	}
+
 	/**
 	 * Result of instrumentation is a pair of two fields:
 	 * <ul>
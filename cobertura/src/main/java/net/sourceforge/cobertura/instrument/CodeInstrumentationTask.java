@@ -1,8 +1,10 @@
 package net.sourceforge.cobertura.instrument;
 
 import net.sourceforge.cobertura.dsl.Arguments;
+import net.sourceforge.cobertura.coveragedata.ClassMetadataStore;
 import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
 import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import net.sourceforge.cobertura.util.*;
 
 import java.io.*;
@@ -51,29 +53,17 @@ public class CodeInstrumentationTask {
 	public CodeInstrumentationTask instrument(Arguments arguments,
 			ProjectData projectData) throws Throwable {
 		destinationDirectory = arguments.getDestinationDirectory();
-		classPattern = new ClassPattern();
-		coberturaInstrumenter = new CoberturaInstrumenter();
-		coberturaInstrumenter.setIgnoreRegexes(arguments.getIgnoreRegexes());
+		classPattern = createClassPattern(arguments);
+		coberturaInstrumenter = createInstrumenter(arguments, projectData);
+		coberturaInstrumenter.setDestinationDirectory(destinationDirectory);
 		// Parse our parameters
 		Set<CoberturaFile> filePaths = arguments.getFilesToInstrument();
 
 		File dataFile = arguments.getDataFile();
-		destinationDirectory = arguments.getDestinationDirectory();
-		coberturaInstrumenter.setDestinationDirectory(destinationDirectory);
-		arguments.getIgnoreRegexes();
-		classPattern.addExcludeClassesRegex(arguments
-				.getClassPatternExcludeClassesRegexes());
-		classPattern.addIncludeClassesRegex(arguments
-				.getClassPatternIncludeClassesRegexes());
-		coberturaInstrumenter.setIgnoreTrivial(arguments.isIgnoreTrivial());
-		coberturaInstrumenter.setIgnoreMethodAnnotations(arguments
-				.getIgnoreMethodAnnotations());
-		coberturaInstrumenter.setIgnoreClassAnnotations(arguments
-				.getIgnoreClassAnnotations());
-		coberturaInstrumenter.setThreadsafeRigorous(arguments
-				.isThreadsafeRigorous());
-		coberturaInstrumenter.setFailOnError(arguments.isFailOnError());
-		coberturaInstrumenter.setProjectData(projectData);
+		// Class-maps of classes instrumented before are kept, the instrumented code can still use them
+		ClassMetadataStore classMetadataStore = ClassMetadataStore
+				.load(ClassMetadataStore.getMetadataFile(dataFile));
+		coberturaInstrumenter.setClassMetadataStore(classMetadataStore);
 
 		// Instrument classes
 		logger.info(String.format("Instrumenting %s %s %s", filePaths.size(),
@@ -92,10 +82,59 @@ public class CodeInstrumentationTask {
 		}
 
 		// Save coverage data (ser file with list of touch points, but not hits registered).
+		// It's written also when the class-maps are, as the reports need all the lines (with their
+		// methods, sampling rates, ...) also of classes that are never loaded, and it's written only once.
 		CoverageDataFileHandler.saveCoverageData(projectData, dataFile);
+		// Save class-maps, so the instrumented code can save just counters of the classes
+		classMetadataStore.save(ClassMetadataStore.getMetadataFile(dataFile));
+		if (arguments.getCodeProviderType() == CodeProviderType.SAMPLED_ARRAY) {
+			logger.info("Sampled classes are not in the metadata store, "
+					+ "their hits are never saved as hit vectors");
+		}
 		return this;
 	}
 
+	/**
+	 * Creates {@link ClassPattern} with the include and exclude regexes of the arguments.
+	 */
+	static ClassPattern createClassPattern(Arguments arguments) {
+		ClassPattern classPattern = new ClassPattern();
+		classPattern.addExcludeClassesRegex(arguments
+				.getClassPatternExcludeClassesRegexes());
+		classPattern.addIncludeClassesRegex(arguments
+				.getClassPatternIncludeClassesRegexes());
+		return classPattern;
+	}
+
+	/**
+	 * Creates {@link CoberturaInstrumenter} configured by the arguments, that fills the given projectData.
+	 */
+	static CoberturaInstrumenter createInstrumenter(Arguments arguments,
+			ProjectData projectData) {
+		CoberturaInstrumenter coberturaInstrumenter = new CoberturaInstrumenter();
+		coberturaInstrumenter.setIgnoreRegexes(arguments.getIgnoreRegexes());
+		coberturaInstrumenter.setIgnoreTrivial(arguments.isIgnoreTrivial());
+		coberturaInstrumenter.setIgnoreMethodAnnotations(arguments
+				.getIgnoreMethodAnnotations());
+		coberturaInstrumenter.setIgnoreClassAnnotations(arguments
+				.getIgnoreClassAnnotations());
+		coberturaInstrumenter.setCodeProviderType(arguments
+				.getCodeProviderType());
+		coberturaInstrumenter.setCacheCounters(arguments.isCacheCounters());
+		coberturaInstrumenter.setEdgeProbes(arguments.isEdgeProbes());
+		coberturaInstrumenter.setMinimizeProbes(arguments.isMinimizeProbes());
+		coberturaInstrumenter.setSamplingRate(arguments.getSamplingRate());
+		coberturaInstrumenter.setTrackTouchedClasses(arguments
+				.isTrackTouchedClasses());
+		coberturaInstrumenter.setKillSwitch(arguments.isKillSwitch());
+		coberturaInstrumenter.setHoistLoopCounters(arguments
+				.isHoistLoopCounters());
+		coberturaInstrumenter.setMethodCoverageOnly(arguments.isMethodCoverageOnly());
+		coberturaInstrumenter.setFailOnError(arguments.isFailOnError());
+		coberturaInstrumenter.setProjectData(projectData);
+		return coberturaInstrumenter;
+	}
+
 	/**
 	 * @param entry A zip entry.
 	 *
@@ -0,0 +1,125 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument;
+
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.coveragedata.TouchCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimerTask;
+
+/**
+ * <p>Periodic task that removes probes from classes whose all lines and branches have already been covered.</p>
+ * <p/>
+ * <p>The counters are collected into {@link ProjectData#getGlobalProjectData()} first, and every class instrumented by
+ * the {@link CoberturaClassFileTransformer} that is fully covered is retransformed. The transformer then instruments
+ * it again without probes ({@link CoberturaInstrumenter#setInjectProbes(boolean)}), so the class keeps all the
+ * fields and generated methods (a retransformation cannot change them), but its methods are the original ones.
+ * The recorded hits stay in the {@link ProjectData}, and the counters of the class are still collected, so hits
+ * counted just before the retransformation are not lost.</p>
+ * <p/>
+ * <p>Hit counts of a de-instrumented class are not increased anymore, so the mode is meant for line and branch
+ * coverage only.</p>
+ */
+public class CoveredClassesDeinstrumenter extends TimerTask {
+	private static final Logger logger = LoggerFactory
+			.getLogger(CoveredClassesDeinstrumenter.class);
+
+	private final Instrumentation instrumentation;
+
+	private final CoberturaClassFileTransformer transformer;
+
+	public CoveredClassesDeinstrumenter(Instrumentation instrumentation,
+			CoberturaClassFileTransformer transformer) {
+		this.instrumentation = instrumentation;
+		this.transformer = transformer;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Set<String> coveredClasses;
+			ProjectData projectData = ProjectData.enterGlobalProjectData();
+			try {
+				coveredClasses = findCoveredClasses(projectData);
+			} finally {
+				ProjectData.exitGlobalProjectData(projectData);
+			}
+			if (!coveredClasses.isEmpty()) {
+				deinstrument(coveredClasses);
+			}
+		} catch (Throwable t) {
+			logger.warn("Unable to de-instrument covered classes", t);
+		}
+	}
+
+	/**
+	 * @return internal names of instrumented classes, that are fully covered, but still have the probes
+	 */
+	Set<String> findCoveredClasses(ProjectData projectData) {
+		TouchCollector.applyTouchesOnProjectData(projectData);
+		Set<String> coveredClasses = new HashSet<String>();
+		for (String className : transformer.getInstrumentedClasses()) {
+			if (!transformer.isDeinstrumented(className)
+					&& isFullyCovered(projectData.getClassData(className
+							.replace('/', '.')))) {
+				coveredClasses.add(className);
+			}
+		}
+		return coveredClasses;
+	}
+
+	private void deinstrument(Set<String> classNames) throws Exception {
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+			if (classNames.contains(clazz.getName().replace('.', '/'))
+					&& instrumentation.isModifiableClass(clazz)) {
+				classes.add(clazz);
+			}
+		}
+		for (String className : classNames) {
+			transformer.deinstrument(className);
+		}
+		instrumentation.retransformClasses(classes.toArray(new Class<?>[classes
+				.size()]));
+		logger.debug("De-instrumented " + classes.size() + " covered classes");
+	}
+
+	static boolean isFullyCovered(ClassData classData) {
+		return classData != null
+				&& classData.getNumberOfValidLines() > 0
+				&& classData.getNumberOfCoveredLines() == classData
+						.getNumberOfValidLines()
+				&& classData.getNumberOfCoveredBranches() == classData
+						.getNumberOfValidBranches();
+	}
+}
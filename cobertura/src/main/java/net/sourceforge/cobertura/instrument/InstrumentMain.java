@@ -102,7 +102,7 @@ public class InstrumentMain {
 		}
 	}
 
-	private static ArgumentsBuilder createArgumentsFromCMDParams(String[] args) {
+	static ArgumentsBuilder createArgumentsFromCMDParams(String[] args) {
 		ArgumentsBuilder builder = new ArgumentsBuilder();
 
 		// Parse parameters
@@ -131,6 +131,24 @@ public class InstrumentMain {
 				logger.setFailOnError(true);
 			} else if (args[i].equals("--threadsafeRigorous")) {
 				builder.threadsafeRigorous(true);
+			} else if (args[i].equals("--codeProvider")) {
+				builder.codeProvider(args[++i]);
+			} else if (args[i].equals("--cacheCounters")) {
+				builder.cacheCounters(true);
+			} else if (args[i].equals("--edgeProbes")) {
+				builder.edgeProbes(true);
+			} else if (args[i].equals("--minimizeProbes")) {
+				builder.minimizeProbes(true);
+			} else if (args[i].equals("--samplingRate")) {
+				builder.samplingRate(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--trackTouchedClasses")) {
+				builder.trackTouchedClasses(true);
+			} else if (args[i].equals("--killSwitch")) {
+				builder.killSwitch(true);
+			} else if (args[i].equals("--hoistLoopCounters")) {
+				builder.hoistLoopCounters(true);
+			} else if (args[i].equals("--methodCoverageOnly")) {
+				builder.methodCoverageOnly(true);
 			} else if (args[i].equals("--auxClasspath")) {
 				addElementsToJVM(args[++i]);
                         } else if (args[i].equals("--listOfFilesToInstrument")) {
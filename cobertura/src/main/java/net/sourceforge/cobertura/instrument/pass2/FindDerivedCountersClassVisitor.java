@@ -0,0 +1,147 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass2;
+
+import net.sourceforge.cobertura.instrument.AbstractFindTouchPointsClassInstrumenter;
+import net.sourceforge.cobertura.instrument.FindTouchPointsMethodAdapter;
+import net.sourceforge.cobertura.instrument.pass3.InjectCodeClassInstrumenter;
+import net.sourceforge.cobertura.instrument.tp.ClassMap;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Optional analysis pass executed between {@link BuildClassMapClassVisitor} and {@link InjectCodeClassInstrumenter}.</p>
+ * <p/>
+ * <p>Splits every method into basic blocks (using control-flow information of ASM tree API) and finds counters that
+ * don't need to be incremented, because their values can be computed from other counters of the same basic block:</p>
+ * <ul>
+ * <li>counter of a line that is in the same basic block as an earlier counter has the same value as the earlier counter,</li>
+ * <li>counter of a 'false' branch of a JUMP is equal to a counter of the block containing the JUMP minus the counter of the
+ * 'true' branch.</li>
+ * </ul>
+ * <p>Found counters are registered in {@link ClassMap} as derived ({@link ClassMap#registerDerivedCounter}), so the
+ * instrumentation code doesn't increment them and their values are computed when the counters are collected.</p>
+ * <p/>
+ * <p>This instrumenter ({@link org.objectweb.asm.ClassVisitor}) does not change the bytecode of the class.</p>
+ */
+public class FindDerivedCountersClassVisitor
+		extends
+			AbstractFindTouchPointsClassInstrumenter {
+	/**
+	 * {@link ClassMap} of the class, with assigned counter ids ({@link ClassMap#assignCounterIds()}).
+	 */
+	private final ClassMap classMap;
+
+	private final Set<String> ignoredMethods;
+
+	/**
+	 * @param ignoreRegexes      - list of patters of method calls that should be ignored from line-coverage-measurement
+	 * @param classMap           - map of all interesting places in the class (with assigned counters). Derived counters are registered into it.
+	 * @param duplicatedLinesMap - map of found duplicates in the class.
+	 * @param ignoredMethods     - methods that are not instrumented
+	 */
+	public FindDerivedCountersClassVisitor(Collection<Pattern> ignoreRegexes,
+			ClassMap classMap,
+			Map<Integer, Map<Integer, Integer>> duplicatedLinesMap,
+			Set<String> ignoredMethods) {
+		super(null, ignoreRegexes, duplicatedLinesMap);
+		this.classMap = classMap;
+		this.ignoredMethods = ignoredMethods;
+	}
+
+	/**
+	 * <p>The method is buffered as {@link MethodNode} to find all the basic block boundaries (all destinations of jumps and
+	 * switches, and exception handlers), and then the method is replayed through {@link FindTouchPointsMethodAdapter}
+	 * to get the same events (eventIds) as {@link InjectCodeClassInstrumenter}.</p>
+	 */
+	@Override
+	public MethodVisitor visitMethod(final int access, final String name,
+			final String desc, String signature, String[] exceptions) {
+		if (ignoredMethods.contains(name + desc)) {
+			return null;
+		}
+		return new MethodNode(Opcodes.ASM5, access, name, desc, signature,
+				exceptions) {
+			@Override
+			public void visitEnd() {
+				FindDerivedCountersMethodAdapter analyzer = new FindDerivedCountersMethodAdapter(
+						classMap, findBlockStartLabels(this));
+				FindTouchPointsMethodAdapter instrumenter = new FindTouchPointsMethodAdapter(
+						analyzer, classMap.getClassName(), name, desc,
+						eventIdGenerator, duplicatedLinesMap, lineIdGenerator);
+				instrumenter.setTouchPointListener(analyzer);
+				instrumenter.setIgnoreRegexp(getIgnoreRegexp());
+				accept(instrumenter);
+			}
+		};
+	}
+
+	/**
+	 * @return labels that start a new basic block: all destinations of jumps and switches and all exception handlers.
+	 */
+	private static Set<Label> findBlockStartLabels(MethodNode methodNode) {
+		Set<Label> res = new HashSet<Label>();
+		for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn
+				.getNext()) {
+			if (insn instanceof JumpInsnNode) {
+				res.add(((JumpInsnNode) insn).label.getLabel());
+			} else if (insn instanceof TableSwitchInsnNode) {
+				TableSwitchInsnNode swi = (TableSwitchInsnNode) insn;
+				res.add(swi.dflt.getLabel());
+				addLabels(res, swi.labels);
+			} else if (insn instanceof LookupSwitchInsnNode) {
+				LookupSwitchInsnNode swi = (LookupSwitchInsnNode) insn;
+				res.add(swi.dflt.getLabel());
+				addLabels(res, swi.labels);
+			}
+		}
+		for (Object tryCatch : methodNode.tryCatchBlocks) {
+			res.add(((TryCatchBlockNode) tryCatch).handler.getLabel());
+		}
+		return res;
+	}
+
+	private static void addLabels(Set<Label> res, List<?> labels) {
+		for (Object label : labels) {
+			res.add(((LabelNode) label).getLabel());
+		}
+	}
+
+}
@@ -0,0 +1,348 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass2;
+
+import net.sourceforge.cobertura.instrument.TouchPointListener;
+import net.sourceforge.cobertura.instrument.tp.ClassMap;
+import net.sourceforge.cobertura.instrument.tp.DerivedCounterDescriptor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Finds counters of a single method that can be derived from other counters (see {@link FindDerivedCountersClassVisitor}).</p>
+ * <p/>
+ * <p>The adapter is both: the {@link TouchPointListener} of {@link net.sourceforge.cobertura.instrument.FindTouchPointsMethodAdapter}
+ * (to know where the counters are incremented) and the next {@link MethodVisitor} in the chain (to know where the basic blocks end).
+ * All the places are recorded in the order of the code and analyzed at the end of the method, when we know how many
+ * times every counter is incremented in the method.</p>
+ * <p/>
+ * <p>A basic block is ended by every instruction that changes the control-flow, and also by every instruction that
+ * can throw an exception: method invocations, field and array accesses, integer divisions, casts, allocations,
+ * monitors and constants of classes (that can fail to load). We don't want to report lines that follow a
+ * throwing instruction as executed, so that the report is the same as the one of the code with all the counters.</p>
+ * <p/>
+ * <p>Counters are merged only inside a single basic block, no minimal set of probes is computed over the
+ * control-flow graph of the method.</p>
+ */
+public class FindDerivedCountersMethodAdapter extends MethodVisitor
+		implements
+			TouchPointListener {
+	private final ClassMap classMap;
+
+	/**
+	 * Labels that start a new basic block.
+	 */
+	private final Set<Label> blockStartLabels;
+
+	/**
+	 * Places of the method in order of the code.
+	 */
+	private final List<Place> places = new ArrayList<Place>();
+
+	/**
+	 * True between {@link #beforeJump} and {@link #afterJump} events, when the JUMP is going to be recorded as a whole.
+	 */
+	private boolean insideJump = false;
+
+	public FindDerivedCountersMethodAdapter(ClassMap classMap,
+			Set<Label> blockStartLabels) {
+		super(Opcodes.ASM5);
+		this.classMap = classMap;
+		this.blockStartLabels = blockStartLabels;
+	}
+
+	// ------------------- touch-points ----------------------------------
+
+	public void afterLineNumber(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor, String methodName,
+			String methodSignature) {
+		Integer lineCounterId = classMap.getCounterIdForLineEventId(eventId);
+		if (lineCounterId != null) {
+			places.add(new Place(lineCounterId, null));
+		}
+	}
+
+	public void beforeJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		insideJump = true;
+	}
+
+	public void afterJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		insideJump = false;
+		Integer jumpFalseCounterId = classMap.getCounterIdForJumpFalse(eventId);
+		if (jumpFalseCounterId != null) {
+			places.add(new Place(jumpFalseCounterId, classMap
+					.getCounterIdForJumpTrue(eventId)));
+		} else {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	public void afterMethodStart(MethodVisitor nextMethodVisitor) {
+	}
+
+	public void beforeSwitch(int eventId, Label def, Label[] labels,
+			int currentLine, MethodVisitor mv, String conditionType) {
+	}
+
+	public void beforeLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+	}
+
+	public void afterLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+	}
+
+	public void ignoreLine(int eventId, int currentLine) {
+	}
+
+	// ------------------- basic block boundaries ------------------------
+
+	@Override
+	public void visitLabel(Label label) {
+		if (blockStartLabels.contains(label)) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitJumpInsn(int opcode, Label label) {
+		if (!insideJump) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitInsn(int opcode) {
+		if ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)
+				|| opcode == Opcodes.ATHROW || canThrow(opcode)) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	/**
+	 * @return true if the instruction without operands can throw an exception
+	 */
+	private static boolean canThrow(int opcode) {
+		switch (opcode) {
+			case Opcodes.IALOAD :
+			case Opcodes.LALOAD :
+			case Opcodes.FALOAD :
+			case Opcodes.DALOAD :
+			case Opcodes.AALOAD :
+			case Opcodes.BALOAD :
+			case Opcodes.CALOAD :
+			case Opcodes.SALOAD :
+			case Opcodes.IASTORE :
+			case Opcodes.LASTORE :
+			case Opcodes.FASTORE :
+			case Opcodes.DASTORE :
+			case Opcodes.AASTORE :
+			case Opcodes.BASTORE :
+			case Opcodes.CASTORE :
+			case Opcodes.SASTORE :
+			case Opcodes.IDIV :
+			case Opcodes.LDIV :
+			case Opcodes.IREM :
+			case Opcodes.LREM :
+			case Opcodes.ARRAYLENGTH :
+			case Opcodes.MONITORENTER :
+			case Opcodes.MONITOREXIT :
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	@Override
+	public void visitIntInsn(int opcode, int operand) {
+		if (opcode == Opcodes.NEWARRAY) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitTypeInsn(int opcode, String type) {
+		if (opcode != Opcodes.INSTANCEOF) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitFieldInsn(int opcode, String owner, String name,
+			String desc) {
+		places.add(Place.BLOCK_END);
+	}
+
+	@Override
+	public void visitMultiANewArrayInsn(String desc, int dims) {
+		places.add(Place.BLOCK_END);
+	}
+
+	@Override
+	public void visitLdcInsn(Object cst) {
+		if (cst instanceof Type || cst instanceof Handle) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitVarInsn(int opcode, int var) {
+		if (opcode == Opcodes.RET) {
+			places.add(Place.BLOCK_END);
+		}
+	}
+
+	@Override
+	public void visitTableSwitchInsn(int min, int max, Label dflt,
+			Label... labels) {
+		places.add(Place.BLOCK_END);
+	}
+
+	@Override
+	public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+		places.add(Place.BLOCK_END);
+	}
+
+	@Override
+	public void visitMethodInsn(int opcode, String owner, String name,
+			String desc, boolean itf) {
+		places.add(Place.BLOCK_END);
+	}
+
+	@Override
+	public void visitInvokeDynamicInsn(String name, String desc, Handle bsm,
+			Object... bsmArgs) {
+		places.add(Place.BLOCK_END);
+	}
+
+	// ------------------- analysis --------------------------------------
+
+	/**
+	 * <p>Walks through the recorded places keeping the formula for the number of executions of the current basic block.</p>
+	 * <p/>
+	 * <p>Counters that are incremented in more than one place (code duplicated by the compiler, like finally blocks)
+	 * count executions of many blocks, so they are never derived and never used to derive other counters.</p>
+	 */
+	@Override
+	public void visitEnd() {
+		Map<Integer, Integer> placesOfCounter = new HashMap<Integer, Integer>();
+		for (Place place : places) {
+			countPlace(placesOfCounter, place.counterId);
+			countPlace(placesOfCounter, place.jumpTrueCounterId);
+		}
+
+		Formula block = null;
+		for (Place place : places) {
+			if (place == Place.BLOCK_END) {
+				block = null;
+			} else if (placesOfCounter.get(place.counterId) > 1) {
+				block = null;
+			} else if (place.jumpTrueCounterId == null) {
+				/* line */
+				if (block != null) {
+					register(place.counterId, block);
+				} else {
+					block = new Formula(place.counterId);
+				}
+			} else {
+				/* 'false' branch of the jump */
+				if (block != null
+						&& placesOfCounter.get(place.jumpTrueCounterId) == 1) {
+					block = block.minus(place.jumpTrueCounterId);
+					register(place.counterId, block);
+				} else {
+					block = new Formula(place.counterId);
+				}
+			}
+		}
+	}
+
+	private void register(int counterId, Formula formula) {
+		int[] subtracted = new int[formula.subtracted.size()];
+		for (int i = 0; i < subtracted.length; i++) {
+			subtracted[i] = formula.subtracted.get(i);
+		}
+		classMap.registerDerivedCounter(new DerivedCounterDescriptor(counterId,
+				formula.source, subtracted));
+	}
+
+	private static void countPlace(Map<Integer, Integer> placesOfCounter,
+			Integer counterId) {
+		if (counterId != null) {
+			Integer cnt = placesOfCounter.get(counterId);
+			placesOfCounter.put(counterId, cnt == null ? 1 : cnt + 1);
+		}
+	}
+
+	/**
+	 * Place in the code where a counter is incremented. If {@link #jumpTrueCounterId} is not null, the counter is
+	 * a counter of a 'false' branch of a JUMP.
+	 */
+	private static class Place {
+		private static final Place BLOCK_END = new Place(null, null);
+
+		private final Integer counterId;
+		private final Integer jumpTrueCounterId;
+
+		private Place(Integer counterId, Integer jumpTrueCounterId) {
+			this.counterId = counterId;
+			this.jumpTrueCounterId = jumpTrueCounterId;
+		}
+	}
+
+	/**
+	 * Number of executions of a block expressed as: counter[source] - counter[subtracted[0]] - counter[subtracted[1]] ...
+	 */
+	private static class Formula {
+		private final int source;
+		private final List<Integer> subtracted;
+
+		private Formula(int source) {
+			this(source, new ArrayList<Integer>());
+		}
+
+		private Formula(int source, List<Integer> subtracted) {
+			this.source = source;
+			this.subtracted = subtracted;
+		}
+
+		private Formula minus(int counterId) {
+			List<Integer> res = new ArrayList<Integer>(subtracted);
+			res.add(counterId);
+			return new Formula(source, res);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass2;
+
+import net.sourceforge.cobertura.instrument.AbstractFindTouchPointsClassInstrumenter;
+import net.sourceforge.cobertura.instrument.FindTouchPointsMethodAdapter;
+import net.sourceforge.cobertura.instrument.pass3.InjectCodeClassInstrumenter;
+import net.sourceforge.cobertura.instrument.tp.ClassMap;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Optional analysis pass executed between {@link BuildClassMapClassVisitor} and {@link InjectCodeClassInstrumenter}.</p>
+ * <p/>
+ * <p>Finds counters that are incremented inside loops and registers them in {@link ClassMap} ({@link ClassMap#registerLoopCounter}),
+ * so {@link InjectCodeClassInstrumenter} can keep them in local variables of the method.</p>
+ * <p/>
+ * <p>A loop is found by a backward jump (or switch destination): all the code between the destination and the jump
+ * is treated as a part of the loop. Compilers lay loops out this way, and the exact shape of the loop doesn't matter
+ * much: the counters are only kept in local variables, a counter wrongly treated as a loop counter is still counted exactly.</p>
+ * <p/>
+ * <p>This instrumenter ({@link org.objectweb.asm.ClassVisitor}) does not change the bytecode of the class.</p>
+ */
+public class FindLoopCountersClassVisitor
+		extends
+			AbstractFindTouchPointsClassInstrumenter {
+	/**
+	 * {@link ClassMap} of the class, with assigned counter ids ({@link ClassMap#assignCounterIds()}).
+	 */
+	private final ClassMap classMap;
+
+	private final Set<String> ignoredMethods;
+
+	/**
+	 * True if the branch counters are incremented on control-flow edges (see {@link net.sourceforge.cobertura.instrument.pass3.EdgeProbesMethodAdapter}).
+	 */
+	private final boolean edgeProbes;
+
+	/**
+	 * @param ignoreRegexes      - list of patters of method calls that should be ignored from line-coverage-measurement
+	 * @param classMap           - map of all interesting places in the class (with assigned counters). Loop counters are registered into it.
+	 * @param duplicatedLinesMap - map of found duplicates in the class.
+	 * @param ignoredMethods     - methods that are not instrumented
+	 * @param edgeProbes         - true if the class is going to be instrumented with edge probes
+	 */
+	public FindLoopCountersClassVisitor(Collection<Pattern> ignoreRegexes,
+			ClassMap classMap,
+			Map<Integer, Map<Integer, Integer>> duplicatedLinesMap,
+			Set<String> ignoredMethods, boolean edgeProbes) {
+		super(null, ignoreRegexes, duplicatedLinesMap);
+		this.classMap = classMap;
+		this.ignoredMethods = ignoredMethods;
+		this.edgeProbes = edgeProbes;
+	}
+
+	/**
+	 * <p>The method is buffered as {@link MethodNode} to find the loops, and then the method is replayed through
+	 * {@link FindTouchPointsMethodAdapter} to get the same events (eventIds) as {@link InjectCodeClassInstrumenter}.</p>
+	 * <p/>
+	 * <p>Constructors are replayed (to keep the eventIds in sync), but their counters are never kept in variables.</p>
+	 */
+	@Override
+	public MethodVisitor visitMethod(final int access, final String name,
+			final String desc, String signature, String[] exceptions) {
+		if (ignoredMethods.contains(name + desc)) {
+			return null;
+		}
+		return new MethodNode(Opcodes.ASM5, access, name, desc, signature,
+				exceptions) {
+			@Override
+			public void visitEnd() {
+				FindLoopCountersMethodAdapter analyzer = new FindLoopCountersMethodAdapter(
+						classMap, "<init>".equals(name) ? null : name + desc,
+						findLoopStartLabels(this), edgeProbes);
+				FindTouchPointsMethodAdapter instrumenter = new FindTouchPointsMethodAdapter(
+						analyzer, classMap.getClassName(), name, desc,
+						eventIdGenerator, duplicatedLinesMap, lineIdGenerator);
+				instrumenter.setTouchPointListener(analyzer);
+				instrumenter.setIgnoreRegexp(getIgnoreRegexp());
+				accept(instrumenter);
+			}
+		};
+	}
+
+	/**
+	 * @return labels that start a loop: destinations of backward jumps and switches, with the number of such
+	 *         backward edges pointing to the label.
+	 */
+	private static Map<Label, Integer> findLoopStartLabels(
+			MethodNode methodNode) {
+		Map<Label, Integer> res = new HashMap<Label, Integer>();
+		Set<LabelNode> visitedLabels = new HashSet<LabelNode>();
+		for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn
+				.getNext()) {
+			if (insn instanceof LabelNode) {
+				visitedLabels.add((LabelNode) insn);
+			} else if (insn instanceof JumpInsnNode) {
+				addBackwardEdge(res, visitedLabels, ((JumpInsnNode) insn).label);
+			} else if (insn instanceof TableSwitchInsnNode) {
+				TableSwitchInsnNode swi = (TableSwitchInsnNode) insn;
+				addBackwardEdge(res, visitedLabels, swi.dflt);
+				addBackwardEdges(res, visitedLabels, swi.labels);
+			} else if (insn instanceof LookupSwitchInsnNode) {
+				LookupSwitchInsnNode swi = (LookupSwitchInsnNode) insn;
+				addBackwardEdge(res, visitedLabels, swi.dflt);
+				addBackwardEdges(res, visitedLabels, swi.labels);
+			}
+		}
+		return res;
+	}
+
+	private static void addBackwardEdges(Map<Label, Integer> res,
+			Set<LabelNode> visitedLabels, List<?> labels) {
+		for (Object label : labels) {
+			addBackwardEdge(res, visitedLabels, (LabelNode) label);
+		}
+	}
+
+	private static void addBackwardEdge(Map<Label, Integer> res,
+			Set<LabelNode> visitedLabels, LabelNode label) {
+		if (visitedLabels.contains(label)) {
+			Integer edges = res.get(label.getLabel());
+			res.put(label.getLabel(), edges == null ? 1 : edges + 1);
+		}
+	}
+
+}
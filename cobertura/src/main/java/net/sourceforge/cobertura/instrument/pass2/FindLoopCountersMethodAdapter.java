@@ -0,0 +1,184 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass2;
+
+import net.sourceforge.cobertura.instrument.TouchPointListener;
+import net.sourceforge.cobertura.instrument.tp.ClassMap;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Finds counters of a single method that are incremented inside loops (see {@link FindLoopCountersClassVisitor}).</p>
+ * <p/>
+ * <p>The adapter is both: the {@link TouchPointListener} of {@link net.sourceforge.cobertura.instrument.FindTouchPointsMethodAdapter}
+ * (to know where the counters are incremented) and the next {@link MethodVisitor} in the chain (to know where the loops
+ * start and end). A loop starts at the destination label of a backward edge, and ends at the instruction
+ * of the backward edge.</p>
+ */
+public class FindLoopCountersMethodAdapter extends MethodVisitor
+		implements
+			TouchPointListener {
+	private final ClassMap classMap;
+
+	/**
+	 * Name and descriptor of the method, or null if counters of the method should not be registered.
+	 */
+	private final String methodNameAndDesc;
+
+	/**
+	 * Labels that start a loop, with number of backward edges pointing to them.
+	 */
+	private final Map<Label, Integer> loopStartLabels;
+
+	private final boolean edgeProbes;
+
+	private final Set<Label> visitedLabels = new HashSet<Label>();
+
+	/**
+	 * Number of loops the current instruction is part of.
+	 */
+	private int openLoops = 0;
+
+	public FindLoopCountersMethodAdapter(ClassMap classMap,
+			String methodNameAndDesc, Map<Label, Integer> loopStartLabels,
+			boolean edgeProbes) {
+		super(Opcodes.ASM5);
+		this.classMap = classMap;
+		this.methodNameAndDesc = methodNameAndDesc;
+		this.loopStartLabels = loopStartLabels;
+		this.edgeProbes = edgeProbes;
+	}
+
+	private void registerIfInsideLoop(Integer counterId) {
+		if (counterId != null && openLoops > 0 && methodNameAndDesc != null
+				&& !classMap.isDerivedCounter(counterId)) {
+			classMap.registerLoopCounter(methodNameAndDesc, counterId);
+		}
+	}
+
+	// ------------------- touch-points ----------------------------------
+
+	public void afterLineNumber(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor, String methodName,
+			String methodSignature) {
+		registerIfInsideLoop(classMap.getCounterIdForLineEventId(eventId));
+	}
+
+	/**
+	 * With edge probes the 'true' branch counter is incremented on the edge, so it belongs to the loop of the JUMP
+	 * (the JUMP itself is not visited yet, so the backward JUMP of the loop is still inside the loop).
+	 * Otherwise it is incremented at the destination, using the 'internal variable', and can't be kept in a variable.
+	 */
+	public void beforeJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		if (edgeProbes) {
+			registerIfInsideLoop(classMap.getCounterIdForJumpTrue(eventId));
+		}
+	}
+
+	public void afterJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		registerIfInsideLoop(classMap.getCounterIdForJumpFalse(eventId));
+	}
+
+	public void beforeSwitch(int eventId, Label def, Label[] labels,
+			int currentLine, MethodVisitor mv, String conditionType) {
+		if (edgeProbes && classMap.getCounterIdForSwitch(eventId) != null) {
+			registerIfInsideLoop(classMap.getCounterIdForSwitchDefault(eventId));
+			for (int i = 0; i < labels.length; i++) {
+				registerIfInsideLoop(classMap.getCounterIdForSwitchLabel(
+						eventId, i));
+			}
+		}
+	}
+
+	public void afterLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+		if (!edgeProbes) {
+			Map<Integer, Integer> branchTouchPoints = classMap
+					.getBranchLabelDescriptorsForLabelEvent(eventId);
+			if (branchTouchPoints != null) {
+				for (Integer counterId : branchTouchPoints.values()) {
+					registerIfInsideLoop(counterId);
+				}
+			}
+		}
+	}
+
+	public void afterMethodStart(MethodVisitor nextMethodVisitor) {
+	}
+
+	public void beforeLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+	}
+
+	public void ignoreLine(int eventId, int currentLine) {
+	}
+
+	// ------------------- loop boundaries -------------------------------
+
+	@Override
+	public void visitLabel(Label label) {
+		visitedLabels.add(label);
+		Integer backwardEdges = loopStartLabels.get(label);
+		if (backwardEdges != null) {
+			openLoops += backwardEdges;
+		}
+	}
+
+	@Override
+	public void visitJumpInsn(int opcode, Label label) {
+		closeLoop(label);
+	}
+
+	@Override
+	public void visitTableSwitchInsn(int min, int max, Label dflt,
+			Label... labels) {
+		closeLoops(dflt, labels);
+	}
+
+	@Override
+	public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+		closeLoops(dflt, labels);
+	}
+
+	private void closeLoops(Label dflt, Label[] labels) {
+		closeLoop(dflt);
+		for (Label label : labels) {
+			closeLoop(label);
+		}
+	}
+
+	private void closeLoop(Label destination) {
+		if (visitedLabels.contains(destination)) {
+			openLoops--;
+		}
+	}
+}
@@ -25,14 +25,17 @@
 
 package net.sourceforge.cobertura.instrument.pass3;
 
+import net.sourceforge.cobertura.coveragedata.CoverageSwitch;
+import net.sourceforge.cobertura.coveragedata.EncodedClassMap;
 import net.sourceforge.cobertura.coveragedata.LightClassmapListener;
 import net.sourceforge.cobertura.coveragedata.TouchCollector;
+import net.sourceforge.cobertura.coveragedata.TouchFlag;
 import net.sourceforge.cobertura.instrument.tp.*;
 import org.objectweb.asm.*;
 
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Common method used by most of {@link AbstractCodeProvider} implementations.
@@ -48,10 +51,246 @@ public abstract class AbstractCodeProvider implements CodeProvider {
 	 */
 	public static final int FAKE_COUNTER_ID = 0;
 
+	/**
+	 * Index of variable that keeps counters in currently instrumented method (see {@link #setCountersVariableIndex(int)}),
+	 * -1 if the counters are read from the field.
+	 */
+	private int countersVariableIndex = -1;
+
+	/**
+	 * True if any method of the class keeps the counters in a local variable.
+	 */
+	private boolean countersCachedInVariables = false;
+
+	/**
+	 * Version of the class file being instrumented (see {@link #setClassVersion(int)}).
+	 */
+	private int classVersion = Opcodes.V1_5;
+
+	/**
+	 * See {@link #setTrackTouchedClasses(boolean)}
+	 */
+	private boolean trackTouchedClasses = false;
+
+	/**
+	 * Variables keeping counters of currently instrumented method (see {@link #setHoistedCounters(Map)}).
+	 */
+	private Map<Integer, Integer> hoistedCounters = Collections.emptyMap();
+
+	/**
+	 * See {@link #setKillSwitch(boolean)}
+	 */
+	private boolean killSwitch = false;
+
 	public AbstractCodeProvider() {
 		super();
 	}
 
+	public void setTrackTouchedClasses(boolean trackTouchedClasses) {
+		this.trackTouchedClasses = trackTouchedClasses;
+	}
+
+	public void setHoistedCounters(Map<Integer, Integer> hoistedCounters) {
+		this.hoistedCounters = hoistedCounters;
+	}
+
+	/**
+	 * If the counter is kept in a local variable of currently instrumented method (see {@link #setHoistedCounters(Map)}),
+	 * generates code that increments the variable. Should be called first by every implementation of
+	 * {@link #generateCodeThatIncrementsCoberturaCounter(MethodVisitor, Integer, String)}.
+	 *
+	 * @return true if the code has been generated
+	 */
+	protected boolean generateCodeThatIncrementsHoistedCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId) {
+		Integer variableIndex = hoistedCounters.get(counterId);
+		if (variableIndex == null) {
+			return false;
+		}
+		nextMethodVisitor.visitIincInsn(variableIndex, 1);
+		return true;
+	}
+
+	/**
+	 * <pre>
+	 * if (variable != 0) {
+	 *   cobertura_counters[counterId] += variable;
+	 *   variable = 0;
+	 * }
+	 * ...for every hoisted counter
+	 * </pre>
+	 */
+	public void generateCodeThatFlushesHoistedCounters(
+			MethodVisitor nextMethodVisitor, String className) {
+		for (Map.Entry<Integer, Integer> hoisted : hoistedCounters.entrySet()) {
+			nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, hoisted.getValue());
+			Label notTouched = new Label();
+			nextMethodVisitor.visitJumpInsn(Opcodes.IFEQ, notTouched);
+			generateCodeThatAddsVariableToCoberturaCounter(nextMethodVisitor,
+					hoisted.getKey(), hoisted.getValue(), className);
+			nextMethodVisitor.visitInsn(Opcodes.ICONST_0);
+			nextMethodVisitor.visitVarInsn(Opcodes.ISTORE, hoisted.getValue());
+			nextMethodVisitor.visitLabel(notTouched);
+		}
+	}
+
+	/**
+	 * Generates code that adds value of the (int) variable to the counter. The counters have to be loaded by
+	 * {@link #generateCodeThatLoadsCountersFromField(MethodVisitor, String)}, as the code is also used in
+	 * exception handlers, where variables keeping the counters might be not initialized yet.
+	 *
+	 * @param nextMethodVisitor - {@link MethodVisitor} that is listener of code-generation events
+	 * @param counterId         - counterId of the counter to increment
+	 * @param variableIndex     - index of the variable keeping the value to add
+	 * @param className         - internal name (asm) of class being instrumented
+	 */
+	protected abstract void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className);
+
+	/**
+	 * Like {@link #generateCodeThatLoadsCounters(MethodVisitor, String)}, but always reads the
+	 * {@link #COBERTURA_COUNTERS_FIELD_NAME} field.
+	 */
+	protected void generateCodeThatLoadsCountersFromField(
+			MethodVisitor nextMethodVisitor, String className) {
+		if (trackTouchedClasses) {
+			generateCodeThatMarksClassTouched(nextMethodVisitor, className);
+		}
+		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, getCountersFieldType());
+	}
+
+	public void setKillSwitch(boolean killSwitch) {
+		this.killSwitch = killSwitch;
+	}
+
+	/**
+	 * <pre>
+	 * if (CoverageSwitch.enabled) {
+	 *   ...probe...
+	 * }
+	 * </pre>
+	 * While the switch doesn't change, one of the branches is never taken, so JIT compiles it as an uncommon trap:
+	 * when coverage is turned off, only a read of the switch and a not-taken jump stay in the compiled code.
+	 */
+	public Label generateCodeThatSkipsProbeIfCoverageDisabled(
+			MethodVisitor nextMethodVisitor) {
+		Label afterProbe = new Label();
+		if (!killSwitch) {
+			return afterProbe;
+		}
+		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC,
+				COVERAGE_SWITCH_INTERNALNAME, "enabled", "Z");
+		nextMethodVisitor.visitJumpInsn(Opcodes.IFEQ, afterProbe);
+		return afterProbe;
+	}
+
+	public void setClassVersion(int classVersion) {
+		this.classVersion = classVersion;
+	}
+
+	public void setCountersVariableIndex(int countersVariableIndex) {
+		this.countersVariableIndex = countersVariableIndex;
+		if (countersVariableIndex >= 0) {
+			countersCachedInVariables = true;
+		}
+	}
+
+	/**
+	 * @return true if references to counters are kept by local variables of instrumented methods, so
+	 *         the counters object must not be replaced by {@link #COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME}.
+	 */
+	protected boolean isCountersCachedInVariables() {
+		return countersCachedInVariables;
+	}
+
+	public void generateCodeThatLoadsCountersIntoVariable(
+			MethodVisitor nextMethodVisitor, String className) {
+		if (countersVariableIndex >= 0) {
+			nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
+					COBERTURA_COUNTERS_FIELD_NAME, getCountersFieldType());
+			nextMethodVisitor.visitVarInsn(Opcodes.ASTORE,
+					countersVariableIndex);
+		}
+	}
+
+	/**
+	 * Generates body of {@link #COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME} that doesn't replace the counters array
+	 * (as it might be kept in local variables of running methods), but copies and clears it in place:
+	 * <pre>
+	 * int[] res = cobertura_counters.clone();
+	 * Arrays.fill(cobertura_counters, 0);
+	 * return res;
+	 * </pre>
+	 * Increments done between the copy and the clear are lost, exactly as when the array is replaced.
+	 *
+	 * @param mv             - {@link MethodVisitor} of the (already started) method
+	 * @param className      - internal name (asm) of class being instrumented
+	 * @param arrayType      - type descriptor of the counters array (primitive array)
+	 * @param fillDescriptor - descriptor of {@link java.util.Arrays}.fill(array, value) method for the array type
+	 */
+	protected void generateCodeThatCopiesAndClearsCounters(MethodVisitor mv,
+			String className, String arrayType, String fillDescriptor) {
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, arrayType);
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, arrayType, "clone",
+				"()Ljava/lang/Object;");
+		mv.visitTypeInsn(Opcodes.CHECKCAST, arrayType);
+		mv.visitInsn(Opcodes.SWAP);
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill",
+				fillDescriptor);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);//will be recalculated by writer
+		mv.visitEnd();
+	}
+
+	/**
+	 * Pushes counters on the stack. Reads the variable set by {@link #setCountersVariableIndex(int)} if there is any,
+	 * or the {@link #COBERTURA_COUNTERS_FIELD_NAME} field otherwise.
+	 * <p/>
+	 * All the providers load the counters just before they are incremented, so this is also the place where
+	 * the class is marked touched (if touched classes are tracked).
+	 *
+	 * @param nextMethodVisitor - {@link MethodVisitor} that is listener of code-generation events
+	 * @param className         - internal name (asm) of class being instrumented
+	 */
+	protected void generateCodeThatLoadsCounters(
+			MethodVisitor nextMethodVisitor, String className) {
+		if (countersVariableIndex < 0) {
+			generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+			return;
+		}
+		if (trackTouchedClasses) {
+			generateCodeThatMarksClassTouched(nextMethodVisitor, className);
+		}
+		nextMethodVisitor.visitVarInsn(Opcodes.ALOAD, countersVariableIndex);
+	}
+
+	/**
+	 * <pre>
+	 * if (!__cobertura_touch_flag.touched) {
+	 *   __cobertura_touch_flag.markTouched();
+	 * }
+	 * </pre>
+	 */
+	private void generateCodeThatMarksClassTouched(MethodVisitor mv,
+			String className) {
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_TOUCH_FLAG_FIELD_NAME, TOUCH_FLAG_TYPE);
+		mv.visitFieldInsn(Opcodes.GETFIELD, TOUCH_FLAG_INTERNALNAME,
+				"touched", "Z");
+		Label alreadyTouched = new Label();
+		mv.visitJumpInsn(Opcodes.IFNE, alreadyTouched);
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_TOUCH_FLAG_FIELD_NAME, TOUCH_FLAG_TYPE);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, TOUCH_FLAG_INTERNALNAME,
+				"markTouched", "()V");
+		mv.visitLabel(alreadyTouched);
+	}
+
 	public void generateCodeThatSetsJumpCounterIdVariable(
 			MethodVisitor nextMethodVisitor, int new_value,
 			int lastJumpIdVariableIndex) {
@@ -87,144 +326,169 @@ public abstract class AbstractCodeProvider implements CodeProvider {
 	 * <p/>
 	 * The code injected by this implementation just registers the class using {@link TouchCollector#registerClass(Class)}. This way, during the
 	 * execution, touch collector knows that is responsible to ask the class after execution about a current status of the counters.
+	 * <p/>
+	 * The class passes its own class literal, so the collector doesn't need to look for the class. Class files older than 1.5 can't
+	 * load class literals by LDC, so they use Class.forName(name) - called from the class itself it resolves the name
+	 * in the class loader of the class.
 	 */
 	protected void generateRegisterClass(MethodVisitor mv, String className) {
-		mv.visitLdcInsn(className);
-		mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type
-				.getInternalName(TouchCollector.class), "registerClass",
-				"(Ljava/lang/String;)V");
+		generateCodeThatLoadsClass(mv, className);
+		if (trackTouchedClasses) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type
+					.getInternalName(TouchCollector.class),
+					"registerClassTrackingTouches", "(Ljava/lang/Class;)"
+							+ TOUCH_FLAG_TYPE);
+			mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+					COBERTURA_TOUCH_FLAG_FIELD_NAME, TOUCH_FLAG_TYPE);
+		} else {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type
+					.getInternalName(TouchCollector.class), "registerClass",
+					"(Ljava/lang/Class;)V");
+		}
 	}
 
+	/**
+	 * Pushes the instrumented class (java.lang.Class) on the stack - see {@link #generateRegisterClass(MethodVisitor, String)}.
+	 */
+	protected void generateCodeThatLoadsClass(MethodVisitor mv,
+			String className) {
+		if ((classVersion & 0xFFFF) >= Opcodes.V1_5) {
+			mv.visitLdcInsn(Type.getObjectType(className));
+		} else {
+			mv.visitLdcInsn(className.replace('/', '.'));
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Class",
+					"forName", "(Ljava/lang/String;)Ljava/lang/Class;");
+		}
+	}
+
+	static final String COVERAGE_SWITCH_INTERNALNAME = Type
+			.getInternalName(CoverageSwitch.class);
+
+	static final String TOUCH_FLAG_INTERNALNAME = Type
+			.getInternalName(TouchFlag.class);
+
+	static final String TOUCH_FLAG_TYPE = Type.getDescriptor(TouchFlag.class);
+
 	final String CLASSMAP_LISTENER_INTERNALNAME = Type
 			.getInternalName(LightClassmapListener.class);
 
 	/**
 	 * {@inheritDoc}<br/><br/>
 	 * <p/>
-	 * Generates method (named  {@link #COBERTURA_CLASSMAP_METHOD_NAME}) with such a signature:
-	 * __cobertura_classmap( {@link LightClassmapListener} listener).</br>
-	 * <p/>
-	 * The method informs the listener about all lines, jumps and switches found, and about all counters tracking
-	 * the constructions.
+	 * The class-map is encoded into a string constant (see {@link EncodedClassMap}) returned by the generated method
+	 * {@link #COBERTURA_CLASSMAP_DATA_METHOD_NAME}. The method {@link #COBERTURA_CLASSMAP_METHOD_NAME} with such a signature:
+	 * __cobertura_classmap( {@link LightClassmapListener} listener) only decodes the constant and informs the listener
+	 * about all lines, jumps and switches found, and about all counters tracking the constructions. Counters that are
+	 * derived from other counters ({@link ClassMap#getDerivedCounters()}) are reported first.
 	 */
 	public void generateCoberturaClassMapMethod(ClassVisitor cv,
 			ClassMap classMap) {
-
-		LinkedList<TouchPointDescriptor> touchPointDescriptors = new LinkedList<TouchPointDescriptor>(
-				classMap.getTouchPointsInLineOrder());
-		int parts = 0;
-		for (int j = 0; touchPointDescriptors.size() > 0; j++) {
-			List<TouchPointDescriptor> bufor = new LinkedList<TouchPointDescriptor>();
-			for (int i = 0; i < 1000 && touchPointDescriptors.size() > 0; i++) {
-				bufor.add(touchPointDescriptors.removeFirst());
-			}
-			classMapContent(cv, j, bufor);
-			parts++;
-		}
+		generateCoberturaClassMapDataMethod(cv, encodeClassMap(classMap));
 
 		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
 				| Opcodes.ACC_STATIC, COBERTURA_CLASSMAP_METHOD_NAME, "("
 				+ Type.getType(LightClassmapListener.class).toString() + ")V",
 				null, null);
 		mv.visitCode();
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, classMap.getClassName(),
+				COBERTURA_CLASSMAP_DATA_METHOD_NAME, "()Ljava/lang/String;");
+		generateCodeThatLoadsClass(mv, classMap.getClassName());
 		mv.visitVarInsn(Opcodes.ALOAD, 0);
-
-		mv.visitInsn(Opcodes.DUP);
-		mv.visitLdcInsn(classMap.getClassName());
-		mv.visitMethodInsn(Opcodes.INVOKEINTERFACE,
-				CLASSMAP_LISTENER_INTERNALNAME, "setClazz",
-				"(Ljava/lang/String;)V");
-
-		if (classMap.getSource() != null) {
-			mv.visitInsn(Opcodes.DUP);
-			mv.visitLdcInsn(classMap.getSource());
-			mv.visitMethodInsn(Opcodes.INVOKEINTERFACE,
-					CLASSMAP_LISTENER_INTERNALNAME, "setSource",
-					"(Ljava/lang/String;)V");
-		}
-
-		for (int i = 0; i < parts; i++) {
-			mv.visitInsn(Opcodes.DUP);
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, classMap.getClassName(),
-					COBERTURA_CLASSMAP_METHOD_NAME + "_" + i, "("
-							+ Type.getType(LightClassmapListener.class)
-									.toString() + ")V");
-		}
-
-		mv.visitInsn(Opcodes.POP);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, ENCODED_CLASSMAP_INTERNALNAME,
+				"decode", "(Ljava/lang/String;Ljava/lang/Class;"
+						+ Type.getType(LightClassmapListener.class).toString()
+						+ ")V");
 		mv.visitInsn(Opcodes.RETURN);
 		mv.visitMaxs(0, 0);//will be recalculated by writer
 		mv.visitEnd();
 	}
 
-	enum Abcd {
-		A, B, C;
-	}
+	static final String ENCODED_CLASSMAP_INTERNALNAME = Type
+			.getInternalName(EncodedClassMap.class);
 
-	private void classMapContent(ClassVisitor cv, int nr,
-			List<TouchPointDescriptor> touchPointDescriptors) {
-		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
-				| Opcodes.ACC_STATIC,
-				COBERTURA_CLASSMAP_METHOD_NAME + "_" + nr, "("
-						+ Type.getType(LightClassmapListener.class).toString()
-						+ ")V", null, null);
-		mv.visitCode();
-		mv.visitVarInsn(Opcodes.ALOAD, 0);
-		for (TouchPointDescriptor tpd : touchPointDescriptors) {
-			mv.visitInsn(Opcodes.DUP);
-			mv.visitLdcInsn(tpd.getLineNumber());
+	/**
+	 * Maximal number of characters in a single string constant. A constant can't be longer than 65535 bytes
+	 * in modified UTF-8, and a character takes up to 3 bytes.
+	 */
+	static final int MAX_CLASSMAP_CONSTANT_LENGTH = 65535 / 3;
+
+	public static String encodeClassMap(ClassMap classMap) {
+		EncodedClassMap.Encoder encoder = new EncodedClassMap.Encoder(classMap
+				.getClassName());
+		if (classMap.getSource() != null) {
+			encoder.setSource(classMap.getSource());
+		}
+		for (DerivedCounterDescriptor dcd : classMap.getDerivedCounters()) {
+			encoder.putDerivedCounter(dcd.getCounterId(), dcd
+					.getSourceCounterId(), dcd.getSubtractedCounterIds());
+		}
+		for (TouchPointDescriptor tpd : classMap.getTouchPointsInLineOrder()) {
 			if (tpd instanceof LineTouchPointDescriptor) {
-				mv
-						.visitLdcInsn(((LineTouchPointDescriptor) tpd)
-								.getCounterId());
-				mv.visitLdcInsn(((LineTouchPointDescriptor) tpd)
-						.getMethodName());
-				mv.visitLdcInsn(((LineTouchPointDescriptor) tpd)
+				LineTouchPointDescriptor ltpd = (LineTouchPointDescriptor) tpd;
+				encoder.putLineTouchPoint(tpd.getLineNumber(), ltpd
+						.getCounterId(), ltpd.getMethodName(), ltpd
 						.getMethodSignature());
-				mv.visitMethodInsn(Opcodes.INVOKEINTERFACE,
-						CLASSMAP_LISTENER_INTERNALNAME, "putLineTouchPoint",
-						"(IILjava/lang/String;Ljava/lang/String;)V");
 			} else if (tpd instanceof JumpTouchPointDescriptor) {
-				mv.visitLdcInsn(((JumpTouchPointDescriptor) tpd)
-						.getCounterIdForTrue());
-				mv.visitLdcInsn(((JumpTouchPointDescriptor) tpd)
-						.getCounterIdForFalse());
-				mv.visitMethodInsn(Opcodes.INVOKEINTERFACE,
-						CLASSMAP_LISTENER_INTERNALNAME, "putJumpTouchPoint",
-						"(III)V");
+				JumpTouchPointDescriptor jtpd = (JumpTouchPointDescriptor) tpd;
+				encoder.putJumpTouchPoint(tpd.getLineNumber(), jtpd
+						.getCounterIdForTrue(), jtpd.getCounterIdForFalse());
 			} else if (tpd instanceof SwitchTouchPointDescriptor) {
 				SwitchTouchPointDescriptor stpd = (SwitchTouchPointDescriptor) tpd;
-				final String enum_sign = ((SwitchTouchPointDescriptor) tpd)
-						.getEnumType();
-				if (enum_sign == null) {
-					mv.visitLdcInsn(Integer.MAX_VALUE);
-				} else {
-					mv.visitMethodInsn(Opcodes.INVOKESTATIC, enum_sign,
-							"values", "()[L" + enum_sign + ";");
-					mv.visitInsn(Opcodes.ARRAYLENGTH);
-				}
 				Collection<Integer> ci = stpd.getCountersForLabels();
-				mv.visitLdcInsn(ci.size());//Size of a new table
-				mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+				int[] counterIds = new int[ci.size()];
 				int i = 0;
 				for (Integer counterId : ci) {
-					mv.visitInsn(Opcodes.DUP); //First for addition of items, second ad putSwitchTouchPoint parameter (or next loop iteration)
-					mv.visitLdcInsn(i);
-					mv.visitLdcInsn(counterId);
-					mv.visitInsn(Opcodes.IASTORE);
-					i++;
+					counterIds[i++] = counterId;
 				}
-				mv.visitMethodInsn(Opcodes.INVOKEINTERFACE,
-						CLASSMAP_LISTENER_INTERNALNAME, "putSwitchTouchPoint",
-						"(II[I)V");
+				encoder.putSwitchTouchPoint(tpd.getLineNumber(), stpd
+						.getEnumType(), counterIds);
 			}
 		}
-		mv.visitInsn(Opcodes.POP);
-		mv.visitInsn(Opcodes.RETURN);
+		return encoder.encode();
+	}
+
+	/**
+	 * <pre>
+	 * static String __cobertura_classmap_data() {
+	 *   return "...";
+	 * }
+	 * </pre>
+	 * Long class-maps are split into a few constants concatenated by a {@link StringBuilder}.
+	 */
+	private void generateCoberturaClassMapDataMethod(ClassVisitor cv,
+			String encodedClassMap) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC, COBERTURA_CLASSMAP_DATA_METHOD_NAME,
+				"()Ljava/lang/String;", null, null);
+		mv.visitCode();
+		if (encodedClassMap.length() <= MAX_CLASSMAP_CONSTANT_LENGTH) {
+			mv.visitLdcInsn(encodedClassMap);
+		} else {
+			mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL,
+					"java/lang/StringBuilder", "<init>", "()V");
+			for (int i = 0; i < encodedClassMap.length(); i += MAX_CLASSMAP_CONSTANT_LENGTH) {
+				mv.visitLdcInsn(encodedClassMap.substring(i, Math.min(i
+						+ MAX_CLASSMAP_CONSTANT_LENGTH, encodedClassMap
+						.length())));
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+						"java/lang/StringBuilder", "append",
+						"(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+			}
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+					"java/lang/StringBuilder", "toString",
+					"()Ljava/lang/String;");
+		}
+		mv.visitInsn(Opcodes.ARETURN);
 		mv.visitMaxs(0, 0);//will be recalculated by writer
 		mv.visitEnd();
 	}
 
+	enum Abcd {
+		A, B, C;
+	}
+
 	/**
 	 * Generates code that is injected into static constructor of an instrumented class.
 	 * <p/>
@@ -244,6 +508,13 @@ public abstract class AbstractCodeProvider implements CodeProvider {
 
 	public void generateCoberturaInitMethod(ClassVisitor cv, String className,
 			int countersCnt) {
+		if (trackTouchedClasses) {
+			FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC
+					| Opcodes.ACC_PUBLIC | Opcodes.ACC_TRANSIENT,
+					COBERTURA_TOUCH_FLAG_FIELD_NAME, TOUCH_FLAG_TYPE, null,
+					null);
+			fv.visitEnd();
+		}
 		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
 				| Opcodes.ACC_STATIC, COBERTURA_INIT_METHOD_NAME, "()V", null,
 				null);
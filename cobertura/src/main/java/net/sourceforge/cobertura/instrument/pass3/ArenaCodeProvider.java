@@ -0,0 +1,197 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import net.sourceforge.cobertura.coveragedata.CounterArena;
+import org.objectweb.asm.*;
+
+/**
+ * <p>The {@link CodeProvider} keeps counters of the class in a slice of a global {@link CounterArena} instead of
+ * an int[] of its own.</p>
+ * <p/>
+ * <p>Two fields are generated: {@link #COBERTURA_COUNTERS_FIELD_NAME} - the int[] chunk of the arena that contains
+ * the slice, and {@link #COBERTURA_COUNTERS_BASE_FIELD_NAME} - offset of the slice in the chunk. Every touch is:
+ * __cobertura_counters[__cobertura_counters_base + counterId]++. Both fields are final, so the JIT can treat
+ * them as constants.</p>
+ * <p/>
+ * <p>The counters are incremented in the same not-atomic way as by {@link FastArrayCodeProvider}. There are only
+ * a few arrays for the whole application, and {@link net.sourceforge.cobertura.coveragedata.TouchCollector}
+ * collects them by one bulk copy of the arena instead of calling {@link #COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME}
+ * of every class.</p>
+ */
+public class ArenaCodeProvider extends AbstractCodeProvider
+		implements
+			CodeProvider {
+
+	/**
+	 * Name of the field that keeps offset of the counters of the class in {@link #COBERTURA_COUNTERS_FIELD_NAME}.
+	 */
+	public static final String COBERTURA_COUNTERS_BASE_FIELD_NAME = "__cobertura_counters_base";
+
+	/**
+	 * Type of the generated field, that is used to store counters
+	 */
+	static final String COBERTURA_COUNTERS_FIELD_TYPE = "[I";
+
+	static final String COUNTER_ARENA_INTERNALNAME = Type
+			.getInternalName(CounterArena.class);
+
+	/**
+	 * Number of counters of the instrumented class (known since {@link #generateCINITmethod(MethodVisitor, String, int)}).
+	 */
+	private int countersCnt;
+
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
+	public void generateCountersField(ClassVisitor cv) {
+		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE,
+				null, null);
+		fv.visitEnd();
+		fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_COUNTERS_BASE_FIELD_NAME, "I", null, null);
+		fv.visitEnd();
+	}
+
+	/**
+	 * <pre>
+	 * if (cobertura_counters == null) {
+	 *   int slice = CounterArena.register(ThisClass.class, counters_cnt);
+	 *   cobertura_counters = CounterArena.getChunk(slice);
+	 *   cobertura_counters_base = CounterArena.getOffset(slice);
+	 *   TouchCollector.registerClass(ThisClass.class);
+	 * }
+	 * </pre>
+	 */
+	public void generateCINITmethod(MethodVisitor mv, String className,
+			int counters_cnt) {
+		countersCnt = counters_cnt;
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		Label l1 = new Label();
+		mv.visitJumpInsn(Opcodes.IFNONNULL, l1);
+		generateCodeThatLoadsClass(mv, className);
+		mv.visitLdcInsn(counters_cnt);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, COUNTER_ARENA_INTERNALNAME,
+				"register", "(Ljava/lang/Class;I)I");
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, COUNTER_ARENA_INTERNALNAME,
+				"getChunk", "(I)[I");
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, COUNTER_ARENA_INTERNALNAME,
+				"getOffset", "(I)I");
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_BASE_FIELD_NAME, "I");
+		generateRegisterClass(mv, className);
+		mv.visitLabel(l1);
+	}
+
+	/**
+	 * Increments the counter which index is on the top of the stack, above the counters chunk.
+	 */
+	private void generateCodeThatIncrementsCounterAtIndex(
+			MethodVisitor nextMethodVisitor, String className) {
+		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_BASE_FIELD_NAME, "I");
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitLdcInsn(1);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
+		/*cobertura_counters[counterId + cobertura_counters_base]++;*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitLdcInsn((int) counterId);
+		generateCodeThatIncrementsCounterAtIndex(nextMethodVisitor, className);
+	}
+
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*cobertura_counters[counterId + cobertura_counters_base] += value('variableIndex');*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_BASE_FIELD_NAME, "I");
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, variableIndex);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
+			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
+			String className) {
+		/*cobertura_counters[value('lastJumpIdVariableIndex') + cobertura_counters_base]++;*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
+		generateCodeThatIncrementsCounterAtIndex(nextMethodVisitor, className);
+	}
+
+	/**
+	 * Used only when the collector can't find the class in the snapshot of the arena.
+	 * <pre>
+	 * int[] __cobertura_get_and_reset_counters() {
+	 *   return CounterArena.getAndReset(cobertura_counters, cobertura_counters_base, counters_cnt);
+	 * }
+	 * </pre>
+	 */
+	public void generateCoberturaGetAndResetCountersMethod(ClassVisitor cv,
+			String className) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC,
+				COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME, "()[I", null,
+				null);
+		mv.visitCode();
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_BASE_FIELD_NAME, "I");
+		mv.visitLdcInsn(countersCnt);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, COUNTER_ARENA_INTERNALNAME,
+				"getAndReset", "([III)[I");
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);//will be recalculated by writer
+		mv.visitEnd();
+	}
+
+}
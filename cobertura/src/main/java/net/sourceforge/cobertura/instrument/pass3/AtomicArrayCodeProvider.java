@@ -45,6 +45,10 @@ public class AtomicArrayCodeProvider extends AbstractCodeProvider
 	static final String COBERTURA_COUNTERS_FIELD_TYPE = Type.getType(
 			AtomicIntegerArray.class).toString();
 
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
 	public void generateCountersField(ClassVisitor cv) {
 		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
 				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
@@ -74,10 +78,13 @@ public class AtomicArrayCodeProvider extends AbstractCodeProvider
 
 	public void generateCodeThatIncrementsCoberturaCounter(
 			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
 		/*cobertura_counters.incrementAndGet(i);*/
 		/*cobertura_counters.*/
-		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
 		/*index:*/
 		nextMethodVisitor.visitLdcInsn((int) counterId);
 		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type
@@ -86,13 +93,25 @@ public class AtomicArrayCodeProvider extends AbstractCodeProvider
 		nextMethodVisitor.visitInsn(Opcodes.POP);
 	}
 
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*cobertura_counters.addAndGet(counterId, value('variableIndex'));*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, variableIndex);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type
+				.getInternalName(AtomicIntegerArray.class), "addAndGet",
+				"(II)I");
+		nextMethodVisitor.visitInsn(Opcodes.POP);
+	}
+
 	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
 			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
 			String className) {
 		/*cobertura_counters.incrementAndGet(value('lastJumpIdVariableIndex'));*/
 		/*cobertura_counters.*/
-		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
 		/*index:*/
 		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
 		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type
@@ -0,0 +1,149 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import org.objectweb.asm.*;
+
+/**
+ * <p>The {@link CodeProvider} uses boolean[] to store 'hit' flags instead of counters.</p>
+ * <p/>
+ * <p>Every touch is a single store: __cobertura_counters[counter_id] = true. There is no read-modify-write
+ * sequence, so the probe is cheaper than in {@link FastArrayCodeProvider} and there are no lost updates:
+ * concurrent stores of the same value cannot override each other.</p>
+ * <p/>
+ * <p>The price is that we don't know how many times a line has been hit. Each counter is reported as 0 or 1 hit
+ * per drain of the counters, so the measured coverage is the same as with other providers, but hit counts
+ * are not.</p>
+ * <p/>
+ * <p>{@link #COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME} generated by this provider returns boolean[]
+ * (not int[]), and the collector is responsible to convert it into 0/1 hits.</p>
+ */
+public class BooleanArrayCodeProvider extends AbstractCodeProvider
+		implements
+			CodeProvider {
+
+	/**
+	 * Type of the generated field, that is used to store counters
+	 */
+	static final String COBERTURA_COUNTERS_FIELD_TYPE = "[Z";
+
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
+			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
+			String className) {
+		/*cobertura_counters[value('lastJumpIdVariableIndex')]=true;*/
+		/*cobertura_counters.*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
+		nextMethodVisitor.visitInsn(Opcodes.ICONST_1);
+		nextMethodVisitor.visitInsn(Opcodes.BASTORE);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
+		/*cobertura_counters[counterId]=true;*/
+		/*cobertura_counters.*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitLdcInsn((int) counterId);
+		nextMethodVisitor.visitInsn(Opcodes.ICONST_1);
+		nextMethodVisitor.visitInsn(Opcodes.BASTORE);
+	}
+
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*cobertura_counters[counterId]=true; (only called if the variable is not 0)*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitInsn(Opcodes.ICONST_1);
+		nextMethodVisitor.visitInsn(Opcodes.BASTORE);
+	}
+
+	public void generateCountersField(ClassVisitor cv) {
+		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE,
+				null, null);
+		fv.visitEnd();
+	}
+
+	public void generateCINITmethod(MethodVisitor mv, String className,
+			int counters_cnt) {
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		Label l1 = new Label();
+		mv.visitJumpInsn(Opcodes.IFNONNULL, l1);
+		mv.visitLdcInsn(counters_cnt);
+		mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateRegisterClass(mv, className);
+		mv.visitLabel(l1);
+	}
+
+	/**
+	 * <pre>
+	 * boolean[] __cobertura_get_and_reset_counters() {
+	 *   boolean[] res = cobertura_counters;
+	 *   cobertura_counters = new boolean[cobertura_counters.length];
+	 *   return res;
+	 * }
+	 * </pre>
+	 */
+	public void generateCoberturaGetAndResetCountersMethod(ClassVisitor cv,
+			String className) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC,
+				COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME, "()[Z", null,
+				null);
+		mv.visitCode();
+		if (isCountersCachedInVariables()) {
+			generateCodeThatCopiesAndClearsCounters(mv, className, "[Z", "([ZZ)V");
+			return;
+		}
+		/*cobertura_counters.*/
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitVarInsn(Opcodes.ASTORE, 0);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitInsn(Opcodes.ARRAYLENGTH);
+		mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);//will be recalculated by writer
+		mv.visitEnd();
+	}
+
+}
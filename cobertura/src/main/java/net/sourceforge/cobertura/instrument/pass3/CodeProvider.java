@@ -27,8 +27,11 @@ package net.sourceforge.cobertura.instrument.pass3;
 
 import net.sourceforge.cobertura.instrument.tp.ClassMap;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
+import java.util.Map;
+
 /**
  * Universal API for all methods that are responsible for generating any JASM code that have
  * to be injected into real classes.
@@ -50,6 +53,12 @@ public interface CodeProvider {
 	 */
 	public static final String COBERTURA_CLASSMAP_METHOD_NAME = "__cobertura_classmap";
 
+	/**
+	 * Name of a method that will to be injected into instrumented class that returns the class-map
+	 * encoded by {@link net.sourceforge.cobertura.coveragedata.EncodedClassMap}.
+	 */
+	public static final String COBERTURA_CLASSMAP_DATA_METHOD_NAME = "__cobertura_classmap_data";
+
 	/**
 	 * Name of method that will initialize internal counters variable.
 	 */
@@ -63,6 +72,12 @@ public interface CodeProvider {
 	 */
 	public static final String COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME = "__cobertura_get_and_reset_counters";
 
+	/**
+	 * Name of the field that keeps {@link net.sourceforge.cobertura.coveragedata.TouchFlag} of the class
+	 * (generated only if touched classes are tracked, see {@link #setTrackTouchedClasses(boolean)}).
+	 */
+	public static final String COBERTURA_TOUCH_FLAG_FIELD_NAME = "__cobertura_touch_flag";
+
 	/**
 	 * Generates fields injected into  instrumented class  by cobertura.
 	 *
@@ -158,4 +173,84 @@ public interface CodeProvider {
 
 	public abstract void generateCallCoberturaInitMethod(MethodVisitor mv,
 			String className);
+
+	/**
+	 * @return type descriptor of the field generated by {@link #generateCountersField(ClassVisitor)}
+	 */
+	public String getCountersFieldType();
+
+	/**
+	 * Sets version of the class file being instrumented. Some constructions (like class literals) can be used
+	 * only in class files of specific versions.
+	 *
+	 * @param classVersion - version passed to {@link org.objectweb.asm.ClassVisitor#visit}
+	 */
+	public void setClassVersion(int classVersion);
+
+	/**
+	 * Setting to true causes the class to register with {@link net.sourceforge.cobertura.coveragedata.TouchCollector#registerClassTrackingTouches(Class)}
+	 * and to mark its {@link net.sourceforge.cobertura.coveragedata.TouchFlag} at touch-points, so the collector
+	 * can skip the class if it hasn't been touched since the previous collection.
+	 */
+	public void setTrackTouchedClasses(boolean trackTouchedClasses);
+
+	/**
+	 * Sets local variables of currently instrumented method that keep counters incremented inside loops
+	 * (see {@link HoistLoopCountersMethodAdapter}). Touches of such counters just increment the variables.
+	 *
+	 * @param hoistedCounters - map of counterId into index of the (int) variable; empty if the counters of the method are not kept in variables
+	 */
+	public void setHoistedCounters(Map<Integer, Integer> hoistedCounters);
+
+	/**
+	 * Generates code that adds values of all the variables set by {@link #setHoistedCounters(Map)} to the counters
+	 * and sets the variables to 0, so the code can be executed more times in a method.
+	 * The stack is not changed by the code.
+	 *
+	 * @param nextMethodVisitor - {@link MethodVisitor} that is listener of code-generation events
+	 * @param className         - internal name (asm) of class being instrumented
+	 */
+	public void generateCodeThatFlushesHoistedCounters(
+			MethodVisitor nextMethodVisitor, String className);
+
+	/**
+	 * Setting to true causes {@link #generateCodeThatSkipsProbeIfCoverageDisabled(MethodVisitor)} to guard probes
+	 * by {@link net.sourceforge.cobertura.coveragedata.CoverageSwitch}.
+	 */
+	public void setKillSwitch(boolean killSwitch);
+
+	/**
+	 * Generates code that jumps over the probe that follows it if coverage is turned off at runtime
+	 * (only if the kill switch is enabled, see {@link #setKillSwitch(boolean)}).
+	 *
+	 * @param nextMethodVisitor - {@link MethodVisitor} that is listener of code-generation events
+	 *
+	 * @return label that has to be visited just after the probe
+	 */
+	public Label generateCodeThatSkipsProbeIfCoverageDisabled(
+			MethodVisitor nextMethodVisitor);
+
+	/**
+	 * Sets index of a local variable that should keep reference to counters in currently instrumented method.
+	 * <p/>
+	 * If the index is not negative, the code that increments counters uses the variable instead of reading
+	 * {@link #COBERTURA_COUNTERS_FIELD_NAME} field at every touch-point. The variable has to be set by
+	 * {@link #generateCodeThatLoadsCountersIntoVariable(MethodVisitor, String)} at the start of the method.
+	 * <p/>
+	 * Setting the index for any method of the class means that the counters object must not be replaced
+	 * by {@link #COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME} method (it has to reset counters in place instead).
+	 *
+	 * @param countersVariableIndex - index of the variable or -1 if the counters should be read from the field
+	 */
+	public void setCountersVariableIndex(int countersVariableIndex);
+
+	/**
+	 * Injects code that stores reference to counters into variable set by {@link #setCountersVariableIndex(int)}.
+	 * Does nothing if there is no such a variable.
+	 *
+	 * @param nextMethodVisitor - {@link MethodVisitor} that is listener of code-generation events
+	 * @param className         - internal name (asm) of class being instrumented
+	 */
+	public void generateCodeThatLoadsCountersIntoVariable(
+			MethodVisitor nextMethodVisitor, String className);
 }
\ No newline at end of file
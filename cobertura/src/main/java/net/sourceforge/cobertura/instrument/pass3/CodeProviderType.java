@@ -0,0 +1,128 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+/**
+ * Enumerates the {@link CodeProvider} implementations that can be used to instrument classes.
+ * <p/>
+ * The name of every type is the value accepted by the <code>--codeProvider</code> command line
+ * option (and the <code>codeProvider</code> attribute of the ant task).
+ */
+public enum CodeProviderType {
+	/**
+	 * {@link FastArrayCodeProvider} - plain int[] counters (the default).
+	 */
+	FAST_ARRAY("fast") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new FastArrayCodeProvider();
+		}
+	},
+
+	/**
+	 * {@link AtomicArrayCodeProvider} - exact hit counts, slow in multithread-environment.
+	 */
+	ATOMIC_ARRAY("atomic") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new AtomicArrayCodeProvider();
+		}
+	},
+
+	/**
+	 * {@link StripedArrayCodeProvider} - per-thread stripes of int[] counters, folded together on drain.
+	 */
+	STRIPED_ARRAY("striped") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new StripedArrayCodeProvider();
+		}
+	},
+
+	/**
+	 * {@link BooleanArrayCodeProvider} - boolean[] 'hit' flags, no hit counts (every touched counter is reported as 1 hit).
+	 */
+	BOOLEAN_ARRAY("hitOnly") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new BooleanArrayCodeProvider();
+		}
+	},
+
+	/**
+	 * {@link SampledArrayCodeProvider} - int[] counters, counts one in 'samplingRate' executions (the first one is always counted).
+	 */
+	SAMPLED_ARRAY("sampled") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new SampledArrayCodeProvider(samplingRate);
+		}
+	},
+
+	/**
+	 * {@link MappedCountersCodeProvider} - counters in a memory-mapped file, readable by other processes at any moment.
+	 */
+	MAPPED("mapped") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new MappedCountersCodeProvider();
+		}
+	},
+
+	/**
+	 * {@link ArenaCodeProvider} - int[] counters of all classes kept in one global arena, collected by a bulk copy.
+	 */
+	ARENA("arena") {
+		public CodeProvider createCodeProvider(int samplingRate) {
+			return new ArenaCodeProvider();
+		}
+	};
+
+	private final String name;
+
+	private CodeProviderType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param samplingRate - only one in samplingRate executions of a touch-point is counted, used only by
+	 *                     {@link #SAMPLED_ARRAY} (see {@link SampledArrayCodeProvider#DEFAULT_SAMPLING_RATE})
+	 *
+	 * @return new instance of the {@link CodeProvider} represented by this type.
+	 */
+	public abstract CodeProvider createCodeProvider(int samplingRate);
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * @param name - name of the type (case insensitive)
+	 *
+	 * @return the type of the given name or null if there is no such a type
+	 */
+	public static CodeProviderType getFromString(String name) {
+		for (CodeProviderType type : values()) {
+			if (type.toString().equalsIgnoreCase(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
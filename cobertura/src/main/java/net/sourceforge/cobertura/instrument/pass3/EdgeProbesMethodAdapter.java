@@ -0,0 +1,190 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Method visitor that puts counter increments directly on control-flow edges of JUMP and SWITCH instructions.</p>
+ * <p/>
+ * <p>Destination of every instrumented edge is replaced by a 'trampoline' - a small piece of code generated at the end of
+ * the method, that increments the counter of the edge and jumps to the original destination:</p>
+ * <pre>
+ *    IFEQ trampoline                      trampoline:
+ *    ...                         ==>        __cobertura_counters[counterId]++;
+ *  label:                                   GOTO label
+ * </pre>
+ * <p>The trampoline is executed only if the edge is really taken, so there is no need to remember the last visited JUMP
+ * in an internal variable and to check it at every destination label.</p>
+ * <p/>
+ * <p>The edges that should be instrumented are announced by {@link InjectEdgeProbesTouchPointListener} just before the
+ * instruction is visited ({@link #redirectNextJump(int)}, {@link #redirectNextSwitch(Integer, Integer[])}).</p>
+ */
+public class EdgeProbesMethodAdapter extends MethodVisitor {
+	private final CodeProvider codeProvider;
+	private final String className;
+
+	/**
+	 * counterId that should be incremented when the next visited JUMP is taken, or null.
+	 */
+	private Integer nextJumpCounterId;
+
+	/**
+	 * counterId of the default destination of the next visited SWITCH, or null if the next SWITCH should not be instrumented.
+	 */
+	private Integer nextSwitchDefaultCounterId;
+
+	/**
+	 * counterIds of destinations (in order of labels) of the next visited SWITCH.
+	 */
+	private Integer[] nextSwitchCounterIds;
+
+	private final List<Trampoline> trampolines = new ArrayList<Trampoline>();
+
+	public EdgeProbesMethodAdapter(MethodVisitor mv, CodeProvider codeProvider,
+			String className) {
+		super(Opcodes.ASM5, mv);
+		this.codeProvider = codeProvider;
+		this.className = className;
+	}
+
+	/**
+	 * Announces that destination of the next visited JUMP should be redirected to a trampoline incrementing given counter.
+	 */
+	public void redirectNextJump(int counterId) {
+		nextJumpCounterId = counterId;
+	}
+
+	/**
+	 * Announces that destinations of the next visited SWITCH should be redirected to trampolines incrementing given counters.
+	 *
+	 * @param defaultCounterId - counterId of the default destination
+	 * @param counterIds       - counterIds of the other destinations (in the order of labels). Null entries are not instrumented.
+	 */
+	public void redirectNextSwitch(Integer defaultCounterId,
+			Integer[] counterIds) {
+		nextSwitchDefaultCounterId = defaultCounterId;
+		nextSwitchCounterIds = counterIds;
+	}
+
+	@Override
+	public void visitJumpInsn(int opcode, Label label) {
+		if (nextJumpCounterId != null) {
+			label = createTrampoline(nextJumpCounterId, label);
+			nextJumpCounterId = null;
+		}
+		super.visitJumpInsn(opcode, label);
+	}
+
+	@Override
+	public void visitTableSwitchInsn(int min, int max, Label dflt,
+			Label... labels) {
+		if (nextSwitchCounterIds != null) {
+			Map<Label, Label> redirected = new HashMap<Label, Label>();
+			dflt = redirect(redirected, dflt, nextSwitchDefaultCounterId);
+			labels = redirect(redirected, labels);
+		}
+		super.visitTableSwitchInsn(min, max, dflt, labels);
+	}
+
+	@Override
+	public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+		if (nextSwitchCounterIds != null) {
+			Map<Label, Label> redirected = new HashMap<Label, Label>();
+			dflt = redirect(redirected, dflt, nextSwitchDefaultCounterId);
+			labels = redirect(redirected, labels);
+		}
+		super.visitLookupSwitchInsn(dflt, keys, labels);
+	}
+
+	/**
+	 * Trampolines are generated after all the code of the method, so they are never a part of any try-catch block
+	 * and never break the original fall-through flow of the method.
+	 */
+	@Override
+	public void visitMaxs(int maxStack, int maxLocals) {
+		for (Trampoline trampoline : trampolines) {
+			mv.visitLabel(trampoline.label);
+			Label afterProbe = codeProvider
+					.generateCodeThatSkipsProbeIfCoverageDisabled(mv);
+			codeProvider.generateCodeThatIncrementsCoberturaCounter(mv,
+					trampoline.counterId, className);
+			mv.visitLabel(afterProbe);
+			mv.visitJumpInsn(Opcodes.GOTO, trampoline.destination);
+		}
+		trampolines.clear();
+		super.visitMaxs(maxStack, maxLocals);
+	}
+
+	private Label[] redirect(Map<Label, Label> redirected, Label[] labels) {
+		Label[] res = new Label[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			res[i] = redirect(redirected, labels[i], nextSwitchCounterIds[i]);
+		}
+		nextSwitchDefaultCounterId = null;
+		nextSwitchCounterIds = null;
+		return res;
+	}
+
+	/**
+	 * Destinations of the same SWITCH pointing to the same label share a single trampoline (and a single counter).
+	 */
+	private Label redirect(Map<Label, Label> redirected, Label label,
+			Integer counterId) {
+		if (counterId == null) {
+			return label;
+		}
+		Label trampoline = redirected.get(label);
+		if (trampoline == null) {
+			trampoline = createTrampoline(counterId, label);
+			redirected.put(label, trampoline);
+		}
+		return trampoline;
+	}
+
+	private Label createTrampoline(int counterId, Label destination) {
+		Trampoline trampoline = new Trampoline(counterId, destination);
+		trampolines.add(trampoline);
+		return trampoline.label;
+	}
+
+	private static class Trampoline {
+		private final Label label = new Label();
+		private final int counterId;
+		private final Label destination;
+
+		private Trampoline(int counterId, Label destination) {
+			this.counterId = counterId;
+			this.destination = destination;
+		}
+	}
+}
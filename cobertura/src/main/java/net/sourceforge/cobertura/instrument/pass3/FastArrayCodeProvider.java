@@ -25,6 +25,7 @@
 
 package net.sourceforge.cobertura.instrument.pass3;
 
+import net.sourceforge.cobertura.coveragedata.DoubleBufferedCounters;
 import org.objectweb.asm.*;
 
 /**
@@ -50,6 +51,12 @@ import org.objectweb.asm.*;
  * This mean that in case of race condition we can miss some increments. But if a counter was hit at least once, we
  * are sure that we will increment the counter at least one. For code coverage results fact of being hit is crucial.
  * </p>
+ * <p/>
+ * <p>The counters array is never replaced nor cleared when the counters are collected. The values of the counters at
+ * the previous collection are kept in the second array ({@link #COBERTURA_DRAINED_COUNTERS_FIELD_NAME}) and
+ * {@link DoubleBufferedCounters#drain(int[], int[])} returns the difference (never negative), so collecting the counters
+ * doesn't lose increments done through an array loaded before the collection. This doubles the memory used by the
+ * counters.</p>
  *
  * @author piotr.tabor@gmail.com
  */
@@ -62,13 +69,24 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 	 */
 	static final String COBERTURA_COUNTERS_FIELD_TYPE = "[I";
 
+	/**
+	 * Name of the field that keeps values of the counters at the previous collection
+	 */
+	public static final String COBERTURA_DRAINED_COUNTERS_FIELD_NAME = "__cobertura_counters_drained";
+
+	static final String DOUBLE_BUFFERED_COUNTERS_INTERNALNAME = Type
+			.getInternalName(DoubleBufferedCounters.class);
+
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
 	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
 			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
 			String className) {
 		/*cobertura_counters[value('lastJumpIdVariableIndex')]++;*/
 		/*cobertura_counters.*/
-		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
 		/*index:*/
 		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
 		nextMethodVisitor.visitInsn(Opcodes.DUP2);
@@ -80,10 +98,13 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 
 	public void generateCodeThatIncrementsCoberturaCounter(
 			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
 		/*cobertura_counters[value('lastJumpIdVariableIndex')]++;*/
 		/*cobertura_counters.*/
-		nextMethodVisitor.visitFieldInsn(Opcodes.GETSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
 		/*index:*/
 		nextMethodVisitor.visitLdcInsn((int) counterId);
 		nextMethodVisitor.visitInsn(Opcodes.DUP2);
@@ -93,6 +114,19 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
 	}
 
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*cobertura_counters[counterId] += value('variableIndex');*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, variableIndex);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
 	public void generateCountersField(ClassVisitor cv) {
 		/*final tooks 270ms, no-modifier 310ms, volatile 500ms*/
 		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
@@ -100,6 +134,11 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE,
 				null, null);
 		fv.visitEnd();
+		fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_DRAINED_COUNTERS_FIELD_NAME,
+				COBERTURA_COUNTERS_FIELD_TYPE, null, null);
+		fv.visitEnd();
 	}
 
 	//	static int x[];
@@ -120,10 +159,23 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 		mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
 		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
 				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitLdcInsn(counters_cnt);
+		mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_DRAINED_COUNTERS_FIELD_NAME,
+				COBERTURA_COUNTERS_FIELD_TYPE);
 		generateRegisterClass(mv, className);
 		mv.visitLabel(l1);
 	}
 
+	/**
+	 * <pre>
+	 * int[] __cobertura_get_and_reset_counters() {
+	 *   return DoubleBufferedCounters.drain(cobertura_counters, cobertura_counters_drained);
+	 * }
+	 * </pre>
+	 * The counters are not replaced, so it works the same way when they are cached in local variables.
+	 */
 	public void generateCoberturaGetAndResetCountersMethod(ClassVisitor cv,
 			String className) {
 		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
@@ -131,19 +183,13 @@ public class FastArrayCodeProvider extends AbstractCodeProvider
 				COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME, "()[I", null,
 				null);
 		mv.visitCode();
-		/*cobertura_counters.*/
 		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
 				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
-		mv.visitVarInsn(Opcodes.ASTORE, 0);
-		/*cobertura_counters.*/
 		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
-		mv.visitInsn(Opcodes.ARRAYLENGTH);
-
-		mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
-		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
-				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
-		mv.visitVarInsn(Opcodes.ALOAD, 0);
+				COBERTURA_DRAINED_COUNTERS_FIELD_NAME,
+				COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC,
+				DOUBLE_BUFFERED_COUNTERS_INTERNALNAME, "drain", "([I[I)[I");
 		mv.visitInsn(Opcodes.ARETURN);
 		mv.visitMaxs(0, 0);//will be recalculated by writer
 		mv.visitEnd();
@@ -0,0 +1,146 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Method visitor that keeps counters of loop bodies in local int variables and adds them to the shared counters when
+ * a loop is left or the method exits.</p>
+ * <p/>
+ * <p>The counters to hoist are found by {@link net.sourceforge.cobertura.instrument.pass2.FindLoopCountersClassVisitor}
+ * and announced to the {@link CodeProvider} by {@link CodeProvider#setHoistedCounters(java.util.Map)}, so every
+ * touch-point inside a loop is just a single IINC instruction. The generated code looks like:</p>
+ * <pre>
+ *    int var1 = 0, var2 = 0, ...;
+ *  start:
+ *    ...           (loop body: var1++, var2++)
+ *    GOTO loop;    (backward jump)
+ *  exit:
+ *    flush;        (after every backward jump: where the loop is left by its condition or a break)
+ *    ...
+ *    flush;        (before every xRETURN)
+ *    xRETURN
+ *  end:
+ *  handler:        (catch-all for [start, end))
+ *    flush;
+ *    ATHROW
+ * </pre>
+ * <p>where flush adds every non-zero variable to its counter and zeroes it. Compilers place the code following
+ * a loop right after its backward jump, so the hits of a loop are reported when the loop ends (not only when the
+ * method exits). A loop that never ends (e.g. a thread main loop) never reports its hits, so the option
+ * is not meant for such code.</p>
+ * <p/>
+ * <p>The try-catch block is visited after its labels, so the method visitor passed to the constructor has to accept
+ * the events in any order (e.g. a {@link org.objectweb.asm.tree.MethodNode} buffer).</p>
+ */
+public class HoistLoopCountersMethodAdapter extends MethodVisitor {
+	private final CodeProvider codeProvider;
+	private final String className;
+
+	/**
+	 * Indexes of the local variables keeping the hoisted counters
+	 */
+	private final Collection<Integer> variables;
+
+	private final Label start = new Label();
+
+	private final Set<Label> visitedLabels = new HashSet<Label>();
+
+	/**
+	 * True after an unconditional backward jump, the next instruction can be reached only by a jump to a label,
+	 * so the counters are flushed after the label.
+	 */
+	private boolean flushAfterLabel;
+
+	public HoistLoopCountersMethodAdapter(MethodVisitor mv,
+			CodeProvider codeProvider, String className,
+			Collection<Integer> variables) {
+		super(Opcodes.ASM5, mv);
+		this.codeProvider = codeProvider;
+		this.className = className;
+		this.variables = variables;
+	}
+
+	@Override
+	public void visitCode() {
+		super.visitCode();
+		for (Integer variable : variables) {
+			mv.visitInsn(Opcodes.ICONST_0);
+			mv.visitVarInsn(Opcodes.ISTORE, variable);
+		}
+		mv.visitLabel(start);
+	}
+
+	@Override
+	public void visitLabel(Label label) {
+		super.visitLabel(label);
+		visitedLabels.add(label);
+		if (flushAfterLabel) {
+			flushAfterLabel = false;
+			codeProvider.generateCodeThatFlushesHoistedCounters(mv, className);
+		}
+	}
+
+	@Override
+	public void visitJumpInsn(int opcode, Label label) {
+		super.visitJumpInsn(opcode, label);
+		if (visitedLabels.contains(label)) {
+			if (opcode == Opcodes.GOTO) {
+				flushAfterLabel = true;
+			} else {
+				/*the loop is left when the jump is not taken*/
+				codeProvider.generateCodeThatFlushesHoistedCounters(mv,
+						className);
+			}
+		}
+	}
+
+	@Override
+	public void visitInsn(int opcode) {
+		if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+			codeProvider.generateCodeThatFlushesHoistedCounters(mv, className);
+		}
+		super.visitInsn(opcode);
+	}
+
+	@Override
+	public void visitMaxs(int maxStack, int maxLocals) {
+		Label end = new Label();
+		Label handler = new Label();
+		mv.visitLabel(end);
+		mv.visitLabel(handler);
+		codeProvider.generateCodeThatFlushesHoistedCounters(mv, className);
+		mv.visitInsn(Opcodes.ATHROW);
+		mv.visitTryCatchBlock(start, end, handler, null);
+		super.visitMaxs(maxStack, maxLocals);
+	}
+}
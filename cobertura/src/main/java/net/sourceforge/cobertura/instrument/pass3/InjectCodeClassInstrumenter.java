@@ -33,10 +33,14 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.LocalVariablesSorter;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.regex.Pattern;
 
 /**
@@ -57,6 +61,12 @@ public class InjectCodeClassInstrumenter
 	 */
 	private final InjectCodeTouchPointListener touchPointListener;
 
+	/**
+	 * Listener used instead of {@link #touchPointListener} if branches should be counted directly on control-flow edges,
+	 * null otherwise.
+	 */
+	private final InjectEdgeProbesTouchPointListener edgeProbesTouchPointListener;
+
 	/**
 	 * {@link ClassMap} generated in previous instrumentation pass by {@link BuildClassMapClassVisitor}
 	 */
@@ -66,10 +76,28 @@ public class InjectCodeClassInstrumenter
 	 * {@link CodeProvider} used to generate pieces of asm code that is injected into instrumented class.
 	 * <p/>
 	 * We are strictly recommending here using {@link FastArrayCodeProvider} instead of {@link AtomicArrayCodeProvider} because
-	 * of performance.
+	 * of performance. If you need precise counters in heavily multithreaded code, consider {@link StripedArrayCodeProvider}.
 	 */
 	private final CodeProvider codeProvider;
 
+	/**
+	 * If true, every instrumented method loads the counters into a local variable once (at the method start)
+	 * instead of reading the {@link CodeProvider#COBERTURA_COUNTERS_FIELD_NAME} field in every touch-point.
+	 */
+	private final boolean cacheCountersInVariables;
+
+	/**
+	 * If true, counters incremented inside loops (see {@link ClassMap#getLoopCounters(String)}) are kept in local
+	 * variables and added to the shared counters when the method exits (see {@link HoistLoopCountersMethodAdapter}).
+	 */
+	private final boolean hoistLoopCounters;
+
+	/**
+	 * If false, the class gets all the fields and methods generated by the {@link #codeProvider}, but its own methods
+	 * are not changed (except of the 'static initialization block' that initializes the counters).
+	 */
+	private final boolean injectProbes;
+
 	/**
 	 * When we processing the class we want to now if we processed 'static initialization block' (clinit method).
 	 * <p/>
@@ -77,28 +105,45 @@ public class InjectCodeClassInstrumenter
 	 */
 	private boolean wasStaticInitMethodVisited = false;
 
+	/**
+	 * True if static methods and constructors of the class can be executed before its 'static initialization block'
+	 * starts (see {@link #canRunBeforeStaticInit(int, String, String[])}), so they have to initialize the counters
+	 * on their own.
+	 */
+	private boolean callCoberturaInitInMethods = true;
+
 	private final Set<String> ignoredMethods;
 
 	/**
 	 * @param cv                 - a listener for code-instrumentation events
 	 * @param ignoreRegexes       - list of patters of method calls that should be ignored from line-coverage-measurement
+	 * @param codeProvider       - {@link CodeProvider} used to generate code that increments counters (see {@link CodeProviderType})
+	 * @param cacheCountersInVariables - if true the counters are kept in local variable of every instrumented method
+	 * @param edgeProbes         - if true the branch counters are incremented on control-flow edges (see {@link EdgeProbesMethodAdapter})
+	 * @param hoistLoopCounters  - if true the counters of loops are kept in local variables (see {@link HoistLoopCountersMethodAdapter})
+	 * @param injectProbes       - if false the methods of the class are not instrumented, only the counters and methods to access them are generated
 	 * @param classMap           - map of all interesting places in the class. You should acquire it by {@link BuildClassMapClassVisitor} and remember to
 	 *                           prepare it using {@link ClassMap#assignCounterIds()} before using it with {@link InjectCodeClassInstrumenter}
 	 * @param duplicatedLinesMap - map of found duplicates in the class. You should use {@link DetectDuplicatedCodeClassVisitor} to find the duplicated lines.
 	 */
 	public InjectCodeClassInstrumenter(ClassVisitor cv,
-			Collection<Pattern> ignoreRegexes, boolean threadsafeRigorous,
-			ClassMap classMap,
+			Collection<Pattern> ignoreRegexes, CodeProvider codeProvider,
+			boolean cacheCountersInVariables, boolean edgeProbes,
+			boolean hoistLoopCounters, boolean injectProbes, ClassMap classMap,
 			Map<Integer, Map<Integer, Integer>> duplicatedLinesMap,
 			Set<String> ignoredMethods) {
 		super(cv, ignoreRegexes, duplicatedLinesMap);
 		this.classMap = classMap;
 		this.ignoredMethods = ignoredMethods;
-		codeProvider = threadsafeRigorous
-				? new AtomicArrayCodeProvider()
-				: new FastArrayCodeProvider();
+		this.codeProvider = codeProvider;
+		this.cacheCountersInVariables = cacheCountersInVariables;
+		this.hoistLoopCounters = hoistLoopCounters;
+		this.injectProbes = injectProbes;
 		touchPointListener = new InjectCodeTouchPointListener(classMap,
 				codeProvider);
+		edgeProbesTouchPointListener = edgeProbes
+				? new InjectEdgeProbesTouchPointListener(classMap, codeProvider)
+				: null;
 	}
 
 	/**
@@ -109,15 +154,54 @@ public class InjectCodeClassInstrumenter
 			String supertype, String[] interfaces) {
 
 		super.visit(version, access, name, signature, supertype, interfaces);
+		callCoberturaInitInMethods = canRunBeforeStaticInit(access, supertype,
+				interfaces);
+		codeProvider.setClassVersion(version);
 		codeProvider.generateCountersField(cv);
 	}
 
+	/**
+	 * <p>The counters are initialized at the very beginning of the 'static initialization block', so the only code of
+	 * the class that can be executed before the counters are ready is the code called by static initializers of the
+	 * supertypes, because the supertypes are initialized before the class (in the same thread). For example:</p>
+	 * <pre>
+	 * class Parent { static Parent child = new Child(); }
+	 * class Child extends Parent { }
+	 * </pre>
+	 * <p>Superclasses from 'java.' packages never call the code of application classes in their static initializers.
+	 * Interfaces are initialized before the class only if they declare default methods, and we cannot check it here,
+	 * so any interface from outside 'java.' packages is treated as a possible caller. Superinterfaces are not
+	 * initialized together with an interface, so interfaces themselves are always safe.</p>
+	 *
+	 * @return true if static methods and constructors of the class can be executed before its 'static initialization block'
+	 */
+	static boolean canRunBeforeStaticInit(int access, String supertype,
+			String[] interfaces) {
+		if ((access & Opcodes.ACC_INTERFACE) != 0) {
+			return false;
+		}
+		if (supertype != null && !supertype.startsWith("java/")) {
+			return true;
+		}
+		if (interfaces != null) {
+			for (String anInterface : interfaces) {
+				if (!anInterface.startsWith("java/")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * <p>Instrumenting a code in a single method. Special conditions for processing 'static initialization block'.</p>
 	 * <p/>
 	 * <p>This method also uses {@link ShiftVariableMethodAdapter} that is used firstly to calculate the index of internal
 	 * variable injected to store information about last 'processed' jump or switch in runtime ( {@link ShiftVariableMethodAdapter#calculateFirstStackVariable(int, String)} ),
 	 * and then is used to inject code responsible for keeping the variable and shifting (+1) all previously seen variables.
+	 * <p/>
+	 * <p>Static methods and constructors call {@link CodeProvider#COBERTURA_INIT_METHOD_NAME} only if they can be executed
+	 * before the 'static initialization block' (see {@link #canRunBeforeStaticInit(int, String, String[])}).</p>
 	 */
 	@Override
 	public MethodVisitor visitMethod(int access, String name, String desc,
@@ -127,22 +211,65 @@ public class InjectCodeClassInstrumenter
 		if (ignoredMethods.contains(name + desc)) {
 			return mv;
 		}
-		if (((access & Opcodes.ACC_STATIC) != 0) || "<init>".equals(name)) {
+		if (!injectProbes) {
+			if ("<clinit>".equals(name)) {
+				wasStaticInitMethodVisited = true;
+				return new GenerateCallCoberturaInitMethodVisitor(mv, classMap
+						.getClassName());
+			}
+			return mv;
+		}
+		SortedSet<Integer> loopCounters = hoistLoopCounters ? classMap
+				.getLoopCounters(name + desc) : null;
+		boolean hoist = loopCounters != null && !loopCounters.isEmpty();
+		if (hoist) {
+			mv = new BufferedMethodNode(mv, access, name, desc, signature,
+					exceptions);
+		}
+		if ("<clinit>".equals(name)
+				|| (callCoberturaInitInMethods && (((access & Opcodes.ACC_STATIC) != 0) || "<init>"
+						.equals(name)))) {
 			mv = new GenerateCallCoberturaInitMethodVisitor(mv, classMap
 					.getClassName());
 			if ("<clinit>".equals(name)) {
 				wasStaticInitMethodVisited = true;
 			}
 		}
+		if (edgeProbesTouchPointListener != null) {
+			EdgeProbesMethodAdapter edges = new EdgeProbesMethodAdapter(mv,
+					codeProvider, classMap.getClassName());
+			edgeProbesTouchPointListener.setEdgeProbesMethodAdapter(edges);
+			mv = edges;
+		}
+		Map<Integer, Integer> hoistedCounters = hoist
+				? new LinkedHashMap<Integer, Integer>()
+				: Collections.<Integer, Integer> emptyMap();
+		if (hoist) {
+			mv = new HoistLoopCountersMethodAdapter(mv, codeProvider, classMap
+					.getClassName(), hoistedCounters.values());
+		}
 		FindTouchPointsMethodAdapter instrumenter = new FindTouchPointsMethodAdapter(
 				mv, classMap.getClassName(), name, desc, eventIdGenerator,
 				duplicatedLinesMap, lineIdGenerator);
-		instrumenter.setTouchPointListener(touchPointListener);
 		instrumenter.setIgnoreRegexp(getIgnoreRegexp());
 		LocalVariablesSorter sorter = new LocalVariablesSorter(access, desc,
 				instrumenter);
-		int variable = sorter.newLocal(Type.INT_TYPE);
-		touchPointListener.setLastJumpIdVariableIndex(variable);
+		if (edgeProbesTouchPointListener != null) {
+			instrumenter.setTouchPointListener(edgeProbesTouchPointListener);
+		} else {
+			instrumenter.setTouchPointListener(touchPointListener);
+			int variable = sorter.newLocal(Type.INT_TYPE);
+			touchPointListener.setLastJumpIdVariableIndex(variable);
+		}
+		if (hoist) {
+			for (Integer counterId : loopCounters) {
+				hoistedCounters.put(counterId, sorter.newLocal(Type.INT_TYPE));
+			}
+		}
+		codeProvider.setHoistedCounters(hoistedCounters);
+		codeProvider.setCountersVariableIndex(cacheCountersInVariables
+				? sorter.newLocal(Type.getType(codeProvider
+						.getCountersFieldType())) : -1);
 		return sorter;
 		//return new ShiftVariableMethodAdapter(instrumenter, access, desc, 1);
 	}
@@ -168,6 +295,26 @@ public class InjectCodeClassInstrumenter
 		}
 	}
 
+	/**
+	 * Buffers the whole method and forwards it to the next method visitor when the method ends. Used for methods
+	 * instrumented by {@link HoistLoopCountersMethodAdapter}, that visits a try-catch block after its labels.
+	 */
+	private static class BufferedMethodNode extends MethodNode {
+		private final MethodVisitor next;
+
+		public BufferedMethodNode(MethodVisitor next, int access, String name,
+				String desc, String signature, String[] exceptions) {
+			super(Opcodes.ASM5, access, name, desc, signature, exceptions);
+			this.next = next;
+		}
+
+		@Override
+		public void visitEnd() {
+			super.visitEnd();
+			accept(next);
+		}
+	}
+
 	/**
 	 * <p>If there was no 'static initialization block' in the class, the method is responsible for generating the method.<br/>
 	 * It is also responsible for generating method that keeps mapping of counterIds into source places connected to them</p>
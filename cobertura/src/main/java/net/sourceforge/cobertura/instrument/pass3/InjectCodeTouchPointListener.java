@@ -76,7 +76,7 @@ public class InjectCodeTouchPointListener implements TouchPointListener {
 	}
 
 	/**
-	 * After jump we will increment counterId for the 'false' branch of the JUMP.
+	 * After jump we will increment counterId for the 'false' branch of the JUMP (unless the counter is derived from other counters).
 	 * Then we set internal variable to ZERO to avoid fake interpretation (another one incrementation)
 	 */
 	public void afterJump(int eventId, Label label, int currentLine,
@@ -85,9 +85,14 @@ public class InjectCodeTouchPointListener implements TouchPointListener {
 				+ label);
 		Integer jumpFalseCounterId = classMap.getCounterIdForJumpFalse(eventId);
 		if (jumpFalseCounterId != null) {
-			codeProvider.generateCodeThatIncrementsCoberturaCounter(
-					nextMethodVisitor, jumpFalseCounterId, classMap
-							.getClassName());
+			if (!classMap.isDerivedCounter(jumpFalseCounterId)) {
+				Label afterProbe = codeProvider
+						.generateCodeThatSkipsProbeIfCoverageDisabled(nextMethodVisitor);
+				codeProvider.generateCodeThatIncrementsCoberturaCounter(
+						nextMethodVisitor, jumpFalseCounterId, classMap
+								.getClassName());
+				nextMethodVisitor.visitLabel(afterProbe);
+			}
 			codeProvider.generateCodeThatZeroJumpCounterIdVariable(
 					nextMethodVisitor, lastJumpIdVariableIndex);
 		}
@@ -118,10 +123,13 @@ public class InjectCodeTouchPointListener implements TouchPointListener {
 		logger.debug("Looking for jumps going to event(" + eventId + "):"
 				+ label + " ");
 		if (classMap.isJumpDestinationLabel(eventId)) {
+			Label afterProbe = codeProvider
+					.generateCodeThatSkipsProbeIfCoverageDisabled(mv);
 			codeProvider
 					.generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
 							mv, lastJumpIdVariableIndex, classMap
 									.getClassName());
+			mv.visitLabel(afterProbe);
 		}
 
 		Map<Integer, Integer> branchTouchPoints = classMap
@@ -130,30 +138,42 @@ public class InjectCodeTouchPointListener implements TouchPointListener {
 			/*map of counterId of a switch into counterId of the branch of the switch*/
 			for (Map.Entry<Integer, Integer> entry : branchTouchPoints
 					.entrySet()) {
+				Label afterProbe = codeProvider
+						.generateCodeThatSkipsProbeIfCoverageDisabled(mv);
 				codeProvider
 						.generateCodeThatIncrementsCoberturaCounterIfVariableEqualsAndCleanVariable(
 								mv, entry.getKey(), entry.getValue(),
 								lastJumpIdVariableIndex, classMap
 										.getClassName());
+				mv.visitLabel(afterProbe);
 			}
 		}
 
-		if (classMap.isJumpDestinationLabel(eventId)) {
+		/*the probes above (with their own cleaning of the variable) are skipped while the coverage is disabled,
+		 so the variable is cleaned again, otherwise a fall-through to the next branch label would be counted
+		 as a branch of the switch once the coverage has been enabled*/
+		if (classMap.isJumpDestinationLabel(eventId)
+				|| branchTouchPoints != null) {
 			codeProvider.generateCodeThatZeroJumpCounterIdVariable(mv,
 					lastJumpIdVariableIndex);
 		}
 	}
 
 	/**
-	 * After every 'linenumber' instruction we increments counter connected with the line number.
+	 * After every 'linenumber' instruction we increments counter connected with the line number (unless the counter is derived
+	 * from other counters, see {@link ClassMap#isDerivedCounter(int)}).
 	 */
 	public void afterLineNumber(int eventId, Label label, int currentLine,
 			MethodVisitor nextMethodVisitor, String methodName,
 			String methodSignature) {
 		Integer lineCounterId = classMap.getCounterIdForLineEventId(eventId);
-		if (lineCounterId != null) {
+		if (lineCounterId != null
+				&& !classMap.isDerivedCounter(lineCounterId)) {
+			Label afterProbe = codeProvider
+					.generateCodeThatSkipsProbeIfCoverageDisabled(nextMethodVisitor);
 			codeProvider.generateCodeThatIncrementsCoberturaCounter(
 					nextMethodVisitor, lineCounterId, classMap.getClassName());
+			nextMethodVisitor.visitLabel(afterProbe);
 		}
 	}
 
@@ -163,6 +183,8 @@ public class InjectCodeTouchPointListener implements TouchPointListener {
 	public void afterMethodStart(MethodVisitor nextMethodVisitor) {
 		codeProvider.generateCodeThatZeroJumpCounterIdVariable(
 				nextMethodVisitor, lastJumpIdVariableIndex);
+		codeProvider.generateCodeThatLoadsCountersIntoVariable(
+				nextMethodVisitor, classMap.getClassName());
 	}
 
 	// ------------------- ignored events -------------------------------	
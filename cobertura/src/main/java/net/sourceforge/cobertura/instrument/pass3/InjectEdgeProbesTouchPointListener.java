@@ -0,0 +1,150 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import net.sourceforge.cobertura.instrument.TouchPointListener;
+import net.sourceforge.cobertura.instrument.tp.ClassMap;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Inject code provided by {@link #codeProvider} into the instrumented method's body, putting increments of branch
+ * counters directly on control-flow edges (see {@link EdgeProbesMethodAdapter}).
+ * <p/>
+ * In contrast to {@link InjectCodeTouchPointListener} there is no 'internal variable' keeping id of the last JUMP,
+ * so there is nothing to store before a JUMP and nothing to compare at the destination labels.
+ */
+public class InjectEdgeProbesTouchPointListener implements TouchPointListener {
+	/**
+	 * Component that is resposible for generation of the snipets
+	 */
+	private final CodeProvider codeProvider;
+
+	/**
+	 * Source of mapping from place (eventId) into counterId that is incremented if the place is touched
+	 */
+	private final ClassMap classMap;
+
+	/**
+	 * Adapter of currently instrumented method, responsible for redirecting edges into trampolines.
+	 */
+	private EdgeProbesMethodAdapter edgeProbesMethodAdapter;
+
+	public InjectEdgeProbesTouchPointListener(ClassMap classMap,
+			CodeProvider codeProvider) {
+		this.classMap = classMap;
+		this.codeProvider = codeProvider;
+	}
+
+	/**
+	 * Before jump we redirect the 'true' branch of the JUMP to a trampoline that increments its counter.
+	 */
+	public void beforeJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		Integer jumpTrueCounterId = classMap.getCounterIdForJumpTrue(eventId);
+		if (jumpTrueCounterId != null) {
+			edgeProbesMethodAdapter.redirectNextJump(jumpTrueCounterId);
+		}
+	}
+
+	/**
+	 * After jump we are on the 'false' branch of the JUMP, so we simply increment its counter (unless it's derived).
+	 */
+	public void afterJump(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor) {
+		Integer jumpFalseCounterId = classMap.getCounterIdForJumpFalse(eventId);
+		if (jumpFalseCounterId != null
+				&& !classMap.isDerivedCounter(jumpFalseCounterId)) {
+			Label afterProbe = codeProvider
+					.generateCodeThatSkipsProbeIfCoverageDisabled(nextMethodVisitor);
+			codeProvider.generateCodeThatIncrementsCoberturaCounter(
+					nextMethodVisitor, jumpFalseCounterId, classMap
+							.getClassName());
+			nextMethodVisitor.visitLabel(afterProbe);
+		}
+	}
+
+	/**
+	 * Before switch we redirect every destination of the SWITCH to a trampoline that increments counter of the branch.
+	 */
+	public void beforeSwitch(int eventId, Label def, Label[] labels,
+			int currentLine, MethodVisitor mv, String conditionType) {
+		if (classMap.getCounterIdForSwitch(eventId) != null) {
+			Integer[] counterIds = new Integer[labels.length];
+			for (int i = 0; i < labels.length; i++) {
+				counterIds[i] = classMap.getCounterIdForSwitchLabel(eventId, i);
+			}
+			edgeProbesMethodAdapter.redirectNextSwitch(classMap
+					.getCounterIdForSwitchDefault(eventId), counterIds);
+		}
+	}
+
+	/**
+	 * After every 'linenumber' instruction we increments counter connected with the line number (unless it's derived).
+	 */
+	public void afterLineNumber(int eventId, Label label, int currentLine,
+			MethodVisitor nextMethodVisitor, String methodName,
+			String methodSignature) {
+		Integer lineCounterId = classMap.getCounterIdForLineEventId(eventId);
+		if (lineCounterId != null
+				&& !classMap.isDerivedCounter(lineCounterId)) {
+			Label afterProbe = codeProvider
+					.generateCodeThatSkipsProbeIfCoverageDisabled(nextMethodVisitor);
+			codeProvider.generateCodeThatIncrementsCoberturaCounter(
+					nextMethodVisitor, lineCounterId, classMap.getClassName());
+			nextMethodVisitor.visitLabel(afterProbe);
+		}
+	}
+
+	public void afterMethodStart(MethodVisitor nextMethodVisitor) {
+		codeProvider.generateCodeThatLoadsCountersIntoVariable(
+				nextMethodVisitor, classMap.getClassName());
+	}
+
+	// ------------------- ignored events -------------------------------	
+
+	public void beforeLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+	}
+
+	public void afterLabel(int eventId, Label label, int currentLine,
+			MethodVisitor mv) {
+	}
+
+	public void ignoreLine(int eventId, int currentLine) {
+	}
+
+	// ------------------- getters and setters --------------------------	
+
+	/**
+	 * Sets adapter of the method that is going to be instrumented.
+	 */
+	public void setEdgeProbesMethodAdapter(
+			EdgeProbesMethodAdapter edgeProbesMethodAdapter) {
+		this.edgeProbesMethodAdapter = edgeProbesMethodAdapter;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import net.sourceforge.cobertura.coveragedata.MappedCounters;
+import org.objectweb.asm.*;
+
+/**
+ * <p>The {@link CodeProvider} keeps counters in a slice of a memory-mapped file shared by all instrumented
+ * classes ({@link MappedCounters}).</p>
+ * <p/>
+ * <p>The counters can be read by another process at any moment (see {@link MappedCounters#readCounters(java.io.File)}),
+ * there is no need to wait for a flush into the datafile, and the counters are not lost when the JVM is killed.
+ * The counters are incremented in the same not-atomic way as by {@link FastArrayCodeProvider}.</p>
+ */
+public class MappedCountersCodeProvider extends AbstractCodeProvider
+		implements
+			CodeProvider {
+
+	static final String MAPPED_COUNTERS_INTERNALNAME = Type
+			.getInternalName(MappedCounters.class);
+
+	/**
+	 * Type of the generated field, that is used to store counters
+	 */
+	static final String COBERTURA_COUNTERS_FIELD_TYPE = Type
+			.getDescriptor(MappedCounters.class);
+
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
+	public void generateCountersField(ClassVisitor cv) {
+		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE,
+				null, null);
+		fv.visitEnd();
+	}
+
+	public void generateCINITmethod(MethodVisitor mv, String className,
+			int counters_cnt) {
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		Label l1 = new Label();
+		mv.visitJumpInsn(Opcodes.IFNONNULL, l1);
+		mv.visitLdcInsn(className);
+		mv.visitLdcInsn(counters_cnt);
+		/*the hash of the class-map tells whether counters in the file belong to this instrumentation of the class*/
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, className,
+				COBERTURA_CLASSMAP_DATA_METHOD_NAME, "()Ljava/lang/String;");
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, MAPPED_COUNTERS_INTERNALNAME,
+				"register", "(Ljava/lang/String;ILjava/lang/String;)"
+						+ COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateRegisterClass(mv, className);
+		mv.visitLabel(l1);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
+		/*cobertura_counters.increment(counterId);*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn((int) counterId);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+				MAPPED_COUNTERS_INTERNALNAME, "increment", "(I)V");
+	}
+
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*cobertura_counters.add(counterId, value('variableIndex'));*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, variableIndex);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+				MAPPED_COUNTERS_INTERNALNAME, "add", "(II)V");
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
+			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
+			String className) {
+		/*cobertura_counters.increment(value('lastJumpIdVariableIndex'));*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+				MAPPED_COUNTERS_INTERNALNAME, "increment", "(I)V");
+	}
+
+	/**
+	 * <pre>
+	 * int[] __cobertura_get_and_reset_counters() {
+	 *   return cobertura_counters.getAndReset();
+	 * }
+	 * </pre>
+	 */
+	public void generateCoberturaGetAndResetCountersMethod(ClassVisitor cv,
+			String className) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC,
+				COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME, "()[I", null,
+				null);
+		mv.visitCode();
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, MAPPED_COUNTERS_INTERNALNAME,
+				"getAndReset", "()[I");
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);//will be recalculated by writer
+		mv.visitEnd();
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import net.sourceforge.cobertura.coveragedata.SampledCounters;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * <p>The {@link CodeProvider} uses int[] to store counters (like {@link FastArrayCodeProvider}), but counts
+ * only one in {@link #getSamplingRate()} executions of a touch-point.</p>
+ * <p/>
+ * <p>Every touch is a call of {@link SampledCounters#touch(int[], int, int)}. The first execution of a touch-point
+ * is always counted, so the measured coverage is the same as with other providers, but the hit counts are only
+ * estimates. The sampling rate is stored in the {@link net.sourceforge.cobertura.coveragedata.ProjectData}
+ * and the reports show scaled hit counts
+ * (see {@link net.sourceforge.cobertura.coveragedata.LineData#getEstimatedHits()}).</p>
+ * <p/>
+ * <p>This provider is intended for collecting coverage under production load, where the cost of
+ * a read-modify-write of a shared array at every touch is too high.</p>
+ */
+public class SampledArrayCodeProvider extends FastArrayCodeProvider
+		implements
+			CodeProvider {
+
+	public static final int DEFAULT_SAMPLING_RATE = 100;
+
+	static final String SAMPLED_COUNTERS_INTERNALNAME = Type
+			.getInternalName(SampledCounters.class);
+
+	private final int samplingRate;
+
+	public SampledArrayCodeProvider(int samplingRate) {
+		this.samplingRate = samplingRate;
+	}
+
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
+			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
+			String className) {
+		/*SampledCounters.touch(cobertura_counters, value('lastJumpIdVariableIndex'), samplingRate);*/
+		/*cobertura_counters.*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
+		generateCodeThatTouches(nextMethodVisitor);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
+		/*SampledCounters.touch(cobertura_counters, counterId, samplingRate);*/
+		/*cobertura_counters.*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitLdcInsn((int) counterId);
+		generateCodeThatTouches(nextMethodVisitor);
+	}
+
+	private void generateCodeThatTouches(MethodVisitor nextMethodVisitor) {
+		nextMethodVisitor.visitLdcInsn(samplingRate);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+				SAMPLED_COUNTERS_INTERNALNAME, "touch", "([III)V");
+	}
+
+}
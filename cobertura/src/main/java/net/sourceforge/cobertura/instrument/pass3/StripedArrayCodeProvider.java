@@ -0,0 +1,160 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.instrument.pass3;
+
+import net.sourceforge.cobertura.coveragedata.StripedCounters;
+import org.objectweb.asm.*;
+
+/**
+ * <p>The {@link CodeProvider} uses int[stripes][counters] to store counters.</p>
+ * <p/>
+ * <p>Every thread increments counters in its own stripe (see {@link StripedCounters#stripe(int[][])}), so there are
+ * no atomic operations and (almost) no cache-line sharing between threads on the touch path. The stripes are
+ * summed together by {@link StripedCounters#getAndReset(int[][])} when the counters are read.</p>
+ * <p/>
+ * <p>This provider is intended for heavily multithreaded applications that suffer from contention caused by
+ * {@link AtomicArrayCodeProvider}. Two threads can share a stripe if there are more threads than stripes, so
+ * the same (small) inaccuracy of hit counts as in {@link FastArrayCodeProvider} is possible then.</p>
+ */
+public class StripedArrayCodeProvider extends AbstractCodeProvider
+		implements
+			CodeProvider {
+
+	/**
+	 * Type of the generated field, that is used to store counters
+	 */
+	static final String COBERTURA_COUNTERS_FIELD_TYPE = "[[I";
+
+	public String getCountersFieldType() {
+		return COBERTURA_COUNTERS_FIELD_TYPE;
+	}
+
+	static final String STRIPED_COUNTERS_INTERNALNAME = Type
+			.getInternalName(StripedCounters.class);
+
+	public void generateCountersField(ClassVisitor cv) {
+		FieldVisitor fv = cv.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE,
+				null, null);
+		fv.visitEnd();
+	}
+
+	public void generateCINITmethod(MethodVisitor mv, String className,
+			int counters_cnt) {
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		Label l1 = new Label();
+		mv.visitJumpInsn(Opcodes.IFNONNULL, l1);
+		mv.visitLdcInsn(counters_cnt);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, STRIPED_COUNTERS_INTERNALNAME,
+				"newCounters", "(I)[[I");
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		generateRegisterClass(mv, className);
+		mv.visitLabel(l1);
+	}
+
+	/**
+	 * Pushes on the stack the stripe of counters of the current thread.
+	 */
+	private void generateCodeThatLoadsStripe(MethodVisitor nextMethodVisitor,
+			String className) {
+		/*cobertura_counters.*/
+		generateCodeThatLoadsCounters(nextMethodVisitor, className);
+		/*stripe of current thread*/
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+				STRIPED_COUNTERS_INTERNALNAME, "stripe", "([[I)[I");
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounter(
+			MethodVisitor nextMethodVisitor, Integer counterId, String className) {
+		if (generateCodeThatIncrementsHoistedCounter(nextMethodVisitor,
+				counterId)) {
+			return;
+		}
+		/*StripedCounters.stripe(cobertura_counters)[counterId]++;*/
+		generateCodeThatLoadsStripe(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitLdcInsn((int) counterId);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitLdcInsn(1);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
+	protected void generateCodeThatAddsVariableToCoberturaCounter(
+			MethodVisitor nextMethodVisitor, int counterId, int variableIndex,
+			String className) {
+		/*StripedCounters.stripe(cobertura_counters)[counterId] += value('variableIndex');*/
+		generateCodeThatLoadsCountersFromField(nextMethodVisitor, className);
+		nextMethodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+				STRIPED_COUNTERS_INTERNALNAME, "stripe", "([[I)[I");
+		nextMethodVisitor.visitLdcInsn(counterId);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, variableIndex);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
+	public void generateCodeThatIncrementsCoberturaCounterFromInternalVariable(
+			MethodVisitor nextMethodVisitor, int lastJumpIdVariableIndex,
+			String className) {
+		/*StripedCounters.stripe(cobertura_counters)[value('lastJumpIdVariableIndex')]++;*/
+		generateCodeThatLoadsStripe(nextMethodVisitor, className);
+		/*index:*/
+		nextMethodVisitor.visitVarInsn(Opcodes.ILOAD, lastJumpIdVariableIndex);
+		nextMethodVisitor.visitInsn(Opcodes.DUP2);
+		nextMethodVisitor.visitInsn(Opcodes.IALOAD);
+		nextMethodVisitor.visitLdcInsn(1);
+		nextMethodVisitor.visitInsn(Opcodes.IADD);
+		nextMethodVisitor.visitInsn(Opcodes.IASTORE);
+	}
+
+	/**
+	 * <pre>
+	 * int[] __cobertura_get_and_reset_counters() {
+	 *   return StripedCounters.getAndReset(cobertura_counters);
+	 * }
+	 * </pre>
+	 */
+	public void generateCoberturaGetAndResetCountersMethod(ClassVisitor cv,
+			String className) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC
+				| Opcodes.ACC_STATIC,
+				COBERTURA_GET_AND_RESET_COUNTERS_METHOD_NAME, "()[I", null,
+				null);
+		mv.visitCode();
+		mv.visitFieldInsn(Opcodes.GETSTATIC, className,
+				COBERTURA_COUNTERS_FIELD_NAME, COBERTURA_COUNTERS_FIELD_TYPE);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, STRIPED_COUNTERS_INTERNALNAME,
+				"getAndReset", "([[I)[I");
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(0, 0);//will be recalculated by writer
+		mv.visitEnd();
+	}
+
+}
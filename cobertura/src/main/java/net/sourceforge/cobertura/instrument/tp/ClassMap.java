@@ -91,6 +91,16 @@ public class ClassMap {
 
 	private int maxCounterId = 0;
 
+	/**
+	 * Counters that are not incremented by instrumented code, but computed from other counters (counterId -> descriptor).
+	 */
+	private final Map<Integer, DerivedCounterDescriptor> derivedCounters = new LinkedHashMap<Integer, DerivedCounterDescriptor>();
+
+	/**
+	 * Counters incremented inside loops, that can be kept in local variables of the method (method name+descriptor -> counterIds).
+	 */
+	private final Map<String, SortedSet<Integer>> loopCounters = new HashMap<String, SortedSet<Integer>>();
+
 	public void setSource(String source) {
 		this.source = source;
 	}
@@ -259,6 +269,28 @@ public class ClassMap {
 		return null;
 	}
 
+	public Integer getCounterIdForSwitchDefault(int eventId) {
+		if (eventId2touchPointDescriptor.get(eventId) instanceof SwitchTouchPointDescriptor) {
+			SwitchTouchPointDescriptor point = (SwitchTouchPointDescriptor) eventId2touchPointDescriptor
+					.get(eventId);
+			if (point != null) {
+				return point.getCounterIdForDefaultLabel();
+			}
+		}
+		return null;
+	}
+
+	public Integer getCounterIdForSwitchLabel(int eventId, int labelIndex) {
+		if (eventId2touchPointDescriptor.get(eventId) instanceof SwitchTouchPointDescriptor) {
+			SwitchTouchPointDescriptor point = (SwitchTouchPointDescriptor) eventId2touchPointDescriptor
+					.get(eventId);
+			if (point != null) {
+				return point.getCounterIdForLabelAt(labelIndex);
+			}
+		}
+		return null;
+	}
+
 	public Integer getCounterIdForLineEventId(int eventId) {
 		if (eventId2touchPointDescriptor.get(eventId) instanceof LineTouchPointDescriptor) {
 			LineTouchPointDescriptor point = (LineTouchPointDescriptor) eventId2touchPointDescriptor
@@ -303,6 +335,45 @@ public class ClassMap {
 		return null;
 	}
 
+	/**
+	 * Forgets all touch-points except the first line of every method, so there is exactly one
+	 * touch-point (and one hit-counter) per method and it is hit whenever the method is entered.
+	 * All jumps and switches are forgotten, so no branch information is collected.
+	 * <p/>
+	 * <p>Should be called before {@link #applyOnProjectData(ProjectData, boolean)} and {@link #assignCounterIds()}.</p>
+	 */
+	public void retainMethodEntryTouchPoints() {
+		Map<String, LineTouchPointDescriptor> method2entry = new HashMap<String, LineTouchPointDescriptor>();
+		for (TouchPointDescriptor tpd : eventId2touchPointDescriptor.values()) {
+			if (tpd instanceof LineTouchPointDescriptor) {
+				LineTouchPointDescriptor line = (LineTouchPointDescriptor) tpd;
+				String method = line.getMethodName()
+						+ line.getMethodSignature();
+				LineTouchPointDescriptor entry = method2entry.get(method);
+				/*events are numbered in the order of instructions, so the first line has the smallest eventId*/
+				if (entry == null || line.getEventId() < entry.getEventId()) {
+					method2entry.put(method, line);
+				}
+			}
+		}
+		Set<TouchPointDescriptor> entries = new HashSet<TouchPointDescriptor>(
+				method2entry.values());
+
+		Iterator<List<TouchPointDescriptor>> lines = line2touchPoints.values()
+				.iterator();
+		while (lines.hasNext()) {
+			List<TouchPointDescriptor> tpds = lines.next();
+			tpds.retainAll(entries);
+			if (tpds.isEmpty()) {
+				lines.remove();
+			}
+		}
+		eventId2touchPointDescriptor.values().retainAll(entries);
+		label2sourcePoints.clear();
+		logger.debug(className + ": Retained " + entries.size()
+				+ " method entry touch-points");
+	}
+
 	/**
 	 * Iterates over all touch-points created during class analysis and assigns
 	 * hit-counter identifiers to each of the touchpoint (some of them needs mode then one
@@ -321,6 +392,49 @@ public class ClassMap {
 		maxCounterId = idGenerator.get();
 	}
 
+	/**
+	 * Registers a counter that doesn't need to be incremented by instrumented code (see {@link DerivedCounterDescriptor}).
+	 * Should be called after {@link #assignCounterIds()}.
+	 */
+	public void registerDerivedCounter(
+			DerivedCounterDescriptor derivedCounterDescriptor) {
+		derivedCounters.put(derivedCounterDescriptor.getCounterId(),
+				derivedCounterDescriptor);
+	}
+
+	public boolean isDerivedCounter(int counterId) {
+		return derivedCounters.containsKey(counterId);
+	}
+
+	public Collection<DerivedCounterDescriptor> getDerivedCounters() {
+		return derivedCounters.values();
+	}
+
+	/**
+	 * Registers a counter that is incremented inside a loop of the method (see
+	 * {@link net.sourceforge.cobertura.instrument.pass2.FindLoopCountersClassVisitor}). Should be called after {@link #assignCounterIds()}.
+	 *
+	 * @param methodNameAndDesc - name of the method concatenated with its descriptor
+	 */
+	public void registerLoopCounter(String methodNameAndDesc, int counterId) {
+		SortedSet<Integer> counters = loopCounters.get(methodNameAndDesc);
+		if (counters == null) {
+			counters = new TreeSet<Integer>();
+			loopCounters.put(methodNameAndDesc, counters);
+		}
+		counters.add(counterId);
+	}
+
+	/**
+	 * @param methodNameAndDesc - name of the method concatenated with its descriptor
+	 *
+	 * @return counters incremented inside loops of the method (never null)
+	 */
+	public SortedSet<Integer> getLoopCounters(String methodNameAndDesc) {
+		SortedSet<Integer> counters = loopCounters.get(methodNameAndDesc);
+		return counters != null ? counters : new TreeSet<Integer>();
+	}
+
 	public int getMaxCounterId() {
 		return maxCounterId;
 	}
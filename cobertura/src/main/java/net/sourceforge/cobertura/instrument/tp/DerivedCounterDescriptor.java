@@ -0,0 +1,59 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.instrument.tp;
+
+/**
+ * <p>Describes a counter that is not incremented by the instrumented code, because its value can be computed from
+ * values of other counters:</p>
+ * <pre>
+ * counter[counterId] = counter[sourceCounterId] - counter[subtractedCounterIds[0]] - counter[subtractedCounterIds[1]] ...
+ * </pre>
+ * <p>Source and subtracted counters are always 'real' counters (incremented by the instrumented code), never derived ones.</p>
+ */
+public class DerivedCounterDescriptor {
+	private final int counterId;
+	private final int sourceCounterId;
+	private final int[] subtractedCounterIds;
+
+	public DerivedCounterDescriptor(int counterId, int sourceCounterId,
+			int[] subtractedCounterIds) {
+		this.counterId = counterId;
+		this.sourceCounterId = sourceCounterId;
+		this.subtractedCounterIds = subtractedCounterIds;
+	}
+
+	public int getCounterId() {
+		return counterId;
+	}
+
+	public int getSourceCounterId() {
+		return sourceCounterId;
+	}
+
+	public int[] getSubtractedCounterIds() {
+		return subtractedCounterIds;
+	}
+
+}
@@ -101,6 +101,25 @@ public class SwitchTouchPointDescriptor extends TouchPointDescriptor {
 		return label2counterId.get(label);
 	}
 
+	/**
+	 * @return counterId of the default destination of the SWITCH
+	 */
+	public Integer getCounterIdForDefaultLabel() {
+		return label2counterId.get(defaultDestinationLabel);
+	}
+
+	/**
+	 * <p>Labels of different instrumentation passes are different objects, but the order of destinations
+	 * of the same SWITCH instruction is always the same, so the destination can be identified by its index.</p>
+	 *
+	 * @param index - index of the destination label in table of labels of the SWITCH instruction
+	 *
+	 * @return counterId of the destination
+	 */
+	public Integer getCounterIdForLabelAt(int index) {
+		return label2counterId.get(labels[index]);
+	}
+
 	public Collection<Integer> getCountersForLabels() {
 		return label2counterId.values();
 	}
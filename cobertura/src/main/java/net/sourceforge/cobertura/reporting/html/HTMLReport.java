@@ -505,7 +505,7 @@ public class HTMLReport {
 						ret.append("  <td class=\"nbHitsCovered\">"
 								+ generateBranchInfo(lineData, "&nbsp;"
 										+ ((lineData != null) ? lineData
-												.getHits() : 0)) + "</td>");
+												.getEstimatedHits() : 0)) + "</td>");
 						ret
 								.append("  <td class=\"src\"><pre class=\"src\">&nbsp;"
 										+ generateBranchInfo(lineData,
@@ -515,7 +515,7 @@ public class HTMLReport {
 						ret.append("  <td class=\"nbHitsUncovered\">"
 								+ generateBranchInfo(lineData, "&nbsp;"
 										+ ((lineData != null) ? lineData
-												.getHits() : 0)) + "</td>");
+												.getEstimatedHits() : 0)) + "</td>");
 						ret
 								.append("  <td class=\"src\"><pre class=\"src\"><span class=\"srcUncovered\">&nbsp;"
 										+ generateBranchInfo(lineData,
@@ -655,7 +655,12 @@ public class HTMLReport {
 		ret.append("  <tr>");
 		// TODO: URL should jump straight to the class (only for inner classes?)
 		ret.append("<td><a href=\"" + sourceFileName + ".html\">"
-				+ classData.getBaseName() + "</a></td>");
+				+ classData.getBaseName() + "</a>");
+		if (classData.isMethodCoverageOnly()) {
+			// every line stands for a method
+			ret.append(" (method coverage)");
+		}
+		ret.append("</td>");
 		ret.append(generateTableColumnsFromData(classData, ccn));
 		ret.append("</tr>\n");
 		return ret.toString();
@@ -259,7 +259,7 @@ public class XMLReport {
 
 	private void dumpLine(LineData lineData) {
 		int lineNumber = lineData.getLineNumber();
-		long hitCount = lineData.getHits();
+		long hitCount = lineData.getEstimatedHits();
 		boolean hasBranch = lineData.hasBranch();
 		String conditionCoverage = lineData.getConditionCoverage();
 
@@ -0,0 +1,160 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.collector;
+
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.CollectorClient;
+import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CollectorTest {
+
+	@Test
+	public void testDeltasAreMergedIntoDatafileOnStop() throws Exception {
+		File dataFile = File.createTempFile("collector", ".ser");
+		dataFile.deleteOnExit();
+		CoverageDataFileHandler.saveCoverageData(hits("com.example.A", 1),
+				dataFile);
+
+		Collector collector = new Collector(0, dataFile);
+		Thread thread = new Thread(collector);
+		thread.start();
+		int port = collector.getPort();
+		CollectorClient.send(port, 5000, CollectorClient.DELTA, hits(
+				"com.example.A", 2));
+		CollectorClient.send(port, 5000, CollectorClient.DELTA, hits(
+				"com.example.B", 3));
+		CollectorClient.send(port, 5000, CollectorClient.STOP, null);
+		collector.awaitStopRequest();
+		collector.stop();
+		thread.join(5000);
+
+		assertEquals(2, collector.getDeltaCount());
+		ProjectData projectData = CoverageDataFileHandler
+				.loadCoverageData(dataFile);
+		assertEquals(3, projectData.getClassData("com.example.A")
+				.getLineCoverage(1).getHits());
+		assertEquals(3, projectData.getClassData("com.example.B")
+				.getLineCoverage(1).getHits());
+
+		// The client falls back to the datafile when the collector is gone
+		try {
+			CollectorClient.send(port, 1000, CollectorClient.DELTA, hits(
+					"com.example.A", 1));
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// Good!
+		}
+	}
+
+	@Test
+	public void testWrittenDeltaIsNotSentAgainWithoutConfirmation()
+			throws Exception {
+		// a collector that reads the requests and closes the connections without confirming them
+		final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress
+				.getByName("127.0.0.1"));
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < 2; i++) {
+						Socket socket = serverSocket.accept();
+						DataInputStream in = new DataInputStream(socket
+								.getInputStream());
+						if (in.readInt() == CollectorClient.DELTA) {
+							in.readFully(new byte[in.readInt()]);
+						}
+						socket.close();
+					}
+				} catch (IOException e) {
+					// the test fails on the client side
+				}
+			}
+		};
+		thread.start();
+		try {
+			CollectorClient.send(serverSocket.getLocalPort(), 5000,
+					CollectorClient.DELTA, hits("com.example.A", 1));
+			try {
+				CollectorClient.send(serverSocket.getLocalPort(), 5000,
+						CollectorClient.STOP, null);
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// Good!
+			}
+		} finally {
+			thread.join(5000);
+			serverSocket.close();
+		}
+	}
+
+	@Test
+	public void testDeltaIsDeserialized() throws Exception {
+		ProjectData delta = Collector.deserializeDelta(serialize(hits(
+				"com.example.A", 2)));
+		assertEquals(2, delta.getClassData("com.example.A").getLineCoverage(1)
+				.getHits());
+	}
+
+	@Test
+	public void testDeltaWithForeignClassesIsRejected() throws Exception {
+		List<Object> foreign = new ArrayList<Object>();
+		foreign.add(new File("foreign"));
+		try {
+			Collector.deserializeDelta(serialize(foreign));
+			fail("Expected InvalidClassException");
+		} catch (InvalidClassException e) {
+			// Good!
+		}
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objects = new ObjectOutputStream(bytes);
+		objects.writeObject(object);
+		objects.close();
+		return bytes.toByteArray();
+	}
+
+	private static ProjectData hits(String className, int hits) {
+		ClassData classData = new ClassData(className);
+		classData.addLine(1, "test", "()V");
+		classData.touch(1, hits);
+		ProjectData projectData = new ProjectData();
+		projectData.addClassData(classData);
+		return projectData;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CounterArenaTest {
+
+	@Test
+	public void testOnlySlicesOfCollectedClassesAreCopied() throws Exception {
+		class A {
+		}
+		class B {
+		}
+		int a = CounterArena.register(A.class, 3);
+		int b = CounterArena.register(B.class, 2);
+		int[] chunkA = CounterArena.getChunk(a);
+		int baseA = CounterArena.getOffset(a);
+		int[] chunkB = CounterArena.getChunk(b);
+		int baseB = CounterArena.getOffset(b);
+		assertTrue(chunkA != chunkB || baseA + 3 <= baseB);
+
+		chunkA[baseA + 2] += 5;
+		chunkB[baseB] += 1;
+
+		CounterArena.Snapshot snapshot = CounterArena
+				.getAndReset(Arrays.<Class<?>> asList(A.class, String.class));
+		assertTrue(snapshot.contains(A.class));
+		assertArrayEquals(new int[]{0, 0, 5}, snapshot.getCounters(A.class));
+		assertFalse(snapshot.contains(B.class));
+		assertFalse(snapshot.contains(String.class));
+
+		/*the slices are cleared in place, the ones of other classes are left untouched*/
+		assertEquals(0, chunkA[baseA + 2]);
+		assertEquals(1, chunkB[baseB]);
+
+		snapshot = CounterArena.getAndReset(Arrays.<Class<?>> asList(B.class));
+		assertArrayEquals(new int[]{1, 0}, snapshot.getCounters(B.class));
+		assertEquals(0, chunkB[baseB]);
+	}
+
+	@Test
+	public void testBigClassGetsOwnChunk() throws Exception {
+		class Big {
+		}
+		int big = CounterArena.register(Big.class,
+				CounterArena.CHUNK_SIZE + 1);
+		assertEquals(CounterArena.CHUNK_SIZE + 1,
+				CounterArena.getChunk(big).length);
+		assertEquals(0, CounterArena.getOffset(big));
+
+		CounterArena.getChunk(big)[CounterArena.CHUNK_SIZE] = 7;
+		int[] res = CounterArena.getAndReset(CounterArena.getChunk(big), 0,
+				CounterArena.CHUNK_SIZE + 1);
+		assertEquals(7, res[CounterArena.CHUNK_SIZE]);
+		assertEquals(0, CounterArena.getChunk(big)[CounterArena.CHUNK_SIZE]);
+	}
+}
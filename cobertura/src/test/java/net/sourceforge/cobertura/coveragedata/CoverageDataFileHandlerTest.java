@@ -21,6 +21,8 @@
 
 package net.sourceforge.cobertura.coveragedata;
 
+import net.sourceforge.cobertura.util.FileLocker;
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +30,8 @@ import org.junit.Test;
 import java.io.File;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class CoverageDataFileHandlerTest {
 
@@ -69,8 +73,12 @@ public class CoverageDataFileHandlerTest {
 	public void tearDown() {
 		tmpDir = new File(pathToTestOutput);
 		File files[] = tmpDir.listFiles();
-		for (int i = 0; i < files.length; i++)
+		for (int i = 0; i < files.length; i++) {
+			File nested[] = files[i].listFiles();
+			for (int j = 0; nested != null && j < nested.length; j++)
+				nested[j].delete();
 			files[i].delete();
+		}
 		tmpDir.delete();
 	}
 
@@ -84,4 +92,110 @@ public class CoverageDataFileHandlerTest {
 		assertEquals(a, b);
 	}
 
+	@Test
+	public void testJournalSegmentsAreAppliedOnLoad() {
+		File dataFile = new File(tmpDir, "cobertura.ser");
+		CoverageDataFileHandler.saveCoverageData(a, dataFile);
+		CoverageDataFileHandler.appendToJournal(hits(2), dataFile);
+		CoverageDataFileHandler.appendToJournal(hits(3), dataFile);
+		assertEquals(2,
+				CoverageDataFileHandler.getJournalSegments(dataFile).length);
+
+		ProjectData b = CoverageDataFileHandler.loadCoverageData(dataFile);
+		assertEquals(5, b.getClassData("HelloWorld").getLineCoverage(1)
+				.getHits());
+		assertEquals(2, b.getNumberOfClasses());
+
+		// The segments have been compacted into the datafile, they are not applied twice
+		assertEquals(0,
+				CoverageDataFileHandler.getJournalSegments(dataFile).length);
+		assertEquals(b, CoverageDataFileHandler.loadCoverageData(dataFile));
+	}
+
+	@Test
+	public void testCompactedSegmentThatCannotBeDeletedIsNotAppliedTwice()
+			throws Exception {
+		File dataFile = new File(tmpDir, "cobertura.ser");
+		CoverageDataFileHandler.saveCoverageData(a, dataFile);
+		CoverageDataFileHandler.appendToJournal(hits(2), dataFile);
+		File segment = CoverageDataFileHandler.getJournalSegments(dataFile)[0];
+		byte[] content = FileUtils.readFileToByteArray(segment);
+		assertTrue(CoverageDataFileHandler.compactJournal(dataFile));
+
+		// As if the delete of the segment failed (or the process died before it)
+		FileUtils.writeByteArrayToFile(segment, content);
+		CoverageDataFileHandler.appendToJournal(hits(3), dataFile);
+
+		// Read while the journal is locked by somebody else, so the segments are applied only in memory
+		FileLocker fileLocker = new FileLocker(dataFile);
+		assertTrue(fileLocker.lock());
+		try {
+			ProjectData b = CoverageDataFileHandler.loadCoverageData(dataFile);
+			assertEquals(5, b.getClassData("HelloWorld").getLineCoverage(1)
+					.getHits());
+			assertEquals(2,
+					CoverageDataFileHandler.getJournalSegments(dataFile).length);
+		} finally {
+			fileLocker.release();
+		}
+
+		ProjectData b = CoverageDataFileHandler.loadCoverageData(dataFile);
+		assertEquals(5, b.getClassData("HelloWorld").getLineCoverage(1)
+				.getHits());
+		assertEquals(0,
+				CoverageDataFileHandler.getJournalSegments(dataFile).length);
+		assertEquals(b, CoverageDataFileHandler.loadCoverageData(dataFile));
+	}
+
+	@Test
+	public void testHitVectorsAreJoinedWithClassMapsOnLoad() {
+		File dataFile = new File(tmpDir, "cobertura.ser");
+		CoverageDataFileHandler.saveCoverageData(a, dataFile);
+		EncodedClassMap.Encoder encoder = new EncodedClassMap.Encoder(
+				"HelloWorld");
+		encoder.setSource("com/example/HelloWorld.java");
+		encoder.putLineTouchPoint(1, 0, "test", "(I)B");
+		encoder.putJumpTouchPoint(1, 1, 2);
+		String encodedClassMap = encoder.encode();
+		long hash = ClassMetadataStore.hash(encodedClassMap);
+		ClassMetadataStore store = new ClassMetadataStore();
+		store.put("HelloWorld", encodedClassMap);
+		store.save(ClassMetadataStore.getMetadataFile(dataFile));
+
+		HitVectors hitVectors = CoverageDataFileHandler
+				.createHitVectors(dataFile);
+		assertTrue(hitVectors.accepts("HelloWorld", hash));
+		assertFalse(hitVectors.accepts("HelloWorld", hash + 1));
+		assertFalse(hitVectors.accepts("HelloWorldHelper", hash));
+		hitVectors.add("HelloWorld", hash, new int[0], new int[]{2, 0, 2},
+				0, 3);
+		CoverageDataFileHandler.appendToJournal(hitVectors, dataFile);
+		hitVectors = CoverageDataFileHandler.createHitVectors(dataFile);
+		hitVectors.add("HelloWorld", hash, new int[0], new int[]{7, 3, 0, 1},
+				1, 3);
+		// Saved with a class-map that is not in the store any more
+		hitVectors.add("HelloWorldHelper", hash, new int[0], new int[]{5},
+				0, 1);
+		CoverageDataFileHandler.appendToJournal(hitVectors, dataFile);
+
+		ProjectData b = CoverageDataFileHandler.loadCoverageData(dataFile);
+		LineData lineData = b.getClassData("HelloWorld")
+				.getLineCoverage(1);
+		assertEquals(5, lineData.getHits());
+		assertEquals("50% (1/2)", lineData.getConditionCoverage());
+		assertEquals(0, b.getClassData("HelloWorldHelper").getLineCoverage(
+				1).getHits());
+		assertEquals(0,
+				CoverageDataFileHandler.getJournalSegments(dataFile).length);
+	}
+
+	private static ProjectData hits(int hits) {
+		ClassData classData = new ClassData("HelloWorld");
+		classData.setSourceFileName("com/example/HelloWorld.java");
+		classData.addLine(1, "test", "(I)B");
+		classData.touch(1, hits);
+		ProjectData projectData = new ProjectData();
+		projectData.addClassData(classData);
+		return projectData;
+	}
 }
@@ -0,0 +1,90 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DoubleBufferedCountersTest {
+
+	@Test
+	public void testDrainReturnsIncrementsSincePreviousDrain() throws Exception {
+		int[] counters = new int[3];
+		int[] drained = new int[3];
+		counters[1] += 5;
+		counters[2] = Integer.MAX_VALUE - 1;
+
+		int[] res = DoubleBufferedCounters.drain(counters, drained);
+		assertEquals(0, res[0]);
+		assertEquals(5, res[1]);
+		/*the live counters are not cleared*/
+		assertEquals(5, counters[1]);
+
+		counters[1]++;
+		/*overflows*/
+		counters[2] += 3;
+		res = DoubleBufferedCounters.drain(counters, drained);
+		assertEquals(1, res[1]);
+		assertEquals(3, res[2]);
+
+		res = DoubleBufferedCounters.drain(counters, drained);
+		assertEquals(0, res[1]);
+		assertEquals(0, res[2]);
+	}
+
+	@Test
+	public void testStaleValueStoredAfterDrainIsNotReportedAsNegative() throws Exception {
+		int[] counters = new int[1];
+		int[] drained = new int[1];
+		counters[0] = 5;
+		assertEquals(5, DoubleBufferedCounters.drain(counters, drained)[0]);
+
+		/*a thread that loaded 2 before the drain stores 3 back*/
+		counters[0] = 3;
+		assertEquals(0, DoubleBufferedCounters.drain(counters, drained)[0]);
+		counters[0]++;
+		assertEquals(0, DoubleBufferedCounters.drain(counters, drained)[0]);
+
+		counters[0] += 3;
+		assertEquals(2, DoubleBufferedCounters.drain(counters, drained)[0]);
+	}
+
+	@Test
+	public void testConcurrentIncrementsAreNotLost() throws Exception {
+		final int[] counters = new int[1];
+		int[] drained = new int[1];
+		Thread writer = new Thread() {
+			public void run() {
+				for (int i = 0; i < 1000000; i++) {
+					counters[0]++;
+				}
+			}
+		};
+		writer.start();
+		long sum = 0;
+		while (writer.isAlive()) {
+			sum += DoubleBufferedCounters.drain(counters, drained)[0];
+		}
+		writer.join();
+		sum += DoubleBufferedCounters.drain(counters, drained)[0];
+		assertEquals(1000000, sum);
+	}
+}
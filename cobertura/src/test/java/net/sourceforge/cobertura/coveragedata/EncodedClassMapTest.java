@@ -0,0 +1,110 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class EncodedClassMapTest {
+
+	@Test
+	public void testDecodeReportsWhatWasEncoded() throws Exception {
+		EncodedClassMap.Encoder encoder = new EncodedClassMap.Encoder(
+				"a/B");
+		encoder.setSource("B.java");
+		encoder.putDerivedCounter(3, 1, new int[]{2});
+		encoder.putLineTouchPoint(7, 0, "<init>", "()V");
+		encoder.putLineTouchPoint(70000, 1, "run", "(I)V");
+		encoder.putJumpTouchPoint(70000, 2, 3);
+		encoder.putSwitchTouchPoint(70001, null, new int[]{4, 5, 1 << 20});
+		encoder.putSwitchTouchPoint(70002, Thread.State.class.getName()
+				.replace('.', '/'), new int[]{6});
+		encoder.putLineTouchPoint(70003, 7, "run", "(I)V");
+
+		RecordingListener listener = new RecordingListener();
+		EncodedClassMap.decode(encoder.encode(), getClass(), listener);
+
+		assertEquals(Arrays.asList("clazz a/B", "source B.java",
+				"derived 3 1 [2]", "line 7 0 <init> ()V",
+				"line 70000 1 run (I)V", "jump 70000 2 3",
+				"switch 70001 " + Integer.MAX_VALUE + " [4, 5, 1048576]",
+				"switch 70002 " + Thread.State.values().length + " [6]",
+				"line 70003 7 run (I)V"), listener.events);
+	}
+
+	@Test
+	public void testEncodedNumbersAreSingleByteCharacters() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		EncodedClassMap.appendInt(sb, 0);
+		EncodedClassMap.appendInt(sb, 31);
+		EncodedClassMap.appendInt(sb, 32);
+		EncodedClassMap.appendInt(sb, Integer.MAX_VALUE);
+		assertEquals(1 + 1 + 2 + 7, sb.length());
+		for (int i = 0; i < sb.length(); i++) {
+			char c = sb.charAt(i);
+			assertEquals(true, c > 0 && c < 0x80);
+		}
+	}
+
+	private static class RecordingListener implements LightClassmapListener {
+		final List<String> events = new ArrayList<String>();
+
+		public void setClazz(Class<?> clazz) {
+			events.add("clazz " + clazz.getName());
+		}
+
+		public void setClazz(String clazz) {
+			events.add("clazz " + clazz);
+		}
+
+		public void setSource(String source) {
+			events.add("source " + source);
+		}
+
+		public void putLineTouchPoint(int classLine, int counterId,
+				String methodName, String methodDescription) {
+			events.add("line " + classLine + " " + counterId + " "
+					+ methodName + " " + methodDescription);
+		}
+
+		public void putJumpTouchPoint(int classLine, int trueCounterId,
+				int falseCounterId) {
+			events.add("jump " + classLine + " " + trueCounterId + " "
+					+ falseCounterId);
+		}
+
+		public void putSwitchTouchPoint(int classLine, int maxBranches,
+				int... counterIds) {
+			events.add("switch " + classLine + " " + maxBranches + " "
+					+ Arrays.toString(counterIds));
+		}
+
+		public void putDerivedCounter(int counterId, int sourceCounterId,
+				int... subtractedCounterIds) {
+			events.add("derived " + counterId + " " + sourceCounterId + " "
+					+ Arrays.toString(subtractedCounterIds));
+		}
+	}
+}
@@ -162,6 +162,44 @@ public class LineDataTest {
 		assertEquals(800, a.getHits());
 	}
 
+	@Test
+	public void testEstimatedHits() {
+		assertEquals(1, a.getSamplingRate());
+		a.touch(3);
+		assertEquals(3, a.getEstimatedHits());
+
+		b.setSamplingRate(10);
+		assertEquals(0, b.getEstimatedHits());
+		b.touch(1, 1);
+		assertEquals(1, b.getEstimatedHits());
+		b.touch(2, 0);
+		assertEquals(21, b.getEstimatedHits());
+
+		a.merge(b);
+		assertEquals(10, a.getSamplingRate());
+	}
+
+	@Test
+	public void testMergedFirstHitsAreNotScaled() {
+		// the first execution in every JVM is counted exactly
+		a.setSamplingRate(100);
+		for (int i = 0; i < 300; i++) {
+			LineData jvm = new LineData(10, "test1", "(I)B");
+			jvm.setSamplingRate(100);
+			jvm.touch(1, 1);
+			a.merge(jvm);
+		}
+		assertEquals(300, a.getHits());
+		assertEquals(300, a.getFirstHits());
+		assertEquals(300, a.getEstimatedHits());
+
+		LineData jvm = new LineData(10, "test1", "(I)B");
+		jvm.touch(3, 1);
+		a.merge(jvm);
+		assertEquals(301, a.getFirstHits());
+		assertEquals(301 + 2 * 100, a.getEstimatedHits());
+	}
+
 	private static void getSwitchDataIteratively(LineData data) {
 		/*
 		 * When this test fails, it usually does so well before 2000 iterations.   If it
@@ -0,0 +1,90 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MappedCountersTest {
+
+	@Test
+	public void testCountersAreVisibleInFile() throws Exception {
+		File file = File.createTempFile("cobertura", ".counters");
+		file.deleteOnExit();
+		new File(file.getPath() + MappedCountersFile.LOCK_FILE_SUFFIX)
+				.deleteOnExit();
+		MappedCountersFile countersFile = new MappedCountersFile(file, 10);
+
+		MappedCounters a = new MappedCounters(countersFile.allocate("a.A", 3,
+				1));
+		MappedCounters b = new MappedCounters(countersFile.allocate("b.B", 2, 2));
+		assertNull(countersFile.allocate("c.C", 6, 3));
+
+		a.increment(1);
+		a.increment(1);
+		b.increment(0);
+
+		Map<String, int[]> counters = MappedCounters.readCounters(file);
+		assertEquals(2, counters.size());
+		assertEquals(0, counters.get("a.A")[0]);
+		assertEquals(2, counters.get("a.A")[1]);
+		assertEquals(1, counters.get("b.B")[0]);
+
+		int[] res = a.getAndReset();
+		assertEquals(2, res[1]);
+		a.increment(1);
+		res = a.getAndReset();
+		assertEquals(1, res[1]);
+
+		/*the file is not reset*/
+		assertEquals(3, MappedCounters.readCounters(file).get("a.A")[1]);
+	}
+
+	@Test
+	public void testSliceIsResetWhenClassMapDiffers() throws Exception {
+		File file = File.createTempFile("cobertura", ".counters");
+		file.deleteOnExit();
+		new File(file.getPath() + MappedCountersFile.LOCK_FILE_SUFFIX)
+				.deleteOnExit();
+		MappedCountersFile countersFile = new MappedCountersFile(file, 10);
+
+		MappedCounters a = new MappedCounters(countersFile.allocate("a.A", 3,
+				1));
+		a.increment(1);
+
+		/*the same instrumentation of the class keeps the hits*/
+		a = new MappedCounters(countersFile.allocate("a.A", 3, 1));
+		a.increment(1);
+		assertEquals(2, MappedCounters.readCounters(file).get("a.A")[1]);
+
+		/*the same count of counters, but a different class-map*/
+		a = new MappedCounters(countersFile.allocate("a.A", 3, 2));
+		assertEquals(0, MappedCounters.readCounters(file).get("a.A")[1]);
+		a.increment(1);
+		assertEquals(1, a.getAndReset()[1]);
+		assertEquals(1, MappedCounters.readCounters(file).get("a.A")[1]);
+	}
+}
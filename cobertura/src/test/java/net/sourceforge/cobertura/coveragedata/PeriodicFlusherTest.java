@@ -0,0 +1,63 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeriodicFlusherTest {
+
+	@Test
+	public void testPauseIsIntervalPlusJitter() throws Exception {
+		PeriodicFlusher flusher = new PeriodicFlusher(1000, 100, 10000);
+		for (int i = 0; i < 100; i++) {
+			long pause = flusher.nextPause();
+			assertTrue(pause >= 1000 && pause < 1100);
+		}
+	}
+
+	@Test
+	public void testSlowFlushPostponesNextOneUpToMaxPause() throws Exception {
+		PeriodicFlusher flusher = new PeriodicFlusher(1000, 0, 10000);
+		flusher.recordFlush(50);
+		assertEquals(1000, flusher.nextPause());
+		flusher.recordFlush(300);
+		assertEquals(300 * PeriodicFlusher.BACKOFF_FACTOR, flusher
+				.nextPause());
+		flusher.recordFlush(5000);
+		assertEquals(10000, flusher.nextPause());
+		flusher.recordFlush(10);
+		assertEquals(1000, flusher.nextPause());
+	}
+
+	@Test
+	public void testFlushLatencyIsExposed() throws Exception {
+		PeriodicFlusher flusher = new PeriodicFlusher(1000, 0, 1000);
+		flusher.recordFlush(30);
+		flusher.recordFlush(70);
+		flusher.recordFlush(20);
+		assertEquals(3, flusher.getFlushCount());
+		assertEquals(20, flusher.getLastFlushLatency());
+		assertEquals(70, flusher.getMaxFlushLatency());
+		assertEquals(120, flusher.getTotalFlushLatency());
+	}
+}
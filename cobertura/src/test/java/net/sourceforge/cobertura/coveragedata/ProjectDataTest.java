@@ -25,11 +25,14 @@ package net.sourceforge.cobertura.coveragedata;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Iterator;
 import java.util.SortedSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ProjectDataTest {
@@ -170,4 +173,52 @@ public class ProjectDataTest {
 		assertEquals("com.example.test", ((PackageData) subPackages.next())
 				.getName());
 	}
+
+	@Test
+	public void testSaveGlobalProjectDataSnapshot() throws Exception {
+		ClassData classData = new ClassData("com.example.Snapshot");
+		classData.addLine(1, "test", "()V");
+		classData.touch(1, 3);
+		ProjectData.getGlobalProjectData().addClassData(classData);
+		File dataFile = File.createTempFile("snapshot", ".ser");
+		dataFile.deleteOnExit();
+
+		ProjectData.saveGlobalProjectDataSnapshot(dataFile);
+
+		ProjectData snapshot = CoverageDataFileHandler
+				.loadCoverageData(dataFile);
+		assertEquals(3, snapshot.getClassData("com.example.Snapshot")
+				.getLineCoverage(1).getHits());
+		// The data is not reset by the snapshot
+		assertEquals(classData, ProjectData.getGlobalProjectData()
+				.getClassData("com.example.Snapshot"));
+	}
+
+	@Test
+	public void testSwapWaitsOnlyForUsersOfGlobalProjectData()
+			throws Exception {
+		final ProjectData entered = ProjectData.enterGlobalProjectData();
+		final ProjectData[] swapped = new ProjectData[1];
+		Thread saver = new Thread() {
+			public void run() {
+				swapped[0] = ProjectData.swapGlobalProjectData();
+			}
+		};
+		saver.start();
+		saver.join(200);
+		assertTrue(saver.isAlive());
+
+		ClassData classData = new ClassData("com.example.Swapped");
+		entered.addClassData(classData);
+		ProjectData.exitGlobalProjectData(entered);
+		saver.join(500);
+		assertFalse(saver.isAlive());
+		assertSame(entered, swapped[0]);
+		assertSame(classData, swapped[0].getClassData("com.example.Swapped"));
+		assertNotSame(entered, ProjectData.getGlobalProjectData());
+
+		long start = System.currentTimeMillis();
+		ProjectData.swapGlobalProjectData();
+		assertTrue(System.currentTimeMillis() - start < 500);
+	}
 }
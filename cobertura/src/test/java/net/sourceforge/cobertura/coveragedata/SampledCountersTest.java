@@ -0,0 +1,54 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampledCountersTest {
+
+	@Test
+	public void testFirstTouchIsAlwaysCounted() throws Exception {
+		int[] counters = new int[3];
+		SampledCounters.touch(counters, 1, 1000000);
+		SampledCounters.touch(counters, 2, 1000000);
+		assertEquals(0, counters[0]);
+		assertEquals(1, counters[1]);
+		assertEquals(1, counters[2]);
+	}
+
+	@Test
+	public void testOneInRateTouchesIsCounted() throws Exception {
+		int[] counters = new int[1];
+		for (int i = 0; i < 100000; i++) {
+			SampledCounters.touch(counters, 0, 10);
+		}
+		assertTrue(counters[0] > 9000 && counters[0] < 11000);
+
+		counters[0] = 0;
+		for (int i = 0; i < 1000; i++) {
+			SampledCounters.touch(counters, 0, 1);
+		}
+		assertEquals(1000, counters[0]);
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedCountersTest {
+
+	@Test
+	public void testStripesAreFoldedOnReset() throws Exception {
+		final int[][] counters = StripedCounters.newCounters(3);
+		assertEquals(0, counters.length & (counters.length - 1));
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						StripedCounters.stripe(counters)[1]++;
+					}
+				}
+			};
+			threads[i].start();
+			threads[i].join();
+		}
+		StripedCounters.stripe(counters)[2]++;
+
+		int[] res = StripedCounters.getAndReset(counters);
+		assertEquals(3, res.length);
+		assertEquals(0, res[0]);
+		assertEquals(8000, res[1]);
+		assertEquals(1, res[2]);
+
+		res = StripedCounters.getAndReset(counters);
+		assertEquals(0, res[1]);
+		assertEquals(0, res[2]);
+	}
+}
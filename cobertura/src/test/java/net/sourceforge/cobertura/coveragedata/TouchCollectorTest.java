@@ -0,0 +1,212 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.coveragedata;
+
+import net.sourceforge.cobertura.instrument.CoberturaInstrumenter;
+import net.sourceforge.cobertura.instrument.pass3.AbstractCodeProvider;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TouchCollectorTest {
+
+	@Test
+	public void testIntCountersAreHits() {
+		int[] counters = new int[]{0, 3, 1};
+		assertSame(counters, TouchCollector.toHits(counters));
+	}
+
+	@Test
+	public void testBooleanFlagsAreSingleHits() {
+		assertArrayEquals(new int[]{0, 1, 0, 1}, TouchCollector
+				.toHits(new boolean[]{false, true, false, true}));
+	}
+
+	@Test
+	public void testOnlyClassesTouchedSinceLastDrainAreCollected()
+			throws Exception {
+		Class<?> touched = instrumentAndLoad(TrackedFixture.class,
+				CodeProviderType.FAST_ARRAY, true);
+		Class<?> untouched = instrumentAndLoad(UntouchedFixture.class,
+				CodeProviderType.FAST_ARRAY, true);
+		Method call = touched.getMethod("call", int.class);
+		drain();
+
+		call.invoke(null, 1);
+		assertEquals(2, getHits(drain(), touched));
+
+		// touched again after its flag has been polled and cleared
+		call.invoke(null, 0);
+		ProjectData projectData = drain();
+		assertEquals(2, getHits(projectData, touched));
+		assertNull(projectData.getClassData(untouched.getName()));
+
+		assertNull(drain().getClassData(touched.getName()));
+	}
+
+	@Test
+	public void testArenaHitsOfClassTrackingTouchesAreKeptUntilItIsTouched()
+			throws Exception {
+		Class<?> clazz = instrumentAndLoad(ArenaFixture.class,
+				CodeProviderType.ARENA, true);
+		Method call = clazz.getMethod("call", int.class);
+		call.invoke(null, 1);
+		int hitsOfCall = getHits(drain(), clazz);
+
+		/*the flag is already set, so the next call doesn't queue the class, like
+		 a call that runs just after the flag has been polled*/
+		TouchFlag flag = getTouchFlag(clazz);
+		flag.touched = true;
+		call.invoke(null, 1);
+		assertEquals(0, getHits(drain(), clazz));
+
+		/*the slice of the class hasn't been collected, so its counters are applied with the next touch*/
+		flag.touched = false;
+		call.invoke(null, 1);
+		assertEquals(2 * hitsOfCall, getHits(drain(), clazz));
+		assertEquals(0, getHits(drain(), clazz));
+	}
+
+	@Test
+	public void testOnlyFirstCollectedHitsAreFirstHits() throws Exception {
+		Class<?> clazz = instrumentAndLoad(SampledFixture.class,
+				CodeProviderType.SAMPLED_ARRAY, false);
+		Method call = clazz.getMethod("call", int.class);
+		drain();
+		call.invoke(null, 1);
+		ProjectData projectData = drain();
+		// the condition and the return
+		assertEquals(2, getHits(projectData, clazz));
+		assertEquals(2, getFirstHits(projectData, clazz));
+
+		call.invoke(null, 1);
+		call.invoke(null, 1);
+		assertEquals(0, getFirstHits(drain(), clazz));
+	}
+
+	static ProjectData drain() {
+		ProjectData projectData = new ProjectData();
+		TouchCollector.applyTouchesOnProjectData(projectData);
+		return projectData;
+	}
+
+	static int getHits(ProjectData projectData, Class<?> clazz) {
+		ClassData classData = projectData.getClassData(clazz.getName());
+		int hits = 0;
+		if (classData != null) {
+			for (CoverageData line : classData.getLines()) {
+				hits += ((LineData) line).getHits();
+			}
+		}
+		return hits;
+	}
+
+	static long getFirstHits(ProjectData projectData, Class<?> clazz) {
+		ClassData classData = projectData.getClassData(clazz.getName());
+		long firstHits = 0;
+		if (classData != null) {
+			for (CoverageData line : classData.getLines()) {
+				firstHits += ((LineData) line).getFirstHits();
+			}
+		}
+		return firstHits;
+	}
+
+	static TouchFlag getTouchFlag(Class<?> clazz) throws Exception {
+		return (TouchFlag) clazz.getField(
+				AbstractCodeProvider.COBERTURA_TOUCH_FLAG_FIELD_NAME).get(null);
+	}
+
+	/**
+	 * Instruments the fixture and defines the instrumented copy in its own class loader
+	 * (so it is registered in {@link TouchCollector} separately from the other tests).
+	 */
+	static Class<?> instrumentAndLoad(final Class<?> fixture,
+			CodeProviderType codeProviderType, boolean trackTouchedClasses)
+			throws Exception {
+		CoberturaInstrumenter instrumenter = new CoberturaInstrumenter();
+		instrumenter.setProjectData(new ProjectData());
+		instrumenter.setCodeProviderType(codeProviderType);
+		instrumenter.setTrackTouchedClasses(trackTouchedClasses);
+		InputStream is = fixture.getClassLoader().getResourceAsStream(
+				fixture.getName().replace('.', '/') + ".class");
+		final byte[] content;
+		try {
+			content = instrumenter.instrumentClass(is).getContent();
+		} finally {
+			is.close();
+		}
+		ClassLoader loader = new ClassLoader(fixture.getClassLoader()) {
+			@Override
+			protected synchronized Class<?> loadClass(String name,
+					boolean resolve) throws ClassNotFoundException {
+				if (!name.equals(fixture.getName())) {
+					return super.loadClass(name, resolve);
+				}
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					c = defineClass(name, content, 0, content.length);
+				}
+				return c;
+			}
+		};
+		return Class.forName(fixture.getName(), true, loader);
+	}
+
+	public static class TrackedFixture {
+		public static int call(int i) {
+			if (i > 0) {
+				return 1;
+			}
+			return 0;
+		}
+	}
+
+	public static class UntouchedFixture {
+		public static int call(int i) {
+			return i;
+		}
+	}
+
+	public static class ArenaFixture {
+		public static int call(int i) {
+			if (i > 0) {
+				return 1;
+			}
+			return 0;
+		}
+	}
+
+	public static class SampledFixture {
+		public static int call(int i) {
+			if (i > 0) {
+				return 1;
+			}
+			return 0;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package net.sourceforge.cobertura.dsl;
 import net.sourceforge.cobertura.check.CoverageThreshold;
 import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
 import net.sourceforge.cobertura.instrument.CoberturaFile;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import org.junit.Test;
 
 import java.io.BufferedWriter;
@@ -121,6 +122,80 @@ public class ArgumentsBuilderTest {
 				.isThreadsafeRigorous());
 	}
 
+	@Test
+	public void testCodeProvider() throws Exception {
+		assertEquals(CodeProviderType.STRIPED_ARRAY, new ArgumentsBuilder()
+				.codeProvider("striped").build().getCodeProviderType());
+		assertEquals(CodeProviderType.ATOMIC_ARRAY, new ArgumentsBuilder()
+				.threadsafeRigorous(true).build().getCodeProviderType());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCodeProvider() throws Exception {
+		new ArgumentsBuilder().codeProvider("unknown");
+	}
+
+	@Test
+	public void testCacheCounters() throws Exception {
+		boolean cacheCounters = true;
+		assertEquals(cacheCounters, new ArgumentsBuilder().cacheCounters(
+				cacheCounters).build().isCacheCounters());
+	}
+
+	@Test
+	public void testEdgeProbes() throws Exception {
+		boolean edgeProbes = true;
+		assertEquals(edgeProbes, new ArgumentsBuilder().edgeProbes(
+				edgeProbes).build().isEdgeProbes());
+	}
+
+	@Test
+	public void testMinimizeProbes() throws Exception {
+		boolean minimizeProbes = true;
+		assertEquals(minimizeProbes, new ArgumentsBuilder().minimizeProbes(
+				minimizeProbes).build().isMinimizeProbes());
+	}
+
+	@Test
+	public void testSamplingRate() throws Exception {
+		int samplingRate = 10;
+		assertEquals(samplingRate, new ArgumentsBuilder().samplingRate(
+				samplingRate).build().getSamplingRate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSamplingRateMustBePositive() throws Exception {
+		new ArgumentsBuilder().samplingRate(0);
+	}
+
+	@Test
+	public void testTrackTouchedClasses() throws Exception {
+		boolean trackTouchedClasses = true;
+		assertEquals(trackTouchedClasses, new ArgumentsBuilder().trackTouchedClasses(
+				trackTouchedClasses).build().isTrackTouchedClasses());
+	}
+
+	@Test
+	public void testKillSwitch() throws Exception {
+		boolean killSwitch = true;
+		assertEquals(killSwitch, new ArgumentsBuilder().killSwitch(
+				killSwitch).build().isKillSwitch());
+	}
+
+	@Test
+	public void testHoistLoopCounters() throws Exception {
+		boolean hoistLoopCounters = true;
+		assertEquals(hoistLoopCounters, new ArgumentsBuilder().hoistLoopCounters(
+				hoistLoopCounters).build().isHoistLoopCounters());
+	}
+
+	@Test
+	public void testMethodCoverageOnly() throws Exception {
+		boolean methodCoverageOnly = true;
+		assertEquals(methodCoverageOnly, new ArgumentsBuilder().methodCoverageOnly(
+				methodCoverageOnly).build().isMethodCoverageOnly());
+	}
+
 	@Test
 	public void testSetFormat() throws Exception {
 		boolean failOnError = true;
@@ -346,6 +421,24 @@ public class ArgumentsBuilderTest {
 				.isIgnoreTrivial());
 		assertEquals(ArgumentsBuilder.DEFAULT_THREADSAFE_RIGOROUS, defaultArgs
 				.isThreadsafeRigorous());
+		assertEquals(CodeProviderType.FAST_ARRAY, defaultArgs
+				.getCodeProviderType());
+		assertEquals(ArgumentsBuilder.DEFAULT_CACHE_COUNTERS, defaultArgs
+				.isCacheCounters());
+		assertEquals(ArgumentsBuilder.DEFAULT_EDGE_PROBES, defaultArgs
+				.isEdgeProbes());
+		assertEquals(ArgumentsBuilder.DEFAULT_MINIMIZE_PROBES, defaultArgs
+				.isMinimizeProbes());
+		assertEquals(ArgumentsBuilder.DEFAULT_SAMPLING_RATE, defaultArgs
+				.getSamplingRate());
+		assertEquals(ArgumentsBuilder.DEFAULT_TRACK_TOUCHED_CLASSES, defaultArgs
+				.isTrackTouchedClasses());
+		assertEquals(ArgumentsBuilder.DEFAULT_KILL_SWITCH, defaultArgs
+				.isKillSwitch());
+		assertEquals(ArgumentsBuilder.DEFAULT_HOIST_LOOP_COUNTERS, defaultArgs
+				.isHoistLoopCounters());
+		assertEquals(ArgumentsBuilder.DEFAULT_METHOD_COVERAGE_ONLY, defaultArgs
+				.isMethodCoverageOnly());
 		assertEquals(ArgumentsBuilder.DEFAULT_ENCODING, defaultArgs
 				.getEncoding());
 	}
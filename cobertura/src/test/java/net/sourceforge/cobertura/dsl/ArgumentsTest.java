@@ -2,6 +2,7 @@ package net.sourceforge.cobertura.dsl;
 
 import net.sourceforge.cobertura.check.CoverageThreshold;
 import net.sourceforge.cobertura.instrument.CoberturaFile;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import net.sourceforge.cobertura.util.FileFinder;
 import net.sourceforge.cobertura.util.RegexUtil;
 import org.apache.oro.text.regex.Pattern;
@@ -33,6 +34,15 @@ public class ArgumentsTest {
 	private static final boolean FAIL_ON_ERROR = false;
 	private static final boolean IGNORE_TRIVIAL = true;
 	private static final boolean THREADSAFE_RIGOROUS = true;
+	private static final CodeProviderType CODE_PROVIDER_TYPE = CodeProviderType.STRIPED_ARRAY;
+	private static final boolean CACHE_COUNTERS = true;
+	private static final boolean EDGE_PROBES = true;
+	private static final boolean MINIMIZE_PROBES = true;
+	private static final int SAMPLING_RATE = 10;
+	private static final boolean TRACK_TOUCHED_CLASSES = true;
+	private static final boolean KILL_SWITCH = true;
+	private static final boolean HOIST_LOOP_COUNTERS = true;
+	private static final boolean METHOD_COVERAGE_ONLY = true;
 	private static final String ENCODING = "UTF-8";
 	private static final String IGNORE_REGEX_PATTERN = "ignoreRegexPattern";
 	private static final String IGNORE_BRANCHES_REGEXES = "ignoreBranchesRegexes";
@@ -81,7 +91,16 @@ public class ArgumentsTest {
 				ignoreBranchesRegexes, classPatternIncludeClassesRegexes,
 				classPatternExcludeClassesRegexes,
 				CALCULATE_METHOD_COMPLEXITY, FAIL_ON_ERROR,
-				IGNORE_TRIVIAL, THREADSAFE_RIGOROUS, ENCODING,
+				IGNORE_TRIVIAL, THREADSAFE_RIGOROUS, CODE_PROVIDER_TYPE,
+				CACHE_COUNTERS,
+				EDGE_PROBES,
+				MINIMIZE_PROBES,
+				SAMPLING_RATE,
+				TRACK_TOUCHED_CLASSES,
+				KILL_SWITCH,
+				HOIST_LOOP_COUNTERS,
+				METHOD_COVERAGE_ONLY,
+				ENCODING,
 				minimumCoverageThresholds, CLASS_LINE_THRESHOLD,
 				CLASS_BRANCH_THRESHOLD, PACKAGE_LINE_THRESHOLD,
 				PACKAGE_BRANCH_THRESHOLD, TOTAL_LINE_THRESHOLD,
@@ -154,6 +173,51 @@ public class ArgumentsTest {
 		assertEquals(THREADSAFE_RIGOROUS, arguments.isThreadsafeRigorous());
 	}
 
+	@Test
+	public void testGetCodeProviderType() throws Exception {
+		assertEquals(CODE_PROVIDER_TYPE, arguments.getCodeProviderType());
+	}
+
+	@Test
+	public void testIsCacheCounters() throws Exception {
+		assertEquals(CACHE_COUNTERS, arguments.isCacheCounters());
+	}
+
+	@Test
+	public void testIsEdgeProbes() throws Exception {
+		assertEquals(EDGE_PROBES, arguments.isEdgeProbes());
+	}
+
+	@Test
+	public void testIsMinimizeProbes() throws Exception {
+		assertEquals(MINIMIZE_PROBES, arguments.isMinimizeProbes());
+	}
+
+	@Test
+	public void testGetSamplingRate() throws Exception {
+		assertEquals(SAMPLING_RATE, arguments.getSamplingRate());
+	}
+
+	@Test
+	public void testIsTrackTouchedClasses() throws Exception {
+		assertEquals(TRACK_TOUCHED_CLASSES, arguments.isTrackTouchedClasses());
+	}
+
+	@Test
+	public void testIsKillSwitch() throws Exception {
+		assertEquals(KILL_SWITCH, arguments.isKillSwitch());
+	}
+
+	@Test
+	public void testIsHoistLoopCounters() throws Exception {
+		assertEquals(HOIST_LOOP_COUNTERS, arguments.isHoistLoopCounters());
+	}
+
+	@Test
+	public void testIsMethodCoverageOnly() throws Exception {
+		assertEquals(METHOD_COVERAGE_ONLY, arguments.isMethodCoverageOnly());
+	}
+
 	@Test
 	public void testGetEncoding() throws Exception {
 		assertEquals(ENCODING, arguments.getEncoding());
@@ -0,0 +1,117 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.dump;
+
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.instrument.CoberturaAgent;
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class DumpMainTest {
+	private ProjectData savedGlobalProjectData;
+
+	private File dataFile;
+
+	@Before
+	public void setUp() throws Exception {
+		ProjectData projectData = new ProjectData();
+		ClassData classData = projectData.getOrCreateClassData("test.Dumped");
+		classData.addLine(1, "f", "()V");
+		classData.touch(1, 3);
+		savedGlobalProjectData = TestUtils.setGlobalProjectData(projectData);
+		dataFile = File.createTempFile("cobertura-dump", ".ser");
+		dataFile.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.setGlobalProjectData(savedGlobalProjectData);
+		dataFile.delete();
+	}
+
+	@Test
+	public void testAgentSavesSnapshotOfGlobalProjectData() throws Exception {
+		CoberturaAgent.agentmain(CoberturaAgent.DUMP_OPTION + ","
+				+ dataFile.getAbsolutePath(), null);
+
+		assertDumped(dataFile);
+	}
+
+	@Test
+	public void testDumpOfRunningJvm() throws Exception {
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		String pid = name.substring(0, name.indexOf('@'));
+
+		assertEquals(0, DumpMain.dump(new String[]{"--pid", pid,
+				"--datafile", dataFile.getAbsolutePath(), "--agentJar",
+				createAgentJar().getAbsolutePath()}));
+
+		assertDumped(dataFile);
+		// the data is not reset
+		assertEquals(3, ProjectData.getGlobalProjectData().getClassData(
+				"test.Dumped").getLineData(1).getHits());
+	}
+
+	@Test
+	public void testMissingArgumentsAreRejected() throws Exception {
+		assertEquals(1, DumpMain.dump(new String[]{"--pid", "1"}));
+		assertEquals(1, DumpMain.dump(new String[]{"--datafile",
+				dataFile.getAbsolutePath()}));
+		assertFalse(dataFile.exists());
+	}
+
+	private static void assertDumped(File dataFile) {
+		ProjectData dumped = CoverageDataFileHandler.loadCoverageData(dataFile);
+		assertNotNull(dumped);
+		ClassData classData = dumped.getClassData("test.Dumped");
+		assertNotNull(classData);
+		assertEquals(3, classData.getLineData(1).getHits());
+	}
+
+	/**
+	 * @return jar with the manifest of the agent only, its classes are already loaded by the JVM
+	 */
+	private File createAgentJar() throws Exception {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue("Agent-Class", CoberturaAgent.class.getName());
+		File agentJar = File.createTempFile("cobertura-agent", ".jar");
+		agentJar.deleteOnExit();
+		new JarOutputStream(new FileOutputStream(agentJar), manifest).close();
+		return agentJar;
+	}
+}
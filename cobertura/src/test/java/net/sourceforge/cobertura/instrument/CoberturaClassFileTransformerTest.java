@@ -0,0 +1,152 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Copyright (C) 2011 Piotr Tabor
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.instrument;
+
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.test.util.TestUtils;
+import net.sourceforge.cobertura.util.IOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CoberturaClassFileTransformerTest {
+	private static final String CLASS_NAME = "test/condition/ConditionCalls";
+
+	/**
+	 * The transformer merges the touch-points into the global project data, which is saved when the JVM exits
+	 */
+	private ProjectData savedGlobalProjectData;
+
+	@Before
+	public void setUp() throws Exception {
+		savedGlobalProjectData = TestUtils
+				.setGlobalProjectData(new ProjectData());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.setGlobalProjectData(savedGlobalProjectData);
+	}
+
+	@Test
+	public void instrumentsLoadedClass() throws Exception {
+		ClassLoader loader = getClass().getClassLoader();
+		CoberturaClassFileTransformer transformer = new CoberturaClassFileTransformer(
+				CoberturaAgent
+						.parseAgentArgs("--includeClasses,test\\.condition\\..*"));
+		byte[] instrumented = transformer.transform(loader, CLASS_NAME, null,
+				null, readClass(loader));
+
+		assertNotNull(instrumented);
+		assertTrue(getFieldNames(instrumented).contains(
+				"__cobertura_counters"));
+		assertNotNull(ProjectData.getGlobalProjectData().getClassData(
+				"test.condition.ConditionCalls"));
+	}
+
+	@Test
+	public void reinstrumentsDeinstrumentedClassWithoutProbes()
+			throws Exception {
+		ClassLoader loader = getClass().getClassLoader();
+		CoberturaClassFileTransformer transformer = new CoberturaClassFileTransformer(
+				CoberturaAgent
+						.parseAgentArgs("--includeClasses,test\\.condition\\..*"));
+		Class<?> loadedClass = ProjectData.class;
+
+		assertNull(transformer.transform(loader, CLASS_NAME, loadedClass,
+				null, readClass(loader)));
+		byte[] instrumented = transformer.transform(loader, CLASS_NAME, null,
+				null, readClass(loader));
+		transformer.deinstrument(CLASS_NAME);
+		byte[] deinstrumented = transformer.transform(loader, CLASS_NAME,
+				loadedClass, null, readClass(loader));
+
+		assertTrue(transformer.getInstrumentedClasses().contains(CLASS_NAME));
+		assertNotNull(deinstrumented);
+		assertEquals(getFieldNames(instrumented),
+				getFieldNames(deinstrumented));
+		assertTrue(deinstrumented.length < instrumented.length);
+	}
+
+	@Test
+	public void ignoresExcludedClasses() throws Exception {
+		ClassLoader loader = getClass().getClassLoader();
+		CoberturaClassFileTransformer transformer = new CoberturaClassFileTransformer(
+				CoberturaAgent.parseAgentArgs("--includeClasses,test\\..*,"
+						+ "--excludeClasses,test\\.condition\\..*"));
+
+		assertNull(transformer.transform(loader, CLASS_NAME, null, null,
+				readClass(loader)));
+	}
+
+	@Test
+	public void ignoresJvmAndBootstrapClasses() throws Exception {
+		CoberturaClassFileTransformer transformer = new CoberturaClassFileTransformer(
+				CoberturaAgent.parseAgentArgs(null));
+		ClassLoader loader = getClass().getClassLoader();
+
+		assertTrue(transformer.shouldBeInstrumented(loader, CLASS_NAME, null));
+		assertFalse(transformer.shouldBeInstrumented(null, CLASS_NAME, null));
+		assertFalse(transformer.shouldBeInstrumented(loader,
+				"java/lang/String", null));
+		assertFalse(transformer.shouldBeInstrumented(loader,
+				"net/sourceforge/cobertura/coveragedata/ProjectData", null));
+		assertFalse(transformer.shouldBeInstrumented(loader, CLASS_NAME,
+				Object.class));
+	}
+
+	private static byte[] readClass(ClassLoader loader) throws Exception {
+		InputStream is = loader.getResourceAsStream(CLASS_NAME + ".class");
+		try {
+			return IOUtil.createByteArrayFromInputStream(is);
+		} finally {
+			IOUtil.closeInputStream(is);
+		}
+	}
+
+	private static Set<String> getFieldNames(byte[] bytecode) {
+		final Set<String> names = new HashSet<String>();
+		new ClassReader(bytecode).accept(new ClassVisitor(Opcodes.ASM5) {
+			@Override
+			public FieldVisitor visitField(int access, String name,
+					String desc, String signature, Object value) {
+				names.add(name);
+				return null;
+			}
+		}, 0);
+		return names;
+	}
+}
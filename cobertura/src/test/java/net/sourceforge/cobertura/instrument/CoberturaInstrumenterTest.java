@@ -25,9 +25,16 @@
 
 package net.sourceforge.cobertura.instrument;
 
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.ClassMetadataStore;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.instrument.pass3.CodeProviderType;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
 
 public class CoberturaInstrumenterTest {
 	private final CoberturaInstrumenter coberturaInstrumenter = new CoberturaInstrumenter();
@@ -39,4 +46,62 @@ public class CoberturaInstrumenterTest {
 		coberturaInstrumenter.addInstrumentationToSingleClass(new File(
 				"test/net/sourceforge/cobertura/instrument/notExisting.class"));
 	}
+
+	@Test
+	public void instrumentMethodCoverageOnly() throws Exception {
+		ClassData full = instrumentConditionCalls(false);
+		ClassData methodsOnly = instrumentConditionCalls(true);
+
+		assertTrue(full.getNumberOfValidBranches() > 0);
+		assertTrue(full.getNumberOfValidLines() > full
+				.getMethodNamesAndDescriptors().size());
+		assertEquals(0, methodsOnly.getNumberOfValidBranches());
+		assertEquals(full.getMethodNamesAndDescriptors(), methodsOnly
+				.getMethodNamesAndDescriptors());
+		assertEquals(methodsOnly.getMethodNamesAndDescriptors().size(),
+				methodsOnly.getNumberOfValidLines());
+		assertFalse(full.isMethodCoverageOnly());
+		assertTrue(methodsOnly.isMethodCoverageOnly());
+
+		// the label survives merging with data collected at runtime
+		ClassData collected = new ClassData(methodsOnly.getName());
+		collected.merge(methodsOnly);
+		assertTrue(collected.isMethodCoverageOnly());
+	}
+
+	@Test
+	public void sampledClassIsNotPutIntoMetadataStore() throws Exception {
+		ClassMetadataStore store = new ClassMetadataStore();
+		CoberturaInstrumenter instrumenter = new CoberturaInstrumenter();
+		instrumenter.setProjectData(new ProjectData());
+		instrumenter.setClassMetadataStore(store);
+		instrumentConditionCalls(instrumenter);
+		assertEquals(1, store.size());
+
+		// the class-map of the previous instrumentation must not be used for the sampled class
+		instrumenter.setCodeProviderType(CodeProviderType.SAMPLED_ARRAY);
+		instrumentConditionCalls(instrumenter);
+		assertEquals(0, store.size());
+	}
+
+	private static void instrumentConditionCalls(
+			CoberturaInstrumenter instrumenter) throws Exception {
+		InputStream is = CoberturaInstrumenterTest.class.getClassLoader()
+				.getResourceAsStream("test/condition/ConditionCalls.class");
+		try {
+			assertNotNull(instrumenter.instrumentClass(is));
+		} finally {
+			is.close();
+		}
+	}
+
+	private static ClassData instrumentConditionCalls(
+			boolean methodCoverageOnly) throws Exception {
+		ProjectData projectData = new ProjectData();
+		CoberturaInstrumenter instrumenter = new CoberturaInstrumenter();
+		instrumenter.setProjectData(projectData);
+		instrumenter.setMethodCoverageOnly(methodCoverageOnly);
+		instrumentConditionCalls(instrumenter);
+		return projectData.getClassData("test.condition.ConditionCalls");
+	}
 }
@@ -0,0 +1,67 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Copyright (C) 2011 Piotr Tabor
+ *
+ * Note: This file is dual licensed under the GPL and the Apache
+ * Source License (so that it can be used from both the main
+ * Cobertura classes and the ant tasks).
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+package net.sourceforge.cobertura.instrument;
+
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoveredClassesDeinstrumenterTest {
+
+	@Test
+	public void classWithUncoveredLineIsNotFullyCovered() {
+		ClassData classData = new ClassData("test.Covered");
+		classData.addLine(1, "f", "()V");
+		classData.addLine(2, "f", "()V");
+		classData.touch(1, 1);
+
+		assertFalse(CoveredClassesDeinstrumenter.isFullyCovered(classData));
+		classData.touch(2, 1);
+		assertTrue(CoveredClassesDeinstrumenter.isFullyCovered(classData));
+	}
+
+	@Test
+	public void classWithUncoveredBranchIsNotFullyCovered() {
+		ClassData classData = new ClassData("test.Covered");
+		classData.addLine(1, "f", "()V");
+		classData.addLineJump(1, 0);
+		classData.touch(1, 1);
+		classData.touchJump(1, 0, true, 1);
+
+		assertFalse(CoveredClassesDeinstrumenter.isFullyCovered(classData));
+		classData.touchJump(1, 0, false, 1);
+		assertTrue(CoveredClassesDeinstrumenter.isFullyCovered(classData));
+	}
+
+	@Test
+	public void unknownOrEmptyClassIsNotFullyCovered() {
+		assertFalse(CoveredClassesDeinstrumenter.isFullyCovered(null));
+		assertFalse(CoveredClassesDeinstrumenter
+				.isFullyCovered(new ClassData("test.Empty")));
+	}
+}
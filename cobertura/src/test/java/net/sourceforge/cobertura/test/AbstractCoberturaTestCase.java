@@ -17,6 +17,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -121,6 +122,45 @@ public class AbstractCoberturaTestCase {
 				+ "/coverage-xml/coverage.xml");
 	}
 
+	/**
+	 * Instruments the classes compiled in srcDir, runs mypackage.Main in a forked JVM and creates the xml report.
+	 * The instrumented classes and the datafile of a previous call are deleted first, so the same classes can be
+	 * run with different instrumentation.
+	 *
+	 * @param arguments - instrumentation arguments (see {@link TestUtils#instrumentClasses(groovy.util.AntBuilder, File, File, File, Map)})
+	 * @return dom of the xml report
+	 */
+	public Node instrumentAndExecuteMainMethod(Map arguments) throws Exception {
+		FileUtils.deleteDirectory(instrumentDir);
+		instrumentDir.mkdirs();
+		datafile.delete();
+
+		TestUtils.instrumentClasses(TestUtils.antBuilder, srcDir, datafile,
+				instrumentDir, arguments);
+
+		Java java = new Java();
+		java.setProject(TestUtils.project);
+		java.setClassname("mypackage.Main");
+		java.setDir(srcDir);
+		java.setFork(true);
+		java.setFailonerror(true);
+		java.setClasspath(TestUtils.getCoberturaDefaultClasspath());
+		java.execute();
+
+		File xmlReportDir = new File(reportDir, "coverage-xml");
+		FileUtils.deleteDirectory(xmlReportDir);
+		xmlReportDir.mkdirs();
+		ReportTask reportTask = new ReportTask();
+		reportTask.setProject(TestUtils.project);
+		reportTask.setDataFile(datafile.getAbsolutePath());
+		reportTask.setSrcDir(srcDir.getAbsolutePath());
+		reportTask.setFormat("xml");
+		reportTask.setDestDir(xmlReportDir);
+		reportTask.execute();
+
+		return TestUtils.getXMLReportDOM(new File(xmlReportDir, "coverage.xml"));
+	}
+
 	/**
 	 * 
 	 * @param method method with the parsing issue
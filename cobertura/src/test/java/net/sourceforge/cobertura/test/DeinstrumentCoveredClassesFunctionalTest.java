@@ -0,0 +1,145 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import net.sourceforge.cobertura.coveragedata.ClassData;
+import net.sourceforge.cobertura.coveragedata.CoverageDataFileHandler;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
+import net.sourceforge.cobertura.instrument.CoberturaAgent;
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.taskdefs.Java;
+import org.apache.tools.ant.types.Path;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs a JVM with {@link CoberturaAgent} that de-instruments covered classes, and checks that a fully covered
+ * class is retransformed without probes, still works and keeps its coverage.
+ */
+public class DeinstrumentCoveredClassesFunctionalTest
+		extends
+			AbstractCoberturaTestCase {
+
+	static final String COVERED = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Covered {"
+			+ "\n  static int twice(int i) {"
+			+ "\n   return i % 2 == 0 ? 2 * i : i + i; // twice"
+			+ "\n  }"
+			+ "\n }";
+
+	static final String MAIN = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  public static void main(String[] args) throws Exception {"
+			+ "\n   new Covered();"
+			+ "\n   int sum = 0;"
+			+ "\n   for (int i = 0; i < 10; i++) {"
+			+ "\n    sum += Covered.twice(i);"
+			+ "\n   }"
+			+ "\n   /* the covered class is de-instrumented in the meantime */"
+			+ "\n   Thread.sleep(2000);"
+			+ "\n   for (int i = 0; i < 100; i++) {"
+			+ "\n    sum += Covered.twice(i); // after"
+			+ "\n   }"
+			+ "\n   if (sum != 2 * (45 + 4950)) {"
+			+ "\n    throw new IllegalStateException(\"Wrong sum: \" + sum);"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void coveredClassIsRetransformedWithoutProbes() throws Exception {
+		FileUtils.write(new File(srcDir, "mypackage/Covered.java"), COVERED);
+		FileUtils.write(mainSourceFile, MAIN);
+		TestUtils.compileSource(srcDir);
+
+		Java java = new Java();
+		java.setProject(TestUtils.project);
+		java.setClassname("mypackage.Main");
+		java.setDir(srcDir);
+		java.setFork(true);
+		java.setFailonerror(true);
+		java.createJvmarg().setValue(
+				"-javaagent:" + createAgentJar().getAbsolutePath()
+						+ "=--datafile," + datafile.getAbsolutePath()
+						+ ",--includeClasses,mypackage\\..*"
+						+ ",--deinstrumentInterval,100");
+		Path classpath = new Path(TestUtils.project, srcDir.getAbsolutePath());
+		classpath.append(new Path(TestUtils.project, System
+				.getProperty("java.class.path")));
+		java.setClasspath(classpath);
+		java.execute();
+
+		ProjectData projectData = CoverageDataFileHandler
+				.loadCoverageData(datafile);
+		ClassData covered = projectData.getClassData("mypackage.Covered");
+		assertNotNull(covered);
+		int twiceLine = findLine(COVERED, "// twice");
+		// the calls after the de-instrumentation are not counted
+		assertEquals(10, covered.getLineData(twiceLine).getHits());
+		assertEquals(covered.getNumberOfValidLines(), covered
+				.getNumberOfCoveredLines());
+		assertEquals(2, covered.getNumberOfValidBranches());
+		assertEquals(2, covered.getNumberOfCoveredBranches());
+
+		// not fully covered, so it still counts all the calls
+		ClassData main = projectData.getClassData("mypackage.Main");
+		assertEquals(100, main.getLineData(
+				findLine(MAIN, "// after")).getHits());
+	}
+
+	/**
+	 * @return jar with the manifest of the agent only, its classes are loaded from the class path
+	 */
+	private File createAgentJar() throws Exception {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue("Premain-Class", CoberturaAgent.class.getName());
+		attributes.putValue("Can-Retransform-Classes", "true");
+		File agentJar = new File(tempDir, "agent.jar");
+		new JarOutputStream(new FileOutputStream(agentJar), manifest).close();
+		return agentJar;
+	}
+
+	/**
+	 * @return number of the first line of the source that contains the text
+	 */
+	private static int findLine(String source, String text) {
+		String[] lines = source.split("\n", -1);
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].contains(text)) {
+				return i + 1;
+			}
+		}
+		throw new IllegalArgumentException(text);
+	}
+}
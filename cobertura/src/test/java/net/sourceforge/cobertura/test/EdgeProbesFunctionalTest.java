@@ -0,0 +1,152 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same conditions and switches instrumented with the branch counters on the edges and with
+ * the default probes, the branch and switch coverage must be the same.
+ */
+public class EdgeProbesFunctionalTest extends AbstractCoberturaTestCase {
+
+	static final String SOURCE = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  enum Color { RED, GREEN, BLUE, BLACK }"
+			+ "\n "
+			+ "\n  static int conditions(int a, int b) {"
+			+ "\n   int r = 0;"
+			+ "\n   if (a > 0 && b > 0) {"
+			+ "\n    r++;"
+			+ "\n   }"
+			+ "\n   if (a > 2 || b > 2) {"
+			+ "\n    r++;"
+			+ "\n   }"
+			+ "\n   r += a == b ? 1 : 2;"
+			+ "\n   if (a > 1) {"
+			+ "\n    if (b > 1) {"
+			+ "\n     r++;"
+			+ "\n    }"
+			+ "\n   } else if (b < 0) {"
+			+ "\n    r--;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int tableSwitch(int i) {"
+			+ "\n   switch (i) {"
+			+ "\n    case 0:"
+			+ "\n     return 10;"
+			+ "\n    case 1:"
+			+ "\n    case 2:"
+			+ "\n     return 12;"
+			+ "\n    case 3:"
+			+ "\n     i++;"
+			+ "\n    case 4:"
+			+ "\n     return i;"
+			+ "\n    default:"
+			+ "\n     return -1;"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int lookupSwitch(int i) {"
+			+ "\n   int r = 0;"
+			+ "\n   switch (i) {"
+			+ "\n    case 10:"
+			+ "\n     r = 1;"
+			+ "\n     break;"
+			+ "\n    case 1000:"
+			+ "\n     r = 2;"
+			+ "\n    case 100000:"
+			+ "\n     r++;"
+			+ "\n     break;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int enumSwitch(Color color) {"
+			+ "\n   switch (color) {"
+			+ "\n    case RED:"
+			+ "\n     return 1;"
+			+ "\n    case GREEN:"
+			+ "\n    case BLUE:"
+			+ "\n     return 2;"
+			+ "\n    default:"
+			+ "\n     return 3;"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int loopSwitch(int n) {"
+			+ "\n   int r = 0;"
+			+ "\n   for (int i = 0; i < n; i++) {"
+			+ "\n    switch (i % 3) {"
+			+ "\n     case 0:"
+			+ "\n      r++;"
+			+ "\n      break;"
+			+ "\n     case 1:"
+			+ "\n      continue;"
+			+ "\n     default:"
+			+ "\n      r--;"
+			+ "\n    }"
+			+ "\n    r *= 2;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  public static void main(String[] args) {"
+			+ "\n   conditions(1, 1);"
+			+ "\n   conditions(3, -1);"
+			+ "\n   conditions(0, 0);"
+			+ "\n   tableSwitch(0);"
+			+ "\n   tableSwitch(3);"
+			+ "\n   tableSwitch(7);"
+			+ "\n   lookupSwitch(1000);"
+			+ "\n   lookupSwitch(5);"
+			+ "\n   enumSwitch(Color.RED);"
+			+ "\n   enumSwitch(Color.BLUE);"
+			+ "\n   loopSwitch(5);"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void edgeProbesReportSameCoverage() throws Exception {
+		FileUtils.write(mainSourceFile, SOURCE);
+		TestUtils.compileSource(srcDir);
+
+		Map<String, String> expected = TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(null));
+		assertTrue(expected.size() > 40);
+
+		Map<String, Object> arguments = new HashMap<String, Object>();
+		arguments.put("edgeProbes", true);
+		assertEquals(expected, TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(arguments)));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same loops instrumented with and without the counters kept in local variables, the hit counts
+ * must be the same.
+ */
+public class HoistLoopCountersFunctionalTest extends AbstractCoberturaTestCase {
+
+	static final String SOURCE = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  static int breakLoop(int n) {"
+			+ "\n   int i = 0;"
+			+ "\n   while (true) {"
+			+ "\n    if (i >= n) {"
+			+ "\n     break;"
+			+ "\n    }"
+			+ "\n    i++;"
+			+ "\n   }"
+			+ "\n   return i;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int returnLoop(int n) {"
+			+ "\n   for (int i = 0; i < 10; i++) {"
+			+ "\n    if (i == n) {"
+			+ "\n     return i;"
+			+ "\n    }"
+			+ "\n   }"
+			+ "\n   return -1;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static void throwLoop(int n) {"
+			+ "\n   for (int i = 0; i < 10; i++) {"
+			+ "\n    if (i == n) {"
+			+ "\n     throw new IllegalStateException();"
+			+ "\n    }"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int catchInLoop(int n) {"
+			+ "\n   int caught = 0;"
+			+ "\n   for (int i = 0; i < n; i++) {"
+			+ "\n    try {"
+			+ "\n     throwLoop(i % 3);"
+			+ "\n    } catch (IllegalStateException e) {"
+			+ "\n     caught++;"
+			+ "\n    }"
+			+ "\n   }"
+			+ "\n   return caught;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int nested(int n) {"
+			+ "\n   int sum = 0;"
+			+ "\n   outer:"
+			+ "\n   for (int i = 0; i < n; i++) {"
+			+ "\n    for (int j = 0; j < n; j++) {"
+			+ "\n     if (i * j > 6) {"
+			+ "\n      break outer;"
+			+ "\n     }"
+			+ "\n     sum += j;"
+			+ "\n    }"
+			+ "\n   }"
+			+ "\n   return sum;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int doWhile(int n) {"
+			+ "\n   int i = 0;"
+			+ "\n   do {"
+			+ "\n    i += 2;"
+			+ "\n   } while (i < n);"
+			+ "\n   return i;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  public static void main(String[] args) throws Exception {"
+			+ "\n   for (int i = 0; i < 5; i++) {"
+			+ "\n    breakLoop(i);"
+			+ "\n    returnLoop(i);"
+			+ "\n    try {"
+			+ "\n     throwLoop(i);"
+			+ "\n    } catch (IllegalStateException e) {"
+			+ "\n    }"
+			+ "\n    catchInLoop(i);"
+			+ "\n    nested(i);"
+			+ "\n    doWhile(i);"
+			+ "\n   }"
+			+ "\n   /* main never returns, the hits of its loop are saved only if they are flushed after the loop */"
+			+ "\n   Class.forName(\"net.sourceforge.cobertura.coveragedata.ProjectData\")"
+			+ "\n     .getMethod(\"saveGlobalProjectData\").invoke(null);"
+			+ "\n   Runtime.getRuntime().halt(0);"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void hoistedCountersReportSameHits() throws Exception {
+		FileUtils.write(mainSourceFile, SOURCE);
+		TestUtils.compileSource(srcDir);
+
+		Map<String, String> expected = TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(null));
+		assertTrue(expected.size() > 40);
+
+		Map<String, Object> arguments = new HashMap<String, Object>();
+		arguments.put("hoistLoopCounters", true);
+		assertEquals(expected, TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(arguments)));
+	}
+}
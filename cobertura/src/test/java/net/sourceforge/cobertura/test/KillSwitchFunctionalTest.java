@@ -0,0 +1,153 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import groovy.util.Node;
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs classes instrumented with the kill switch, that turn the coverage off and on by
+ * {@link net.sourceforge.cobertura.coveragedata.CoverageSwitch}.
+ */
+public class KillSwitchFunctionalTest extends AbstractCoberturaTestCase {
+
+	static final String SOURCE = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  static void setCoverage(boolean enabled) throws Exception {"
+			+ "\n   Class.forName(\"net.sourceforge.cobertura.coveragedata.CoverageSwitch\")"
+			+ "\n     .getMethod(\"setEnabled\", boolean.class).invoke(null, enabled);"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int counted(int i) {"
+			+ "\n   return i + 1; // counted"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int switchedOnInCase(int i) throws Exception {"
+			+ "\n   int r = 0;"
+			+ "\n   switch (i) { // switchedOnInCase"
+			+ "\n    case 1:"
+			+ "\n     r++;"
+			+ "\n     setCoverage(true);"
+			+ "\n    case 2:"
+			+ "\n     r++; // switchedOnInCase fall-through"
+			+ "\n     break;"
+			+ "\n    default:"
+			+ "\n     r--;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int fallThrough(int i) {"
+			+ "\n   int r = 0;"
+			+ "\n   switch (i) { // fallThrough"
+			+ "\n    case 1:"
+			+ "\n     r++;"
+			+ "\n    case 2:"
+			+ "\n     r++; // fallThrough fall-through"
+			+ "\n     break;"
+			+ "\n    default:"
+			+ "\n     r--;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  public static void main(String[] args) throws Exception {"
+			+ "\n   counted(1);"
+			+ "\n   setCoverage(false);"
+			+ "\n   counted(2);"
+			+ "\n   counted(3);"
+			+ "\n   fallThrough(2);"
+			+ "\n   setCoverage(true);"
+			+ "\n   counted(4);"
+			+ "\n   fallThrough(1);"
+			+ "\n "
+			+ "\n   setCoverage(false);"
+			+ "\n   switchedOnInCase(1);"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void coverageStopsAndResumes() throws Exception {
+		FileUtils.write(mainSourceFile, SOURCE);
+		TestUtils.compileSource(srcDir);
+
+		Map<String, Object> arguments = new HashMap<String, Object>();
+		arguments.put("killSwitch", true);
+		Node dom = instrumentAndExecuteMainMethod(arguments);
+
+		assertEquals("2", getLine(dom, "counted", "// counted").attribute(
+				"hits"));
+
+		// only the switch to the first case has been counted, the fall-through to the second case is not a branch
+		Node fallThrough = getLine(dom, "fallThrough", "// fallThrough");
+		assertEquals("1", fallThrough.attribute("hits"));
+		assertCoveredBranches(1, fallThrough);
+		assertEquals("1", getLine(dom, "fallThrough",
+				"// fallThrough fall-through").attribute("hits"));
+
+		// the switch has been executed with the coverage off, the fall-through must not be counted as its branch
+		Node switchedOn = getLine(dom, "switchedOnInCase",
+				"// switchedOnInCase");
+		assertEquals("0", switchedOn.attribute("hits"));
+		assertCoveredBranches(0, switchedOn);
+		assertEquals("1", getLine(dom, "switchedOnInCase",
+				"// switchedOnInCase fall-through").attribute("hits"));
+	}
+
+	private static void assertCoveredBranches(int expected, Node line) {
+		String conditionCoverage = (String) line
+				.attribute("condition-coverage");
+		assertTrue(conditionCoverage, conditionCoverage.contains("(" + expected
+				+ "/"));
+	}
+
+	private static Node getLine(Node dom, String methodName, String marker) {
+		List<String> lines = Arrays.asList(SOURCE.split("\n", -1));
+		int lineNumber = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			if (lines.get(i).endsWith(marker)) {
+				lineNumber = i + 1;
+			}
+		}
+		assertFalse(lineNumber == 0);
+		for (Node line : TestUtils.getLineCounts(dom, "mypackage.Main",
+				methodName)) {
+			if (Integer.valueOf((String) line.attribute("number")) == lineNumber) {
+				return line;
+			}
+		}
+		fail("Line " + lineNumber + " of " + methodName + " not found");
+		return null;
+	}
+}
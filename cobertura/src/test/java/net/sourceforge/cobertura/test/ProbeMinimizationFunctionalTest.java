@@ -0,0 +1,150 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same classes instrumented with and without the minimization of probes, the reports
+ * must be the same (only the counters that can't be derived from other counters are left in minimized code).
+ */
+public class ProbeMinimizationFunctionalTest extends AbstractCoberturaTestCase {
+
+	static final String SOURCE = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  static int loop(int n) {"
+			+ "\n   int sum = 0;"
+			+ "\n   for (int i = 0; i < n; i++) {"
+			+ "\n    if (i % 3 == 0) {"
+			+ "\n     continue;"
+			+ "\n    }"
+			+ "\n    sum += i;"
+			+ "\n   }"
+			+ "\n   while (sum > 10) {"
+			+ "\n    sum -= 7;"
+			+ "\n   }"
+			+ "\n   return sum;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int tryCatch(int i) {"
+			+ "\n   try {"
+			+ "\n    if (i > 2) {"
+			+ "\n     throw new IllegalStateException(\"\" + i);"
+			+ "\n    }"
+			+ "\n    return i;"
+			+ "\n   } catch (IllegalStateException e) {"
+			+ "\n    return -1;"
+			+ "\n   } finally {"
+			+ "\n    System.out.println(\"finally \" + i);"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int fallThrough(int i) {"
+			+ "\n   int r = 0;"
+			+ "\n   switch (i) {"
+			+ "\n    case 1:"
+			+ "\n     r++;"
+			+ "\n    case 2:"
+			+ "\n     r++;"
+			+ "\n     break;"
+			+ "\n    case 3:"
+			+ "\n     r += 3;"
+			+ "\n    default:"
+			+ "\n     r--;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int multiLine(int a, int b) {"
+			+ "\n   int r = a"
+			+ "\n     + b;"
+			+ "\n   if (a > b"
+			+ "\n     && b > 0) {"
+			+ "\n    r = r * 2;"
+			+ "\n   } else {"
+			+ "\n    r = r"
+			+ "\n      - 1;"
+			+ "\n   }"
+			+ "\n   return r;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static void throwing(int i) {"
+			+ "\n   int x = i;"
+			+ "\n   x++;"
+			+ "\n   if (x > 3) throw new RuntimeException();"
+			+ "\n   x++;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static class Holder {"
+			+ "\n   int f;"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static int implicitThrows(int a, int b, int[] arr, Holder h, Object o) {"
+			+ "\n   int x = a / b;"
+			+ "\n   h.f = x;"
+			+ "\n   x += arr[a];"
+			+ "\n   String s = (String) o;"
+			+ "\n   return x + s.length();"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  public static void main(String[] args) {"
+			+ "\n   for (int i = 0; i < 5; i++) {"
+			+ "\n    loop(i * 4);"
+			+ "\n    tryCatch(i);"
+			+ "\n    fallThrough(i);"
+			+ "\n    multiLine(i, 2);"
+			+ "\n    try {"
+			+ "\n     throwing(i);"
+			+ "\n    } catch (RuntimeException e) {"
+			+ "\n    }"
+			+ "\n    try {"
+			+ "\n     implicitThrows(i, i - 1, new int[i == 3 ? 3 : 5],"
+			+ "\n       i == 2 ? null : new Holder(), i == 4 ? (Object) i : \"s\");"
+			+ "\n    } catch (RuntimeException e) {"
+			+ "\n    }"
+			+ "\n   }"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void minimizedProbesReportSameCoverage() throws Exception {
+		FileUtils.write(mainSourceFile, SOURCE);
+		TestUtils.compileSource(srcDir);
+
+		Map<String, String> expected = TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(null));
+		assertTrue(expected.size() > 40);
+
+		Map<String, Object> arguments = new HashMap<String, Object>();
+		arguments.put("minimizeProbes", true);
+		assertEquals(expected, TestUtils
+				.getLineReports(instrumentAndExecuteMainMethod(arguments)));
+	}
+}
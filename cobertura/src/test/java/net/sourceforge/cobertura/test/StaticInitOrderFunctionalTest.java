@@ -0,0 +1,145 @@
+/*
+ * Cobertura - http://cobertura.sourceforge.net/
+ *
+ * Cobertura is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * Cobertura is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Cobertura; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ */
+
+
+package net.sourceforge.cobertura.test;
+
+import groovy.util.Node;
+import net.sourceforge.cobertura.test.util.TestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs code of instrumented classes before their 'static initialization block', when it is called by static
+ * initializers of their supertypes, and classes with supertypes from 'java.' packages, that initialize their
+ * counters only in the 'static initialization block'.
+ */
+public class StaticInitOrderFunctionalTest extends AbstractCoberturaTestCase {
+
+	static final String PARENT = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Parent {"
+			+ "\n  static final Parent INSTANCE = new Child();"
+			+ "\n  static final String NAME = Child.staticName();"
+			+ "\n "
+			+ "\n  Parent() {"
+			+ "\n   describe();"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  String describe() {"
+			+ "\n   return \"parent\";"
+			+ "\n  }"
+			+ "\n }";
+
+	static final String CHILD = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Child extends Parent {"
+			+ "\n  String describe() {"
+			+ "\n   return \"child\";"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  static String staticName() {"
+			+ "\n   return \"child\";"
+			+ "\n  }"
+			+ "\n }";
+
+	/**
+	 * An interface with a default method is initialized before the classes implementing it.
+	 */
+	static final String NAMED = "\n package mypackage;"
+			+ "\n "
+			+ "\n public interface Named {"
+			+ "\n  Named DEFAULT = new Impl();"
+			+ "\n "
+			+ "\n  default String greeting() {"
+			+ "\n   return \"hello \" + name();"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  String name();"
+			+ "\n }";
+
+	static final String IMPL = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Impl implements Named {"
+			+ "\n  Impl() {"
+			+ "\n   greeting();"
+			+ "\n  }"
+			+ "\n "
+			+ "\n  public String name() {"
+			+ "\n   return \"impl\";"
+			+ "\n  }"
+			+ "\n }";
+
+	static final String TASK = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Task extends java.util.ArrayList<String> implements Runnable {"
+			+ "\n  public void run() {"
+			+ "\n   add(\"run\");"
+			+ "\n  }"
+			+ "\n }";
+
+	static final String MAIN = "\n package mypackage;"
+			+ "\n "
+			+ "\n public class Main {"
+			+ "\n  public static void main(String[] args) {"
+			+ "\n   /* Child is initialized first, so its code is called by Parent before its own static initializer */"
+			+ "\n   new Child().describe();"
+			+ "\n   new Impl().name();"
+			+ "\n   new Task().run();"
+			+ "\n  }"
+			+ "\n }";
+
+	@Test
+	public void codeCalledBeforeStaticInitializerIsCounted() throws Exception {
+		writeSource("Parent", PARENT);
+		writeSource("Child", CHILD);
+		writeSource("Named", NAMED);
+		writeSource("Impl", IMPL);
+		writeSource("Task", TASK);
+		writeSource("Main", MAIN);
+		TestUtils.compileSource(srcDir, srcDir, "1.8");
+
+		Node dom = instrumentAndExecuteMainMethod(null);
+
+		// called by the constructor of Parent twice and by main
+		assertEquals(3, TestUtils.getHitCount(dom, "mypackage.Child",
+				"describe"));
+		assertEquals(2, TestUtils.getHitCount(dom, "mypackage.Child", "<init>"));
+		assertEquals(1, TestUtils.getHitCount(dom, "mypackage.Child",
+				"staticName"));
+		assertEquals(0, TestUtils.getHitCount(dom, "mypackage.Parent",
+				"describe"));
+
+		assertEquals(2, TestUtils.getHitCount(dom, "mypackage.Impl", "<init>"));
+		// called by the default method of Named twice and by main
+		assertEquals(3, TestUtils.getHitCount(dom, "mypackage.Impl", "name"));
+
+		assertEquals(1, TestUtils.getHitCount(dom, "mypackage.Task", "<init>"));
+		assertEquals(1, TestUtils.getHitCount(dom, "mypackage.Task", "run"));
+	}
+
+	private void writeSource(String className, String source) throws Exception {
+		FileUtils.write(new File(srcDir, "mypackage/" + className + ".java"),
+				source);
+	}
+}
@@ -4,6 +4,7 @@ import groovy.util.AntBuilder;
 import groovy.util.Node;
 import groovy.util.XmlParser;
 import net.sourceforge.cobertura.ant.InstrumentTask;
+import net.sourceforge.cobertura.coveragedata.ProjectData;
 import net.sourceforge.cobertura.javancss.ccl.FileUtil;
 import org.apache.commons.io.FileUtils;
 import org.apache.tools.ant.DefaultLogger;
@@ -28,6 +29,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -271,6 +273,24 @@ public class TestUtils {
 			}
 		}
 
+		if (arguments != null && arguments.containsKey("edgeProbes")) {
+			instrumentTask.setEdgeProbes((Boolean) arguments.get("edgeProbes"));
+		}
+
+		if (arguments != null && arguments.containsKey("minimizeProbes")) {
+			instrumentTask.setMinimizeProbes((Boolean) arguments
+					.get("minimizeProbes"));
+		}
+
+		if (arguments != null && arguments.containsKey("hoistLoopCounters")) {
+			instrumentTask.setHoistLoopCounters((Boolean) arguments
+					.get("hoistLoopCounters"));
+		}
+
+		if (arguments != null && arguments.containsKey("killSwitch")) {
+			instrumentTask.setKillSwitch((Boolean) arguments.get("killSwitch"));
+		}
+
 		if (arguments != null
 				&& arguments.containsKey("excludeClassesRegexList")) {
 			instrumentTask.createExcludeClasses().setRegex(
@@ -652,6 +672,47 @@ public class TestUtils {
 		junit.execute();
 	}
 
+	/**
+	 * Replaces the global project data (that is saved when the JVM exits), so that a test that updates it
+	 * can restore it afterwards.
+	 *
+	 * @return the previous global project data
+	 */
+	public static ProjectData setGlobalProjectData(ProjectData projectData)
+			throws Exception {
+		ProjectData previous = ProjectData.getGlobalProjectData();
+		Field field = ProjectData.class.getDeclaredField("globalProjectData");
+		field.setAccessible(true);
+		field.set(null, projectData);
+		return previous;
+	}
+
+	/**
+	 * @return the line elements of all the classes in the xml report (with their hits and conditions) keyed by
+	 *         the class name and the line number, so that reports of differently instrumented runs can be compared
+	 */
+	public static Map<String, String> getLineReports(Node dom) {
+		Map<String, String> lineReports = new TreeMap<String, String>();
+		for (Object classNode : dom.depthFirst()) {
+			if (!(classNode instanceof Node)
+					|| !"class".equals(((Node) classNode).name())) {
+				continue;
+			}
+			for (Object linesNode : ((Node) classNode).children()) {
+				if (!(linesNode instanceof Node)
+						|| !"lines".equals(((Node) linesNode).name())) {
+					continue;
+				}
+				for (Object lineNode : ((Node) linesNode).children()) {
+					lineReports.put(((Node) classNode).attribute("name") + ":"
+							+ ((Node) lineNode).attribute("number"), lineNode
+							.toString());
+				}
+			}
+		}
+		return lineReports;
+	}
+
 	public static List<Node> getLineCounts(Node dom, String className,
 			String methodName) {
 		return getLineCounts(dom, className, methodName, null);